@@ -1,24 +1,24 @@
 package io.jenkins.plugins.ksm;
 
-import com.cloudbees.plugins.credentials.CredentialsMatchers;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
 import hudson.AbortException;
 import hudson.EnvVars;
 import hudson.FilePath;
 import hudson.model.Item;
-import hudson.security.ACL;
 import hudson.util.ListBoxModel;
 import hudson.util.Secret;
 import io.jenkins.plugins.ksm.credential.KsmCredential;
+import io.jenkins.plugins.ksm.credential.KsmCredentialIndex;
+import io.jenkins.plugins.ksm.notation.KsmTemplate;
 import jenkins.model.Jenkins;
 import org.json.JSONObject;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.Collections;
 import java.util.Base64;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -35,9 +35,6 @@ public class KsmCommon {
 
     private static final Logger logger = Logger.getLogger(KsmQuery.class.getName());
 
-    // Using ACL.SYSTEM, the cred stuff doesn't support ACL.SYSTEM2 yet.
-    // TODO: Switch to ACL.SYSTEM2 when CredentialsProvider supports it.
-    @SuppressWarnings("deprecation")
     public static ListBoxModel buildCredentialsIdListBox(Item item, String credentialsId) {
 
         if(item != null) {
@@ -57,16 +54,10 @@ public class KsmCommon {
             }
         }
 
-        return result
-                .includeEmptyValue()
-                .includeMatchingAs(
-                        ACL.SYSTEM,
-                        item,
-                        KsmCredential.class,
-                        Collections.emptyList(),
-                        CredentialsMatchers.always()
-                )
-                .includeCurrentValue(credentialsId);
+        // The credentials are listed once for the item, not once for each application on the page.
+        result.includeEmptyValue();
+        result.addAll(KsmCredentialIndex.get().getOptions(item));
+        return result.includeCurrentValue(credentialsId);
     }
 
     public static void addCredentialToEnv(KsmCredential credential, EnvVars newEnvVars, EnvVars existingEnvVars) {
@@ -167,4 +158,43 @@ public class KsmCommon {
         bos.write((byte[]) value);
         bos.close();
     }
+
+    public static String readTemplateFromWorkspace(FilePath workspace, String fileName) throws IOException, InterruptedException {
+
+        if (fileName == null || fileName.equals("")) {
+            throw new AbortException("The template path is blank. Cannot read the template.");
+        }
+        if (!validFilePath(fileName)) {
+            throw new AbortException("The template path " + fileName + " is invalid. Cannot read the template.");
+        }
+        FilePath template = workspace.child(fileName);
+        if (!template.exists()) {
+            throw new AbortException("The template " + fileName + " does not exist in the workspace.");
+        }
+        return template.readToString();
+    }
+
+    public static void writeTemplateToWorkspace(FilePath workspace, String fileName, KsmTemplate template) throws IOException, InterruptedException {
+
+        // Make sure the file name is a valid location for a secret.
+        if (fileName.equals("")) {
+            throw new AbortException("The file path is blank. Cannot save secret.");
+        }
+        if (!validFilePath(fileName)) {
+            throw new AbortException("The file path " + fileName + " is invalid. Cannot save secret to that file path.");
+        }
+
+        FilePath dir = workspace.child(fileName).getParent();
+        if (dir != null) {
+            dir.mkdirs();
+        }
+
+        // The template is written as it's filled in. The buffer keeps the writes to the agent from being tiny.
+        try (OutputStream bos = new BufferedOutputStream(workspace.child(fileName).write())) {
+            template.render(bos, Charset.defaultCharset());
+        }
+        catch (Exception e) {
+            throw new AbortException("Could not fill in the template for " + fileName + ": " + e.getMessage());
+        }
+    }
  }
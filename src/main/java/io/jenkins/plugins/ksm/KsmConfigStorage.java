@@ -0,0 +1,48 @@
+package io.jenkins.plugins.ksm;
+
+import com.keepersecurity.secretsManager.core.CryptoUtils;
+import com.keepersecurity.secretsManager.core.KeyValueStorage;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A KeyValueStorage that can be shared by concurrent builds. The SDK's LocalConfigStorage is backed by a plain
+ * HashMap and the SDK writes to the storage during a request, for example when the server key is rotated.
+ */
+public class KsmConfigStorage implements KeyValueStorage {
+
+    private final Map<String, String> values = new ConcurrentHashMap<>();
+
+    @Override
+    public String getString(String key) {
+        return values.get(key);
+    }
+
+    @Override
+    public void saveString(String key, String value) {
+        if (value == null) {
+            values.remove(key);
+        } else {
+            values.put(key, value);
+        }
+    }
+
+    @Override
+    public byte[] getBytes(String key) {
+        String value = getString(key);
+        if (value == null) {
+            return null;
+        }
+        return CryptoUtils.base64ToBytes(value);
+    }
+
+    @Override
+    public void saveBytes(String key, byte[] value) {
+        saveString(key, value == null ? null : CryptoUtils.bytesToBase64(value));
+    }
+
+    @Override
+    public void delete(String key) {
+        values.remove(key);
+    }
+}
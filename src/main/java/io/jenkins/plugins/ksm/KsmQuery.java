@@ -1,6 +1,15 @@
 package io.jenkins.plugins.ksm;
 
 import com.keepersecurity.secretsManager.core.*;
+import hudson.util.Secret;
+import io.jenkins.plugins.ksm.credential.KsmCredential;
+import io.jenkins.plugins.ksm.http.KsmEndpointRouter;
+import io.jenkins.plugins.ksm.http.KsmHttpTransport;
+import io.jenkins.plugins.ksm.http.KsmRetryPolicy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.*;
@@ -12,6 +21,14 @@ public class KsmQuery {
 
     private static final Logger logger = Logger.getLogger(KsmQuery.class.getName());
 
+    // The SecretsManagerOptions for each credential, so the secrets are not decrypted, and the storage not rebuilt,
+    // for every build. Keyed by KsmCredential.getCacheKey(), not the id; two stores can have a credential with the
+    // same id.
+    private static final Map<String, CachedOptions> optionsCache = new ConcurrentHashMap<>();
+
+    // A well formed record UID that no record has, so a probe gets no records back.
+    private static final String PROBE_UID = "AAAAAAAAAAAAAAAAAAAAAA";
+
     private static String handleException(Exception e) {
 
         String msg = e.getMessage();
@@ -36,9 +53,11 @@ public class KsmQuery {
         LocalConfigStorage storage = new LocalConfigStorage();
         try {
             SecretsManager.initializeStorage(storage, token, hostname);
-            SecretsManagerOptions options = new SecretsManagerOptions(storage, null,
-                    allowUnverifiedCertificate);
-            KeeperSecrets secrets = SecretsManager.getSecrets(options);
+            SecretsManagerOptions options = new SecretsManagerOptions(storage,
+                    KsmHttpTransport.get(allowUnverifiedCertificate), allowUnverifiedCertificate);
+            // The first request binds the token to the keys. It can only be made once, a retry would find the
+            // token used.
+            KeeperSecrets secrets = KsmRetryPolicy.callOnce(hostname, () -> SecretsManager.getSecrets(options));
             List<KeeperRecord> records = secrets.getRecords();
             logger.log(Level.FINE, "Found " + records.size() + " records with token redemption.");
         } catch (Exception e) {
@@ -54,7 +73,7 @@ public class KsmQuery {
     public static SecretsManagerOptions getOptions(String clientId, String privateKey, String appKey, String hostname,
                                                    boolean allowUnverifiedCertificate) {
 
-        LocalConfigStorage storage = new LocalConfigStorage();
+        KsmConfigStorage storage = new KsmConfigStorage();
         storage.saveString("clientId", clientId.trim());
         storage.saveString("privateKey", privateKey.trim());
         storage.saveString("appKey", appKey.trim());
@@ -66,7 +85,92 @@ public class KsmQuery {
                     + "Credentials manager.");
         }
 
-        return new SecretsManagerOptions(storage, null, allowUnverifiedCertificate);
+        return new SecretsManagerOptions(storage, KsmHttpTransport.get(allowUnverifiedCertificate),
+                allowUnverifiedCertificate);
+    }
+
+    /**
+     * Get the SecretsManagerOptions for a credential. The options are built once and reused until the credential
+     * changes. The same credential instance is a hit without decrypting anything. A different instance, for the
+     * same cache key, is a hit if the fingerprint of its secrets has not changed.
+     * @param credential The KSM credential
+     * @return SecretsManagerOptions
+     */
+    public static SecretsManagerOptions getOptions(KsmCredential credential) {
+
+        String key = credential.getCacheKey();
+        CachedOptions cached = optionsCache.get(key);
+        if (cached != null && cached.credential == credential) {
+            return cached.options;
+        }
+
+        String clientId = Secret.toString(credential.getClientId());
+        String privateKey = Secret.toString(credential.getPrivateKey());
+        String appKey = Secret.toString(credential.getAppKey());
+        String hostname = credential.getHostname();
+        boolean skipSslVerification = credential.getSkipSslVerification();
+        List<String> endpoints = KsmEndpointRouter.parseEndpoints(credential.getAdditionalHostnames());
+        boolean hedgeRequests = credential.getHedgeRequests();
+
+        String fingerprint = fingerprint(clientId, privateKey, appKey, hostname, skipSslVerification,
+                String.join(",", endpoints), String.valueOf(hedgeRequests));
+        SecretsManagerOptions options;
+        if (cached != null && cached.fingerprint.equals(fingerprint)) {
+            options = cached.options;
+        } else {
+            logger.log(Level.FINE, "Building the options for credential " + credential.getId());
+            options = getOptions(clientId, privateKey, appKey, hostname, skipSslVerification);
+            if (!endpoints.isEmpty()) {
+                options = new SecretsManagerOptions(options.getStorage(),
+                        new KsmEndpointRouter(endpoints, skipSslVerification, hedgeRequests),
+                        skipSslVerification);
+            }
+        }
+        optionsCache.put(key, new CachedOptions(credential, fingerprint, options));
+        return options;
+    }
+
+    /**
+     * Forget the options for a credential, in every store that has one with the id. Called when the credential is
+     * created or updated.
+     * @param credentialId The id of the KSM credential
+     */
+    public static void invalidateOptions(String credentialId) {
+        if (credentialId != null) {
+            optionsCache.keySet().removeIf(key -> KsmCredential.isCacheKeyOf(key, credentialId));
+        }
+    }
+
+    private static String fingerprint(String clientId, String privateKey, String appKey, String hostname,
+                                      boolean allowUnverifiedCertificate, String... others) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            List<String> values = new ArrayList<>(Arrays.asList(clientId, privateKey, appKey,
+                    Objects.toString(hostname, ""), String.valueOf(allowUnverifiedCertificate)));
+            values.addAll(Arrays.asList(others));
+            for (String value : values) {
+                digest.update(value.trim().getBytes(StandardCharsets.UTF_8));
+                // Separator, so moving characters between values changes the fingerprint.
+                digest.update((byte) 0);
+            }
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM has SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class CachedOptions {
+
+        private final KsmCredential credential;
+        private final String fingerprint;
+        private final SecretsManagerOptions options;
+
+        CachedOptions(KsmCredential credential, String fingerprint, SecretsManagerOptions options) {
+            this.credential = credential;
+            this.fingerprint = fingerprint;
+            this.options = options;
+        }
     }
 
     public static String testCredentials(String clientId, String privateKey, String appKey, String hostname,
@@ -77,9 +181,7 @@ public class KsmQuery {
         try {
             SecretsManagerOptions options = getOptions(clientId, privateKey, appKey, hostname,
                     allowUnverifiedCertificate);
-            KeeperSecrets secrets = SecretsManager.getSecrets(options);
-            List<KeeperRecord> records = secrets.getRecords();
-            logger.log(Level.FINE, "Found " + records.size() + " records");
+            probe(hostname, options);
         } catch (Exception e) {
             logger.log(Level.WARNING, "Testing credentials resulted in an error: " + e.getMessage());
             return "Validation of the credentials resulted in an error: " + handleException(e);
@@ -87,4 +189,16 @@ public class KsmQuery {
 
         return null;
     }
+
+    /**
+     * Check that the server accepts the keys, without retrieving any records. The records are filtered by a UID
+     * that no record has, so the server checks the keys and sends back an empty list instead of the whole vault.
+     * @param hostname The hostname of the server, used to pick the circuit breaker
+     * @param options The options for the credential
+     * @throws Exception The server could not be reached, or did not accept the keys.
+     */
+    public static void probe(String hostname, SecretsManagerOptions options) throws Exception {
+        KsmRetryPolicy.call(hostname,
+                () -> SecretsManager.getSecrets(options, Collections.singletonList(PROBE_UID)));
+    }
 }
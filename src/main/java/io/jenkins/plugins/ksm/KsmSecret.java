@@ -2,12 +2,23 @@ package io.jenkins.plugins.ksm;
 
 import hudson.Extension;
 import hudson.model.AbstractDescribableImpl;
+import hudson.model.AutoCompletionCandidates;
 import hudson.model.Descriptor;
+import hudson.model.Item;
 import hudson.util.FormValidation;
-import io.jenkins.plugins.ksm.notation.KsmNotation;
+import io.jenkins.plugins.ksm.cache.KsmVaultIndex;
+import io.jenkins.plugins.ksm.credential.KsmCredential;
+import io.jenkins.plugins.ksm.notation.KsmCompiledNotation;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.RelativePath;
+import org.kohsuke.stapler.StaplerRequest2;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -17,9 +28,17 @@ public class KsmSecret extends AbstractDescribableImpl<KsmSecret> {
     private String notation;
     private String destination;
     private String filePath;
+    private String templatePath;
+
+    // The parsed notation. It's not saved with the job, it's compiled again when the job is loaded.
+    private transient KsmCompiledNotation compiledNotation;
 
     public static final String destinationEnvVar = "env";
     public static final String destinationFilePath = "file";
+    public static final String destinationTemplate = "template";
+
+    // The most notations suggested while typing.
+    private static final int MAX_SUGGESTIONS = 20;
 
     @DataBoundConstructor
     public KsmSecret(String notation, String destination, String envVar, String filePath) {
@@ -27,6 +46,12 @@ public class KsmSecret extends AbstractDescribableImpl<KsmSecret> {
         this.destination = destination;
         this.envVar = envVar;
         this.filePath = filePath;
+        this.compiledNotation = KsmSecret.compileOrNull(notation);
+    }
+
+    private Object readResolve() {
+        this.compiledNotation = KsmSecret.compileOrNull(notation);
+        return this;
     }
 
     public String getNotation() {
@@ -41,11 +66,18 @@ public class KsmSecret extends AbstractDescribableImpl<KsmSecret> {
     public String getFilePath() {
         return filePath;
     }
+    public String getTemplatePath() {
+        return templatePath;
+    }
+    public boolean isDestinationTemplate() {
+        return destinationTemplate.equals(destination);
+    }
 
 
     @DataBoundSetter
     public void setNotation(String notation) {
         this.notation = notation;
+        this.compiledNotation = KsmSecret.compileOrNull(notation);
     }
     @DataBoundSetter
     public void setDestination(String destination) {
@@ -59,21 +91,33 @@ public class KsmSecret extends AbstractDescribableImpl<KsmSecret> {
     public void setFilePath(String filePath) {
         this.filePath = filePath;
     }
+    @DataBoundSetter
+    public void setTemplatePath(String templatePath) {
+        this.templatePath = templatePath;
+    }
 
     public void validate() throws Exception{
 
         if ((destination == null) || (destination.equals(""))) {
             throw new Exception("The destination is missing or blank.");
         }
-        if ( (!destination.equals(KsmSecret.destinationEnvVar)) && (!destination.equals(KsmSecret.destinationFilePath))) {
-            throw new Exception("The destination is not correct. Valid values is either 'env' or 'file'");
+        if ( (!destination.equals(KsmSecret.destinationEnvVar)) && (!destination.equals(KsmSecret.destinationFilePath))
+                && (!destination.equals(KsmSecret.destinationTemplate))) {
+            throw new Exception("The destination is not correct. Valid values is either 'env', 'file' or 'template'");
         }
         if ((destination.equals(KsmSecret.destinationEnvVar) && ((envVar==null)||envVar.equals("")))){
             throw new Exception("The envVar value is missing or blank");
         }
-        if ((destination.equals(KsmSecret.destinationFilePath) && ((filePath==null)||filePath.equals("")))){
+        if ((!destination.equals(KsmSecret.destinationEnvVar) && ((filePath==null)||filePath.equals("")))){
             throw new Exception("The filePath value is missing or blank");
         }
+        // The notations of a template are in the template file.
+        if (destination.equals(KsmSecret.destinationTemplate)) {
+            if ((templatePath==null)||templatePath.equals("")) {
+                throw new Exception("The templatePath value is missing or blank");
+            }
+            return;
+        }
         if ((notation == null) || (notation.equals(""))) {
             throw new Exception("The notation is missing or blank.");
         }
@@ -82,6 +126,38 @@ public class KsmSecret extends AbstractDescribableImpl<KsmSecret> {
         // if we go here we are good
     }
 
+    /**
+     * Get the parsed notation. The notation was compiled when this secret was created or loaded, so builds don't
+     * need to parse it again.
+     * @return KsmCompiledNotation
+     * @throws Exception The notation is missing or not valid.
+     */
+    public KsmCompiledNotation getCompiledNotation() throws Exception {
+        KsmCompiledNotation compiled = compiledNotation;
+        if (compiled == null) {
+            if ((notation == null) || (notation.equals(""))) {
+                throw new Exception("The notation is missing or blank.");
+            }
+            // This will throw the reason the notation is not valid.
+            compiled = KsmCompiledNotation.compile(notation);
+            compiledNotation = compiled;
+        }
+        return compiled;
+    }
+
+    // An invalid notation is not an error until the secret is used, or the job is saved.
+    private static KsmCompiledNotation compileOrNull(String notation) {
+        if ((notation == null) || (notation.equals(""))) {
+            return null;
+        }
+        try {
+            return KsmCompiledNotation.compile(notation);
+        }
+        catch(Exception e) {
+            return null;
+        }
+    }
+
     // Used by the UI for the selecting the active option in a select box.
     public String isDestinationType(String destination) {
         return this.destination.equalsIgnoreCase(destination) ? "true" : "";
@@ -101,6 +177,22 @@ public class KsmSecret extends AbstractDescribableImpl<KsmSecret> {
     @Extension
     public static class DescriptorImpl extends Descriptor<KsmSecret> {
 
+        // Don't allow a job to be saved with a notation that would fail every build.
+        @Override
+        public KsmSecret newInstance(StaplerRequest2 req, JSONObject formData) throws FormException {
+            KsmSecret secret = super.newInstance(req, formData);
+            if (secret != null && !secret.isDestinationTemplate()) {
+                try {
+                    secret.getCompiledNotation();
+                }
+                catch(Exception e) {
+                    throw new FormException("The notation '" + secret.getNotation() + "' is not valid: "
+                            + e.getMessage(), "notation");
+                }
+            }
+            return secret;
+        }
+
         public FormValidation doCheckFilePath(@QueryParameter String value) {
             if (value.equals("")) {
                 return FormValidation.error("The file path cannot be blank.");
@@ -112,6 +204,17 @@ public class KsmSecret extends AbstractDescribableImpl<KsmSecret> {
             return FormValidation.ok();
         }
 
+        public FormValidation doCheckTemplatePath(@QueryParameter String value) {
+            if (value.equals("")) {
+                return FormValidation.error("The template path cannot be blank.");
+            }
+            else if (!KsmCommon.validFilePath(value)) {
+                return FormValidation.error("The template path is invalid.");
+            }
+
+            return FormValidation.ok();
+        }
+
         public FormValidation doCheckEnvVar(@QueryParameter String value) {
 
             // Make sure the env var name is not blank.
@@ -128,15 +231,74 @@ public class KsmSecret extends AbstractDescribableImpl<KsmSecret> {
             return FormValidation.ok();
         }
 
-        public FormValidation doCheckNotation(@QueryParameter String value) {
+        public FormValidation doCheckNotation(@QueryParameter String value,
+                                              @RelativePath("..") @QueryParameter String credentialsId,
+                                              @AncestorInPath Item item) {
 
+            // Compiling checks the whole format. The item a build uses is made from the compiled notation, which
+            // can't fail.
+            KsmCompiledNotation compiled;
             try {
-                KsmNotation.parse("TEST", value, true);
+                compiled = KsmCompiledNotation.compile(value);
             }
             catch(Exception e) {
                 return FormValidation.error(e.getMessage());
             }
+
+            // Check the record and field exist, using the records already loaded for the application. The server is
+            // never called from here, so the page stays responsive while typing.
+            if (credentialsId == null || credentialsId.equals("") || !canSeeRecords(item)) {
+                return FormValidation.ok();
+            }
+            KsmVaultIndex.Snapshot snapshot;
+            try {
+                snapshot = KsmVaultIndex.get().getSnapshot(KsmCredential.getCredentialFromId(credentialsId, item));
+            }
+            catch(Exception e) {
+                return FormValidation.ok();
+            }
+            if (snapshot == null) {
+                return FormValidation.ok("The records of the application are still being loaded. Only the format of "
+                        + "the notation was checked.");
+            }
+            String problem = snapshot.check(compiled);
+            if (problem != null) {
+                return FormValidation.warning(problem);
+            }
             return FormValidation.ok();
         }
+
+        public AutoCompletionCandidates doAutoCompleteNotation(@QueryParameter String value,
+                                                               @AncestorInPath Item item) {
+
+            // The application isn't sent with the value, so the records of every application the job can use are
+            // suggested.
+            AutoCompletionCandidates candidates = new AutoCompletionCandidates();
+            if (!canSeeRecords(item)) {
+                return candidates;
+            }
+            Set<String> suggestions = new LinkedHashSet<>();
+            for (KsmCredential credential : KsmCredential.getCredentials(item)) {
+                KsmVaultIndex.Snapshot snapshot = KsmVaultIndex.get().getSnapshot(credential);
+                if (snapshot != null) {
+                    suggestions.addAll(snapshot.suggest(value, MAX_SUGGESTIONS - suggestions.size()));
+                }
+                if (suggestions.size() >= MAX_SUGGESTIONS) {
+                    break;
+                }
+            }
+            for (String suggestion : suggestions) {
+                candidates.add(suggestion);
+            }
+            return candidates;
+        }
+
+        // Record titles and field names are only shown to users who can configure the job.
+        private static boolean canSeeRecords(Item item) {
+            if (item == null) {
+                return Jenkins.get().hasPermission(Jenkins.ADMINISTER);
+            }
+            return item.hasPermission(Item.CONFIGURE);
+        }
     }
 }
@@ -0,0 +1,118 @@
+package io.jenkins.plugins.ksm;
+
+import com.keepersecurity.secretsManager.core.*;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import io.jenkins.plugins.ksm.http.KsmHttpTransport;
+import io.jenkins.plugins.ksm.notation.KsmNotation;
+import io.jenkins.plugins.ksm.notation.KsmNotationItem;
+import io.jenkins.plugins.ksm.notation.KsmRecordIndex;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import kotlinx.serialization.json.Json;
+import javax.net.ssl.SSLContext;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The first build to use Keeper Secrets Manager after a restart pays for loading the SDK and HTTP client classes,
+ * initializing the crypto providers and TLS, and for the JIT. This runs the same code, on made up data, in the
+ * background after Jenkins starts so the first build doesn't have to. Requests are built but nothing is sent over
+ * the network.
+ */
+public class KsmWarmUp {
+
+    private static final Logger logger = Logger.getLogger(KsmWarmUp.class.getName());
+
+    private static final boolean DISABLED = SystemProperties.getBoolean(KsmWarmUp.class.getName() + ".disabled");
+
+    // Enough rounds for the JIT to compile the hot methods.
+    private static final int ROUNDS = SystemProperties.getInteger(KsmWarmUp.class.getName() + ".rounds", 20);
+
+    private KsmWarmUp() {
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED, fatal = false)
+    public static void schedule() {
+        if (DISABLED) {
+            return;
+        }
+        Timer.get().submit(() -> {
+            try {
+                long start = System.currentTimeMillis();
+                warmUp(ROUNDS);
+                logger.log(Level.FINE, "Warmed up the Keeper Secrets Manager SDK in " +
+                        (System.currentTimeMillis() - start) + " ms.");
+            } catch (Exception e) {
+                // Only a missed optimization. The first build will do the work instead.
+                logger.log(Level.FINE, "Could not warm up the Keeper Secrets Manager SDK: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Exercise the key handling, encryption, signing, HTTP request, JSON and notation code the SDK uses when
+     * retrieving secrets.
+     * @param rounds How many times to repeat the work
+     * @return The secret the made up record resolved to in the last round
+     * @throws Exception A step failed.
+     */
+    public static String warmUp(int rounds) throws Exception {
+
+        // TLS, and the HTTP client and its HTTP/2 support, are set up the first time a connection is made. The
+        // client isn't kept. The real ones are made per host, and the host isn't known yet.
+        SSLContext.getDefault().createSSLEngine();
+        KsmHttpTransport.buildClient(false);
+
+        // The keys in a credential are an EC private key and an AES application key.
+        java.security.KeyPair keyPair = CryptoUtils.generateKeyPair();
+        byte[] privateKey = keyPair.getPrivate().getEncoded();
+        byte[] publicKey = CryptoUtils.extractPublicRaw(keyPair.getPublic());
+        byte[] appKey = CryptoUtils.getRandomBytes(32);
+
+        String uid = CryptoUtils.webSafe64FromBytes(CryptoUtils.generateUid());
+        List<KeeperRecordField> fields = new ArrayList<>();
+        fields.add(new Login(null, true, false, Collections.singletonList("login")));
+        fields.add(new Password(null, true, false, false, null, Collections.singletonList("password")));
+        KeeperRecordData data = new KeeperRecordData("Warm up", "login", fields, null, null);
+        URI uri = URI.create("https://keepersecurity.com/api/rest/sm/v1/get_secret");
+
+        String value = null;
+        for (int round = 0; round < rounds; round++) {
+            // Each request has a transmission key, encrypted with the server's public key, and a signed payload.
+            byte[] transmissionKey = CryptoUtils.getRandomBytes(32);
+            byte[] encryptedTransmissionKey = CryptoUtils.publicEncrypt(transmissionKey, publicKey);
+            CryptoUtils.privateDecrypt(encryptedTransmissionKey, privateKey);
+            byte[] payload = CryptoUtils.encrypt(CryptoUtils.stringToBytes("{\"requestedRecords\":[\"" + uid
+                    + "\"]}"), transmissionKey, false);
+            byte[] signature = CryptoUtils.sign(payload, privateKey);
+            KsmHttpTransport.buildRequest(uri, new TransmissionKey(7, transmissionKey, encryptedTransmissionKey),
+                    new EncryptedPayload(payload, signature));
+
+            // Records come back as encrypted JSON.
+            byte[] recordKey = CryptoUtils.getRandomBytes(32);
+            String json = Json.Default.encodeToString(KeeperRecordData.Companion.serializer(), data);
+            byte[] encrypted = CryptoUtils.encrypt(json.getBytes(StandardCharsets.UTF_8), recordKey, false);
+            byte[] encryptedKey = CryptoUtils.encrypt(recordKey, appKey, false);
+            byte[] decryptedKey = CryptoUtils.decrypt(encryptedKey, appKey, false);
+            KeeperRecordData decrypted = Json.Default.decodeFromString(KeeperRecordData.Companion.serializer(),
+                    CryptoUtils.bytesToString(CryptoUtils.decrypt(encrypted, decryptedKey, false)));
+
+            KeeperRecord record = new KeeperRecord(decryptedKey, uid, null, null, null, decrypted, 0L,
+                    new ArrayList<>(), null);
+            KeeperSecrets secrets = new KeeperSecrets(new AppData("", ""), Collections.singletonList(record),
+                    null, null);
+            KsmNotationItem item = KsmNotation.parse("WARM_UP", "keeper://" + uid + "/field/password", false);
+            value = new KsmRecordIndex(secrets).getValue(item);
+            if (!value.equals(Notation.getValue(secrets, item.getNotation()))) {
+                throw new Exception("The made up record resolved to different values.");
+            }
+        }
+        return value;
+    }
+}
@@ -9,10 +9,12 @@ import hudson.tasks.BuildWrapperDescriptor;
 import io.jenkins.plugins.ksm.KsmApplication;
 import io.jenkins.plugins.ksm.KsmCommon;
 import io.jenkins.plugins.ksm.KsmSecret;
+import io.jenkins.plugins.ksm.cache.KsmPrefetcher;
 import io.jenkins.plugins.ksm.credential.KsmCredential;
 import io.jenkins.plugins.ksm.log.KsmBuildConsoleLogFilter;
 import io.jenkins.plugins.ksm.notation.KsmNotation;
 import io.jenkins.plugins.ksm.notation.KsmNotationItem;
+import io.jenkins.plugins.ksm.notation.KsmTemplate;
 import org.kohsuke.stapler.DataBoundConstructor;
 import java.io.*;
 import java.util.*;
@@ -24,6 +26,8 @@ public class KsmBuildWrapper extends BuildWrapper {
     private List<String> secretValues;
     private List<String> secretFiles;
     private Map<String, KsmNotationItem> notationItems;
+    // Templates are read from the workspace, which doesn't exist yet when the other secrets are retrieved.
+    private transient Map<KsmCredential, List<KsmSecret>> templateSecrets;
     private String systemSecretError;
 
     @DataBoundConstructor
@@ -49,17 +53,22 @@ public class KsmBuildWrapper extends BuildWrapper {
         // so a stale error from a prior run (e.g., a 502 from the KSM endpoint) must
         // not leak forward and abort future builds (#52).
         notationItems = new HashMap<>();
+        templateSecrets = new LinkedHashMap<>();
         secretValues = new ArrayList<>();
         systemSecretError = null;
 
         // Since we are initializing this from the console, any exceptions just kill the console. Handle the errors
         // in the setup.
         try {
+            // The UIDs each credential resolved, for all the applications. Recorded once the secrets are retrieved,
+            // so applications sharing a credential don't replace each other's usage.
+            Map<KsmCredential, List<KsmNotationItem>> usage = new LinkedHashMap<>();
             for (KsmApplication app : application) {
 
                 KsmCredential credential = null;
                 try {
                     credential = KsmCredential.getCredentialFromId(app.getCredentialsId(), job);
+                    credential.awaitRedemption();
                 } catch (Exception e) {
                     throw new AbortException(KsmCommon.errorPrefix + e.getMessage());
                 }
@@ -69,7 +78,18 @@ public class KsmBuildWrapper extends BuildWrapper {
                 }
 
                 // Parse the secrets set in the build environment.
+                List<KsmNotationItem> appItems = new ArrayList<>();
                 for (KsmSecret secretItem : app.getSecrets()) {
+                    if (secretItem.isDestinationTemplate()) {
+                        List<KsmSecret> secrets = templateSecrets.get(credential);
+                        if (secrets == null) {
+                            secrets = new ArrayList<>();
+                            templateSecrets.put(credential, secrets);
+                        }
+                        secrets.add(secretItem);
+                        continue;
+                    }
+
                     // Allow failure will populate the error var in the notation item. No need to
                     // catch any exceptions.
                     KsmNotationItem notationItem;
@@ -85,10 +105,12 @@ public class KsmBuildWrapper extends BuildWrapper {
 
                     }
                     notationItems.put(notationItem.getName(), notationItem);
+                    appItems.add(notationItem);
                 }
 
                 try {
                     this.getNotation().run(credential, notationItems);
+                    usage.computeIfAbsent(credential, k -> new ArrayList<>()).addAll(appItems);
                 } catch (Exception e) {
                     // This would be a like a network error, or the server is down.
                     throw new AbortException(KsmCommon.errorPrefix + "The secret replacement had problems: "
@@ -97,12 +119,21 @@ public class KsmBuildWrapper extends BuildWrapper {
                     throwable.printStackTrace();
                 }
             }
+            for (Map.Entry<KsmCredential, List<KsmNotationItem>> entry : usage.entrySet()) {
+                KsmPrefetcher.recordUsage(job, entry.getKey(), entry.getValue());
+            }
 
             for (Map.Entry<String, KsmNotationItem> entry : notationItems.entrySet()) {
                 KsmNotationItem notationItem = entry.getValue();
                 if (notationItem.getError() == null) {
                     Object value = notationItem.getValue();
 
+                    // A bulk notation going into env vars has its values in fields, not value.
+                    if (notationItem.isBulk() && notationItem.isDestinationEnvVar()) {
+                        secretValues.addAll(notationItem.getSecretValues());
+                        continue;
+                    }
+
                     // If the value is null, set the value to blank.
                     if ( value == null ) {
                         notationItem.setValue("");
@@ -119,7 +150,7 @@ public class KsmBuildWrapper extends BuildWrapper {
 
                     // Only add the value if value is String.
                     if (value instanceof String) {
-                        secretValues.add((String) notationItem.getValue());
+                        secretValues.addAll(notationItem.getSecretValues());
                     }
                     // TODO - Try to figure out how to redact binary data. All attempts failed so far.
                     // What was done
@@ -163,6 +194,36 @@ public class KsmBuildWrapper extends BuildWrapper {
 
         FilePath workspace = build.getWorkspace();
 
+        // Fill in the templates. The notations in all the templates of a credential are retrieved at once.
+        for (Map.Entry<KsmCredential, List<KsmSecret>> entry : templateSecrets.entrySet()) {
+            List<KsmTemplate> templates = new ArrayList<>();
+            Map<String, KsmNotationItem> templateItems = new HashMap<>();
+            for (KsmSecret secret : entry.getValue()) {
+                try {
+                    KsmTemplate template = KsmTemplate.parse(secret.getFilePath(),
+                            KsmCommon.readTemplateFromWorkspace(workspace, secret.getTemplatePath()));
+                    templates.add(template);
+                    templateItems.putAll(template.getNotationItems());
+                } catch (Exception e) {
+                    throw new AbortException(KsmCommon.errorPrefix + "Could not parse the template "
+                            + secret.getTemplatePath() + ": " + e.getMessage());
+                }
+            }
+
+            try {
+                this.getNotation().run(entry.getKey(), templateItems);
+            } catch (Exception e) {
+                throw new AbortException(KsmCommon.errorPrefix + "The secret replacement had problems: "
+                        + e.getMessage());
+            }
+
+            for (KsmTemplate template : templates) {
+                secretValues.addAll(template.getSecretValues());
+                KsmCommon.writeTemplateToWorkspace(workspace, template.getFilePath(), template);
+                secretFiles.add(template.getFilePath());
+            }
+        }
+
         return new Environment() {
 
             @Override
@@ -174,13 +235,14 @@ public class KsmBuildWrapper extends BuildWrapper {
                     if (notationItem.getError() == null) {
                         if (notationItem.isDestinationEnvVar()) {
 
-                            // At this point we know the value is a String.
-                            String value = (String) notationItem.getValue();
-
-                            if (value.contains("$")) {
-                                value = value.replace("$", "$$$$");
+                            // At this point we know the values are Strings.
+                            for (Map.Entry<String, String> envVar : notationItem.getEnvVars().entrySet()) {
+                                String value = envVar.getValue();
+                                if (value.contains("$")) {
+                                    value = value.replace("$", "$$$$");
+                                }
+                                env.put(envVar.getKey(), value);
                             }
-                            env.put(notationItem.getEnvVar(), value);
                         } else {
                             try {
                                 KsmCommon.writeFileToWorkspace(
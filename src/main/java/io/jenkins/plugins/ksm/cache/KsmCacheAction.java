@@ -0,0 +1,115 @@
+package io.jenkins.plugins.ksm.cache;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.UnprotectedRootAction;
+import hudson.security.csrf.CrumbExclusion;
+import io.jenkins.plugins.ksm.provider.KsmProvidedValues;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.verb.POST;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Lets secret rotation tools remove records from the cache as soon as they are changed, so the next build gets
+ * the new value without waiting for the cache to expire.
+ *
+ * POST to JENKINS_URL/ksm-cache/invalidate with the credentialId parameter, and optionally one or more uid
+ * parameters. Without a uid everything cached for the credential is removed. The caller needs the Administer
+ * permission, normally by using an API token.
+ */
+@Extension
+public class KsmCacheAction implements UnprotectedRootAction {
+
+    public static final String URL_NAME = "ksm-cache";
+
+    private static final Logger logger = Logger.getLogger(KsmCacheAction.class.getName());
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return null;
+    }
+
+    @Override
+    public String getUrlName() {
+        return URL_NAME;
+    }
+
+    @POST
+    public HttpResponse doInvalidate(@QueryParameter String credentialId, @QueryParameter String uid) {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+        credentialId = Util.fixEmptyAndTrim(credentialId);
+        if (credentialId == null) {
+            return HttpResponses.errorWithoutStack(400, "The credentialId parameter is required.");
+        }
+
+        uid = Util.fixEmptyAndTrim(uid);
+        if (uid == null) {
+            invalidate(credentialId);
+            return HttpResponses.text("Removed all cached records for " + credentialId + ".\n");
+        }
+
+        // More than one UID can be passed separated by commas.
+        int count = 0;
+        for (String recordUid : uid.split(",")) {
+            recordUid = recordUid.trim();
+            if (!recordUid.isEmpty() && invalidate(credentialId, recordUid)) {
+                count++;
+            }
+        }
+        return HttpResponses.text("Removed " + count + " cached record(s) for " + credentialId + ".\n");
+    }
+
+    /**
+     * Remove a record, and its file attachments, from the cache.
+     * @param credentialId The KSM credential id
+     * @param uid The record UID
+     * @return true if the record was cached
+     */
+    public static boolean invalidate(String credentialId, String uid) {
+        logger.log(Level.FINE, "Removing record " + uid + " for " + credentialId + " from the cache.");
+        KsmProvidedValues.get().invalidate(credentialId, uid);
+        return KsmRecordCache.get().invalidate(credentialId, uid);
+    }
+
+    /**
+     * Remove all records, and file attachments, cached for a credential.
+     * @param credentialId The KSM credential id
+     */
+    public static void invalidate(String credentialId) {
+        logger.log(Level.FINE, "Removing all records for " + credentialId + " from the cache.");
+        KsmRecordCache.get().invalidate(credentialId);
+        KsmVaultIndex.get().invalidate(credentialId);
+        KsmProvidedValues.get().invalidate(credentialId);
+    }
+
+    // Rotation tools authenticate with an API token and don't have a crumb.
+    @Extension
+    public static class CrumbExclusionImpl extends CrumbExclusion {
+
+        @Override
+        public boolean process(HttpServletRequest req, HttpServletResponse resp, FilterChain chain)
+                throws IOException, ServletException {
+            String pathInfo = req.getPathInfo();
+            if (pathInfo != null && pathInfo.startsWith("/" + URL_NAME + "/")) {
+                chain.doFilter(req, resp);
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package io.jenkins.plugins.ksm.cache;
+
+import hudson.Extension;
+import hudson.cli.CLICommand;
+import io.jenkins.plugins.ksm.provider.KsmProvidedValues;
+import jenkins.model.Jenkins;
+import org.kohsuke.args4j.Option;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Remove records from the cache from a script, for example after rotating secrets.
+ *
+ *     java -jar jenkins-cli.jar ksm-cache-flush -c my-ksm -u Ipk9NR1rCBZXyflWbPwTGA
+ *     java -jar jenkins-cli.jar ksm-cache-flush --all
+ */
+@Extension
+public class KsmCacheFlushCommand extends CLICommand {
+
+    @Option(name = "-c", aliases = "--credential", metaVar = "ID",
+            usage = "Id of the Keeper Secrets Manager credential. Can be repeated.")
+    public List<String> credentialIds = new ArrayList<>();
+
+    @Option(name = "-u", aliases = "--uid", metaVar = "UID",
+            usage = "Only remove this record. Can be repeated. Without it, everything cached for the credential is removed.")
+    public List<String> uids = new ArrayList<>();
+
+    @Option(name = "--all", usage = "Remove everything cached for all credentials.")
+    public boolean all;
+
+    @Override
+    public String getShortDescription() {
+        return "Remove records from the Keeper Secrets Manager cache.";
+    }
+
+    @Override
+    protected int run() throws Exception {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+        if (all) {
+            KsmRecordCache.get().invalidateAll();
+            KsmVaultIndex.get().invalidateAll();
+            KsmProvidedValues.get().invalidateAll();
+            stdout.println("Removed all cached records.");
+            return 0;
+        }
+        if (credentialIds.isEmpty()) {
+            stderr.println("Either a credential id (-c) or --all is required.");
+            return 2;
+        }
+
+        for (String credentialId : credentialIds) {
+            if (uids.isEmpty()) {
+                KsmCacheAction.invalidate(credentialId);
+                stdout.println(credentialId + ": removed all cached records.");
+                continue;
+            }
+            int count = 0;
+            for (String uid : uids) {
+                if (KsmCacheAction.invalidate(credentialId, uid)) {
+                    count++;
+                }
+            }
+            stdout.println(credentialId + ": removed " + count + " of " + uids.size() + " record(s).");
+        }
+        return 0;
+    }
+}
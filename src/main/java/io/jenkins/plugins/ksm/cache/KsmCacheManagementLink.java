@@ -0,0 +1,229 @@
+package io.jenkins.plugins.ksm.cache;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.ManagementLink;
+import hudson.security.ACL;
+import hudson.security.Permission;
+import io.jenkins.plugins.ksm.credential.KsmCredential;
+import io.jenkins.plugins.ksm.credential.KsmCredentialHealth;
+import io.jenkins.plugins.ksm.http.KsmBulkhead;
+import io.jenkins.plugins.ksm.http.KsmCircuitBreaker;
+import io.jenkins.plugins.ksm.http.KsmConcurrencyLimiter;
+import io.jenkins.plugins.ksm.http.KsmEndpointRouter;
+import io.jenkins.plugins.ksm.http.KsmHttpTransport;
+import io.jenkins.plugins.ksm.provider.KsmProvidedValues;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.verb.POST;
+import java.util.*;
+
+/**
+ * The Manage Jenkins page showing what is in the record cache, and the state of the connections to the Keeper
+ * Secrets Manager servers.
+ */
+@Extension
+public class KsmCacheManagementLink extends ManagementLink {
+
+    @Override
+    public String getIconFileName() {
+        return "/plugin/keeper-secrets-manager/images/ksm.svg";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Keeper Secrets Manager Cache";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Records cached by Keeper Secrets Manager credentials and the state of the Keeper Secrets Manager " +
+                "servers.";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "ksm-cache-status";
+    }
+
+    @Override
+    public Permission getRequiredPermission() {
+        return Jenkins.ADMINISTER;
+    }
+
+    @Override
+    public Category getCategory() {
+        return Category.STATUS;
+    }
+
+    public boolean isCacheEnabled() {
+        return KsmRecordCache.get().isEnabled();
+    }
+
+    /**
+     * Get the cache and connection state for each credential. This includes global credentials that have not used
+     * the cache yet, and any credential, global or not, that has. A folder credential with the same id as another
+     * one has its own row.
+     * @return List of credential states, sorted by id
+     */
+    public List<CredentialState> getCredentials() {
+        Map<String, String> hostnames = new TreeMap<>();
+        List<KsmCredential> credentials = CredentialsProvider.lookupCredentialsInItemGroup(
+                KsmCredential.class, Jenkins.get(), ACL.SYSTEM2, Collections.emptyList());
+        for (KsmCredential credential : credentials) {
+            hostnames.put(credential.getCacheKey(), credential.getHostname());
+        }
+        for (String cacheKey : KsmRecordCache.get().getCacheKeys()) {
+            hostnames.putIfAbsent(cacheKey, null);
+        }
+
+        Map<String, KsmCircuitBreaker> breakers = new HashMap<>();
+        for (KsmCircuitBreaker breaker : KsmCircuitBreaker.all()) {
+            breakers.put(breaker.getHost(), breaker);
+        }
+
+        List<CredentialState> states = new ArrayList<>();
+        for (Map.Entry<String, String> entry : hostnames.entrySet()) {
+            String hostname = entry.getValue();
+            KsmRecordCache.Summary cache = KsmRecordCache.get().summarize(entry.getKey());
+            states.add(new CredentialState(
+                    cache,
+                    hostname,
+                    KsmBulkhead.get(entry.getKey()),
+                    hostname == null ? null : breakers.get(hostname.trim()),
+                    KsmCredentialHealth.get().getResult(cache.getCacheKey())
+            ));
+        }
+        return states;
+    }
+
+    public List<KsmHttpTransport.HostMetrics> getTransports() {
+        return KsmHttpTransport.getMetrics();
+    }
+
+    public List<KsmConcurrencyLimiter> getLimiters() {
+        return KsmConcurrencyLimiter.all();
+    }
+
+    public List<KsmCircuitBreaker> getBreakers() {
+        return KsmCircuitBreaker.all();
+    }
+
+    public List<KsmEndpointRouter.EndpointStats> getEndpoints() {
+        return KsmEndpointRouter.allStats();
+    }
+
+    /**
+     * Remove everything cached for a credential, or for all credentials if no id is given.
+     * @param credentialId The KSM credential id, may be blank
+     * @return Redirect back to the page
+     */
+    @POST
+    public HttpResponse doFlush(@QueryParameter String credentialId) {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        credentialId = Util.fixEmptyAndTrim(credentialId);
+        if (credentialId == null) {
+            KsmRecordCache.get().invalidateAll();
+            KsmVaultIndex.get().invalidateAll();
+            KsmProvidedValues.get().invalidateAll();
+        } else {
+            KsmCacheAction.invalidate(credentialId);
+        }
+        return HttpResponses.redirectToDot();
+    }
+
+    /**
+     * Fetch, in the background, the records that jobs have recently used with a credential.
+     * @param credentialId The KSM credential id
+     * @return Redirect back to the page
+     */
+    @POST
+    public HttpResponse doWarm(@QueryParameter String credentialId) {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        credentialId = Util.fixEmptyAndTrim(credentialId);
+        if (credentialId != null) {
+            KsmPrefetcher.prefetch(credentialId);
+        }
+        return HttpResponses.redirectToDot();
+    }
+
+    public static final class CredentialState {
+
+        private final KsmRecordCache.Summary cache;
+        private final String hostname;
+        private final KsmBulkhead bulkhead;
+        private final KsmCircuitBreaker breaker;
+        private final KsmCredentialHealth.Result health;
+
+        CredentialState(KsmRecordCache.Summary cache, String hostname, KsmBulkhead bulkhead,
+                        KsmCircuitBreaker breaker, KsmCredentialHealth.Result health) {
+            this.cache = cache;
+            this.hostname = hostname;
+            this.bulkhead = bulkhead;
+            this.breaker = breaker;
+            this.health = health;
+        }
+
+        public String getCredentialId() {
+            return cache.getCredentialId();
+        }
+        public KsmRecordCache.Summary getCache() {
+            return cache;
+        }
+        public String getHostname() {
+            return hostname;
+        }
+        public int getInFlight() {
+            return bulkhead == null ? 0 : bulkhead.getInFlight();
+        }
+        public int getWaiting() {
+            return bulkhead == null ? 0 : bulkhead.getWaiting();
+        }
+        public long getRejected() {
+            return bulkhead == null ? 0 : bulkhead.getRejected();
+        }
+        public String getBreakerState() {
+            return breaker == null ? KsmCircuitBreaker.State.CLOSED.name() : breaker.getState().name();
+        }
+        public String getHealth() {
+            return health == null ? "-" : health.getStatus().name();
+        }
+        public String getHealthError() {
+            return health == null ? null : health.getError();
+        }
+        public String getLatency() {
+            return health == null || health.getStatus() == KsmCredentialHealth.Status.REJECTED
+                    ? "-" : health.getLatencyMillis() + " ms";
+        }
+        public String getHitRatio() {
+            KsmRecordCache.Stats stats = cache.getStats();
+            if (stats == null || stats.getHitRatio() < 0) {
+                return "-";
+            }
+            return stats.getHitRatio() + "%";
+        }
+        public String getOldestEntryAge() {
+            long age = cache.getOldestEntryAge();
+            return age == 0 ? "-" : Util.getTimeSpanString(age);
+        }
+        public String getFileSize() {
+            return humanReadableBytes(cache.getFileBytes());
+        }
+        public String getRecordSize() {
+            return "~" + humanReadableBytes(cache.getRecordBytes());
+        }
+    }
+
+    static String humanReadableBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024L * 1024L) {
+            return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0);
+        }
+        return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+}
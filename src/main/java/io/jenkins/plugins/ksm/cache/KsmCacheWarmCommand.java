@@ -0,0 +1,153 @@
+package io.jenkins.plugins.ksm.cache;
+
+import hudson.Extension;
+import hudson.cli.CLICommand;
+import hudson.model.Item;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import io.jenkins.plugins.ksm.credential.KsmCredential;
+import io.jenkins.plugins.ksm.notation.KsmNotation;
+import jenkins.model.Jenkins;
+import org.kohsuke.args4j.Option;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
+
+/**
+ * Fill the cache from a script, for example before vault maintenance or a release. The records to fetch are
+ * given as UIDs, or are the ones that matching jobs used in their recent builds.
+ *
+ *     java -jar jenkins-cli.jar ksm-cache-warm -c my-ksm -u Ipk9NR1rCBZXyflWbPwTGA
+ *     java -jar jenkins-cli.jar ksm-cache-warm -j 'release/.*'
+ *
+ * Credentials are warmed in parallel. Each one goes through the credential's bulkhead, like a build, so warming
+ * doesn't crowd out builds.
+ */
+@Extension
+public class KsmCacheWarmCommand extends CLICommand {
+
+    @Option(name = "-c", aliases = "--credential", metaVar = "ID",
+            usage = "Id of the Keeper Secrets Manager credential. Can be repeated.")
+    public List<String> credentialIds = new ArrayList<>();
+
+    @Option(name = "-u", aliases = "--uid", metaVar = "UID",
+            usage = "Record UID to fetch with each credential. Can be repeated.")
+    public List<String> uids = new ArrayList<>();
+
+    @Option(name = "-j", aliases = "--job", metaVar = "REGEX",
+            usage = "Fetch the records used by jobs whose full name matches this regular expression. Can be repeated.")
+    public List<String> jobPatterns = new ArrayList<>();
+
+    @Option(name = "-t", aliases = "--threads", metaVar = "N",
+            usage = "Number of credentials to warm at the same time. Default is 4.")
+    public int threads = 4;
+
+    @Override
+    public String getShortDescription() {
+        return "Fetch records into the Keeper Secrets Manager cache.";
+    }
+
+    @Override
+    protected int run() throws Exception {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+        if (!KsmRecordCache.get().isEnabled()) {
+            stderr.println("The Keeper Secrets Manager cache is disabled.");
+            return 1;
+        }
+        if (credentialIds.isEmpty() && jobPatterns.isEmpty()) {
+            stderr.println("Either a credential id (-c) or a job (-j) is required.");
+            return 2;
+        }
+        if (!uids.isEmpty() && credentialIds.isEmpty()) {
+            stderr.println("A credential id (-c) is required with a record UID (-u).");
+            return 2;
+        }
+
+        Map<String, WarmRequest> requests = collect();
+        if (requests.isEmpty()) {
+            stdout.println("Nothing to warm.");
+            return 0;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, requests.size())),
+                new NamingThreadFactory(new DaemonThreadFactory(), "KsmCacheWarmCommand"));
+        Map<String, Future<String>> results = new TreeMap<>();
+        try {
+            for (WarmRequest request : requests.values()) {
+                results.put(request.credentialId, executor.submit(request::warm));
+            }
+            int failures = 0;
+            for (Map.Entry<String, Future<String>> entry : results.entrySet()) {
+                try {
+                    stdout.println(entry.getKey() + ": " + entry.getValue().get());
+                } catch (ExecutionException e) {
+                    failures++;
+                    stdout.println(entry.getKey() + ": failed, " + e.getCause().getMessage());
+                }
+            }
+            return failures == 0 ? 0 : 1;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Work out the UIDs to fetch for each credential, and an item to look up folder credentials from.
+    private Map<String, WarmRequest> collect() {
+        Map<String, WarmRequest> requests = new LinkedHashMap<>();
+        for (String credentialId : credentialIds) {
+            WarmRequest request = requests.computeIfAbsent(credentialId, k -> new WarmRequest(k, null));
+            request.uids.addAll(uids);
+            if (uids.isEmpty() && jobPatterns.isEmpty()) {
+                request.uids.addAll(KsmPrefetchHistory.get().lookupByCredential(credentialId));
+            }
+        }
+
+        List<Pattern> patterns = new ArrayList<>();
+        for (String jobPattern : jobPatterns) {
+            patterns.add(Pattern.compile(jobPattern));
+        }
+        for (Map.Entry<String, Map<String, Set<String>>> job : KsmPrefetchHistory.get().snapshot().entrySet()) {
+            if (patterns.stream().noneMatch(p -> p.matcher(job.getKey()).matches())) {
+                continue;
+            }
+            Item item = Jenkins.get().getItemByFullName(job.getKey());
+            for (Map.Entry<String, Set<String>> usage : job.getValue().entrySet()) {
+                if (!credentialIds.isEmpty() && !credentialIds.contains(usage.getKey())) {
+                    continue;
+                }
+                WarmRequest request = requests.computeIfAbsent(usage.getKey(), k -> new WarmRequest(k, item));
+                if (request.item == null) {
+                    request.item = item;
+                }
+                request.uids.addAll(usage.getValue());
+            }
+        }
+        requests.values().removeIf(request -> request.uids.isEmpty());
+        return requests;
+    }
+
+    private static final class WarmRequest {
+
+        private final String credentialId;
+        private Item item;
+        private final Set<String> uids = new LinkedHashSet<>();
+
+        WarmRequest(String credentialId, Item item) {
+            this.credentialId = credentialId;
+            this.item = item;
+        }
+
+        String warm() throws Exception {
+            long start = System.currentTimeMillis();
+            KsmCredential credential = KsmCredential.getCredentialFromId(credentialId, item);
+            credential.awaitRedemption();
+            if (!credential.getCredentialError().equals("")) {
+                throw new Exception(credential.getCredentialError());
+            }
+            int fetched = new KsmNotation().warm(credential, uids);
+            return "requested " + uids.size() + " record(s), fetched " + fetched + ", in " +
+                    (System.currentTimeMillis() - start) + " ms.";
+        }
+    }
+}
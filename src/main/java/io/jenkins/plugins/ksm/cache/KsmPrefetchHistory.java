@@ -0,0 +1,96 @@
+package io.jenkins.plugins.ksm.cache;
+
+import jenkins.util.SystemProperties;
+import java.util.*;
+
+/**
+ * Remembers which record UIDs each job resolved, per KSM credential, in its most recent builds. This is only
+ * kept in memory and is used to warm the record cache when the job enters the build queue again.
+ */
+public class KsmPrefetchHistory {
+
+    // How many jobs to remember. The least recently used job is dropped first.
+    private static final int MAX_JOBS = SystemProperties.getInteger(
+            KsmPrefetchHistory.class.getName() + ".maxJobs", 1000);
+
+    private static final KsmPrefetchHistory INSTANCE = new KsmPrefetchHistory(MAX_JOBS);
+
+    private final Map<String, Map<String, Set<String>>> history;
+
+    public KsmPrefetchHistory(final int maxJobs) {
+        this.history = new LinkedHashMap<String, Map<String, Set<String>>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, Set<String>>> eldest) {
+                return size() > maxJobs;
+            }
+        };
+    }
+
+    public static KsmPrefetchHistory get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Record the UIDs a job used with a credential. This replaces what was recorded by an earlier build.
+     * @param jobName The full name of the job
+     * @param credentialId The id of the KSM credential
+     * @param uids The record UIDs
+     */
+    public synchronized void record(String jobName, String credentialId, Collection<String> uids) {
+        if (jobName == null || credentialId == null) {
+            return;
+        }
+        Map<String, Set<String>> usage = history.computeIfAbsent(jobName, k -> new HashMap<>());
+        if (uids.isEmpty()) {
+            usage.remove(credentialId);
+        } else {
+            usage.put(credentialId, Collections.unmodifiableSet(new HashSet<>(uids)));
+        }
+    }
+
+    /**
+     * Get the UIDs, by credential id, that a job used in its recent builds.
+     * @param jobName The full name of the job
+     * @return Map of credential id to record UIDs. Empty if nothing is known about the job.
+     */
+    public synchronized Map<String, Set<String>> lookup(String jobName) {
+        Map<String, Set<String>> usage = history.get(jobName);
+        if (usage == null) {
+            return Collections.emptyMap();
+        }
+        return new HashMap<>(usage);
+    }
+
+    /**
+     * Get a copy of everything remembered.
+     * @return Map of job full name to a map of credential id to record UIDs
+     */
+    public synchronized Map<String, Map<String, Set<String>>> snapshot() {
+        Map<String, Map<String, Set<String>>> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, Set<String>>> entry : history.entrySet()) {
+            copy.put(entry.getKey(), new HashMap<>(entry.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * Get the UIDs that any job used with a credential.
+     * @param credentialId The id of the KSM credential
+     * @return The record UIDs
+     */
+    public synchronized Set<String> lookupByCredential(String credentialId) {
+        Set<String> uids = new HashSet<>();
+        for (Map<String, Set<String>> usage : history.values()) {
+            uids.addAll(usage.getOrDefault(credentialId, Collections.emptySet()));
+        }
+        return uids;
+    }
+
+    public synchronized void forget(String jobName) {
+        history.remove(jobName);
+    }
+
+    public synchronized void clear() {
+        history.clear();
+    }
+}
@@ -0,0 +1,22 @@
+package io.jenkins.plugins.ksm.cache;
+
+import hudson.Extension;
+import hudson.model.Job;
+import hudson.model.Queue;
+import hudson.model.queue.QueueListener;
+
+/**
+ * When a job enters the build queue, start fetching the records it used last time. By the time the build
+ * starts, the records should be in the cache.
+ */
+@Extension
+public class KsmPrefetchQueueListener extends QueueListener {
+
+    @Override
+    public void onEnterWaiting(Queue.WaitingItem wi) {
+        // This is called while the queue is locked. Only hand off the work here.
+        if (wi.task instanceof Job) {
+            KsmPrefetcher.prefetch((Job<?, ?>) wi.task);
+        }
+    }
+}
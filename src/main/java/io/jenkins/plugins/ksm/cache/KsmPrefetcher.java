@@ -0,0 +1,120 @@
+package io.jenkins.plugins.ksm.cache;
+
+import hudson.model.Job;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import io.jenkins.plugins.ksm.credential.KsmCredential;
+import io.jenkins.plugins.ksm.notation.KsmNotation;
+import io.jenkins.plugins.ksm.notation.KsmNotationItem;
+import io.jenkins.plugins.ksm.notation.KsmTestNotation;
+import jenkins.util.SystemProperties;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Warms the record cache for a job, in the background, using the UIDs the job used in its recent builds.
+ */
+public class KsmPrefetcher {
+
+    private static final Logger logger = Logger.getLogger(KsmPrefetcher.class.getName());
+
+    private static final int POOL_SIZE = SystemProperties.getInteger(
+            KsmPrefetcher.class.getName() + ".poolSize", 2);
+    private static final int QUEUE_SIZE = SystemProperties.getInteger(
+            KsmPrefetcher.class.getName() + ".queueSize", 100);
+
+    // Warming is best effort. If the queue is full, the build will just fetch the records itself.
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            POOL_SIZE, POOL_SIZE, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(QUEUE_SIZE),
+            new NamingThreadFactory(new DaemonThreadFactory(), "KsmPrefetcher"),
+            new ThreadPoolExecutor.DiscardPolicy());
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private KsmPrefetcher() {
+    }
+
+    /**
+     * Remember the record UIDs used by a build so the next build of the job can be warmed.
+     * @param job The job, may be null
+     * @param credential The KSM credential used
+     * @param items The notation items resolved with the credential
+     */
+    public static void recordUsage(Job<?, ?> job, KsmCredential credential, Collection<KsmNotationItem> items) {
+        if (job == null || credential == null) {
+            return;
+        }
+        Set<String> uids = new HashSet<>();
+        for (KsmNotationItem item : items) {
+            if (item.getError() == null && !item.isPinned() && KsmNotation.looksLikeUid(item.getUid())) {
+                uids.add(item.getUid());
+            }
+        }
+        KsmPrefetchHistory.get().record(job.getFullName(), credential.getId(), uids);
+    }
+
+    /**
+     * Queue a background task that fetches any records the job is expected to use and are not cached.
+     * @param job The job that entered the queue
+     */
+    public static void prefetch(final Job<?, ?> job) {
+        if (!KsmRecordCache.get().isEnabled() || KsmTestNotation.hasDataFile()) {
+            return;
+        }
+        final Map<String, Set<String>> usage = KsmPrefetchHistory.get().lookup(job.getFullName());
+        if (usage.isEmpty()) {
+            return;
+        }
+        executor.execute(() -> warm(job, usage));
+    }
+
+    /**
+     * Queue a background task that fetches the records any job has used with a credential.
+     * @param credentialId The id of the KSM credential
+     * @return The number of record UIDs queued to be warmed
+     */
+    public static int prefetch(final String credentialId) {
+        if (!KsmRecordCache.get().isEnabled()) {
+            return 0;
+        }
+        final Set<String> uids = KsmPrefetchHistory.get().lookupByCredential(credentialId);
+        if (uids.isEmpty()) {
+            return 0;
+        }
+        executor.execute(() -> {
+            try {
+                KsmCredential credential = KsmCredential.getCredentialFromId(credentialId, null);
+                credential.awaitRedemption();
+                int count = new KsmNotation().warm(credential, uids);
+                logger.log(Level.FINE, "Prefetched " + count + " record(s) for " + credentialId);
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Could not prefetch records for " + credentialId + ": " + e.getMessage());
+            }
+        });
+        return uids.size();
+    }
+
+    private static void warm(Job<?, ?> job, Map<String, Set<String>> usage) {
+        KsmNotation notation = new KsmNotation();
+        for (Map.Entry<String, Set<String>> entry : usage.entrySet()) {
+            try {
+                KsmCredential credential = KsmCredential.getCredentialFromId(entry.getKey(), job);
+                if (credential.getState() != KsmCredential.State.READY) {
+                    continue;
+                }
+                int count = notation.warm(credential, entry.getValue());
+                logger.log(Level.FINE, "Prefetched " + count + " record(s) for " + job.getFullName());
+            } catch (Exception e) {
+                // The build will fetch, and report the error, itself.
+                logger.log(Level.FINE, "Could not prefetch records for " + job.getFullName() + ": "
+                        + e.getMessage());
+            }
+        }
+        KsmRecordCache.get().purgeExpired();
+    }
+}
@@ -0,0 +1,533 @@
+package io.jenkins.plugins.ksm.cache;
+
+import com.keepersecurity.secretsManager.core.KeeperFile;
+import com.keepersecurity.secretsManager.core.KeeperRecord;
+import com.keepersecurity.secretsManager.core.KeeperRecordData;
+import io.jenkins.plugins.ksm.credential.KsmCredential;
+import jenkins.util.SystemProperties;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-memory cache of records, and downloaded file attachments, keyed by the KSM credential that fetched them. The
+ * key is the credential's cache key, not just its id. Two stores can have a credential with the same id.
+ *
+ * Entries expire after a time-to-live. The default is 5 minutes and can be changed with the
+ * io.jenkins.plugins.ksm.cache.KsmRecordCache.ttlSeconds system property. A TTL of 0 disables the cache.
+ *
+ * Expired records are kept for a while longer, 1 hour by default, so they can be used if the server is down. This
+ * means a rotated or revoked secret can still be used for that long while the server cannot be reached. The time can
+ * be changed with the io.jenkins.plugins.ksm.cache.KsmRecordCache.staleSeconds system property, 0 turns it off.
+ *
+ * Records for a notation pinned to a revision, UID@revision, don't change, but still expire like any other record.
+ * They are also dropped when a newer revision of the record is fetched, so a pinned build fails instead of using a
+ * revision that is no longer current.
+ *
+ * Each credential keeps at most 10000 records, and 100 files, by default. When there are more, the ones used least
+ * recently are dropped. The limits can be changed with the maxRecords and maxFiles system properties.
+ *
+ * Nothing is written to disk. The memory used is shown on the cache page, the size of files exactly and the size of
+ * records as an estimate.
+ */
+public class KsmRecordCache {
+
+    public static final long DEFAULT_TTL_SECONDS = 300L;
+
+    // Attachments larger than this are not kept in memory. They are downloaded each time.
+    public static final long MAX_CACHED_FILE_BYTES = SystemProperties.getLong(
+            KsmRecordCache.class.getName() + ".maxFileBytes", 1024L * 1024L);
+
+    // How long an expired record can still be used when the server cannot be reached.
+    private static final long STALE_SECONDS = SystemProperties.getLong(
+            KsmRecordCache.class.getName() + ".staleSeconds", 3600L);
+
+    // The most records, and pinned records, kept for each credential.
+    private static final int MAX_RECORDS = SystemProperties.getInteger(
+            KsmRecordCache.class.getName() + ".maxRecords", 10000);
+
+    // The most files kept for each credential.
+    private static final int MAX_FILES = SystemProperties.getInteger(
+            KsmRecordCache.class.getName() + ".maxFiles", 100);
+
+    // Rough sizes used to estimate the memory a record takes: the record, its keys and data, each field with its
+    // values, and each file's metadata.
+    private static final int RECORD_BYTES = 512;
+    private static final int FIELD_BYTES = 256;
+    private static final int FILE_BYTES = 384;
+
+    private static final KsmRecordCache INSTANCE = new KsmRecordCache(
+            SystemProperties.getLong(KsmRecordCache.class.getName() + ".ttlSeconds", DEFAULT_TTL_SECONDS));
+
+    private final long ttlMillis;
+    private final long staleMillis;
+    private final int maxRecords;
+    private final int maxFiles;
+    private volatile long lastPurge = System.currentTimeMillis();
+    // Counts lookups and puts, to tell which entries were used least recently. Milliseconds are too coarse.
+    private final AtomicLong useCounter = new AtomicLong();
+    private final Map<String, Map<String, Entry<KeeperRecord>>> records = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Entry<byte[]>>> files = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Entry<KeeperRecord>>> pinned = new ConcurrentHashMap<>();
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+    public KsmRecordCache(long ttlSeconds) {
+        this(ttlSeconds, STALE_SECONDS);
+    }
+
+    public KsmRecordCache(long ttlSeconds, long staleSeconds) {
+        this(ttlSeconds, staleSeconds, MAX_RECORDS, MAX_FILES);
+    }
+
+    KsmRecordCache(long ttlSeconds, long staleSeconds, int maxRecords, int maxFiles) {
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(Math.max(0L, ttlSeconds));
+        this.staleMillis = TimeUnit.SECONDS.toMillis(Math.max(0L, staleSeconds));
+        this.maxRecords = Math.max(1, maxRecords);
+        this.maxFiles = Math.max(1, maxFiles);
+    }
+
+    public static KsmRecordCache get() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return ttlMillis > 0;
+    }
+
+    public KeeperRecord getRecord(String cacheKey, String uid) {
+        KeeperRecord record = getEntry(records, cacheKey, uid);
+        Stats counters = getStats(cacheKey);
+        if (counters != null) {
+            (record != null ? counters.hits : counters.misses).increment();
+        }
+        return record;
+    }
+
+    /**
+     * Get a record even if it has expired, as long as it's not past the stale limit. Only for use when the server
+     * cannot be reached.
+     * @param cacheKey The cache key of the KSM credential
+     * @param uid The record UID
+     * @return The record, or null
+     */
+    public KeeperRecord getStaleRecord(String cacheKey, String uid) {
+        if (staleMillis == 0) {
+            return null;
+        }
+        KeeperRecord record = getEntry(records, cacheKey, uid, staleMillis);
+        Stats counters = getStats(cacheKey);
+        if (counters != null && record != null) {
+            counters.staleHits.increment();
+        }
+        return record;
+    }
+
+    public void putRecord(String cacheKey, KeeperRecord record) {
+        putEntry(records, cacheKey, record.getRecordUid(), record, maxRecords);
+        evictOtherRevisions(cacheKey, record);
+    }
+
+    /**
+     * Get a record at a specific revision.
+     * @param cacheKey The cache key of the KSM credential
+     * @param uid The record UID
+     * @param revision The record revision
+     * @return The record, or null
+     */
+    public KeeperRecord getPinnedRecord(String cacheKey, String uid, long revision) {
+        if (uid == null) {
+            return null;
+        }
+        KeeperRecord record = getEntry(pinned, cacheKey, pinnedKey(uid, revision));
+        Stats counters = getStats(cacheKey);
+        if (counters != null) {
+            (record != null ? counters.hits : counters.misses).increment();
+        }
+        return record;
+    }
+
+    public void putPinnedRecord(String cacheKey, KeeperRecord record) {
+        if (!isEnabled() || cacheKey == null) {
+            return;
+        }
+        evictOtherRevisions(cacheKey, record);
+        putEntry(pinned, cacheKey, pinnedKey(record.getRecordUid(), record.getRevision()), record, maxRecords);
+    }
+
+    private void evictOtherRevisions(String cacheKey, KeeperRecord record) {
+        Map<String, Entry<KeeperRecord>> map = pinned.get(cacheKey);
+        if (map == null) {
+            return;
+        }
+        String prefix = record.getRecordUid() + "@";
+        String current = pinnedKey(record.getRecordUid(), record.getRevision());
+        map.keySet().removeIf(key -> key.startsWith(prefix) && !key.equals(current));
+    }
+
+    private static String pinnedKey(String uid, long revision) {
+        return uid + "@" + revision;
+    }
+
+    public boolean hasRecord(String cacheKey, String uid) {
+        return getEntry(records, cacheKey, uid) != null;
+    }
+
+    public byte[] getFile(String cacheKey, String fileUid) {
+        byte[] data = getEntry(files, cacheKey, fileUid);
+        Stats counters = getStats(cacheKey);
+        if (counters != null) {
+            (data != null ? counters.fileHits : counters.fileMisses).increment();
+        }
+        return data;
+    }
+
+    public void putFile(String cacheKey, String fileUid, byte[] data) {
+        if (data == null || data.length > MAX_CACHED_FILE_BYTES) {
+            return;
+        }
+        putEntry(files, cacheKey, fileUid, data, maxFiles);
+    }
+
+    /**
+     * Remove everything cached for a credential, in every store that has one with the id. The counters go too, a
+     * credential that was changed has a new cache key.
+     * @param credentialId The KSM credential id
+     */
+    public void invalidate(String credentialId) {
+        if (credentialId == null) {
+            return;
+        }
+        records.keySet().removeIf(key -> isKeyOf(key, credentialId));
+        files.keySet().removeIf(key -> isKeyOf(key, credentialId));
+        pinned.keySet().removeIf(key -> isKeyOf(key, credentialId));
+        stats.keySet().removeIf(key -> isKeyOf(key, credentialId));
+    }
+
+    /**
+     * Remove a record, any pinned revisions of it, and its cached file attachments, for every credential with the
+     * id.
+     * @param credentialId The KSM credential id
+     * @param uid The record UID
+     * @return true if anything was removed
+     */
+    public boolean invalidate(String credentialId, String uid) {
+        if (credentialId == null || uid == null) {
+            return false;
+        }
+        boolean removed = false;
+
+        for (Map.Entry<String, Map<String, Entry<KeeperRecord>>> recordMap : records.entrySet()) {
+            if (!isKeyOf(recordMap.getKey(), credentialId)) {
+                continue;
+            }
+            Entry<KeeperRecord> entry = recordMap.getValue().remove(uid);
+            if (entry != null) {
+                removed = true;
+                Map<String, Entry<byte[]>> fileMap = files.get(recordMap.getKey());
+                if (fileMap != null && entry.value.getFiles() != null) {
+                    for (KeeperFile file : entry.value.getFiles()) {
+                        fileMap.remove(file.getFileUid());
+                    }
+                }
+            }
+        }
+
+        for (Map.Entry<String, Map<String, Entry<KeeperRecord>>> pinnedMap : pinned.entrySet()) {
+            if (isKeyOf(pinnedMap.getKey(), credentialId)) {
+                removed |= pinnedMap.getValue().keySet().removeIf(key -> key.startsWith(uid + "@"));
+            }
+        }
+        return removed;
+    }
+
+    private static boolean isKeyOf(String key, String credentialId) {
+        return key.equals(credentialId) || KsmCredential.isCacheKeyOf(key, credentialId);
+    }
+
+    public void invalidateAll() {
+        records.clear();
+        files.clear();
+        pinned.clear();
+    }
+
+    /**
+     * Get the cache keys of the credentials that have something in the cache, or have used it.
+     * @return Sorted set of cache keys
+     */
+    public Set<String> getCacheKeys() {
+        Set<String> ids = new TreeSet<>(stats.keySet());
+        ids.addAll(records.keySet());
+        ids.addAll(files.keySet());
+        ids.addAll(pinned.keySet());
+        return ids;
+    }
+
+    /**
+     * Get the hit and miss counters for a credential.
+     * @param cacheKey The cache key of the KSM credential
+     * @return The counters, or null if the cache is disabled
+     */
+    public Stats getStats(String cacheKey) {
+        if (!isEnabled() || cacheKey == null) {
+            return null;
+        }
+        // Lookups are on the build path; only create the counters the first time.
+        Stats counters = stats.get(cacheKey);
+        if (counters == null) {
+            counters = stats.computeIfAbsent(cacheKey, k -> new Stats());
+        }
+        return counters;
+    }
+
+    /**
+     * Take a snapshot of what is cached for a credential.
+     * @param cacheKey The cache key of the KSM credential
+     * @return The snapshot
+     */
+    public Summary summarize(String cacheKey) {
+        long now = System.currentTimeMillis();
+        Summary summary = new Summary(cacheKey, getStats(cacheKey));
+
+        Map<String, Entry<KeeperRecord>> recordMap = records.get(cacheKey);
+        if (recordMap != null) {
+            for (Entry<KeeperRecord> entry : recordMap.values()) {
+                if (entry.isExpired(now)) {
+                    summary.expiredRecords++;
+                } else {
+                    summary.records++;
+                }
+                summary.oldestEntryAge = Math.max(summary.oldestEntryAge, now - entry.createdAt);
+                summary.recordBytes += estimateBytes(entry.value);
+            }
+        }
+        Map<String, Entry<byte[]>> fileMap = files.get(cacheKey);
+        if (fileMap != null) {
+            for (Entry<byte[]> entry : fileMap.values()) {
+                if (!entry.isExpired(now)) {
+                    summary.files++;
+                    summary.fileBytes += entry.value.length;
+                }
+            }
+        }
+        Map<String, Entry<KeeperRecord>> pinnedMap = pinned.get(cacheKey);
+        if (pinnedMap != null) {
+            for (Entry<KeeperRecord> entry : pinnedMap.values()) {
+                if (!entry.isExpired(now)) {
+                    summary.pinnedRecords++;
+                }
+                summary.recordBytes += estimateBytes(entry.value);
+            }
+        }
+        return summary;
+    }
+
+    // An estimate of the memory a record takes. Walking the record's objects would be exact, but too slow to do for
+    // every record each time the cache page is shown.
+    static long estimateBytes(KeeperRecord record) {
+        long bytes = RECORD_BYTES;
+        KeeperRecordData data = record.getData();
+        bytes += 2L * (length(data.getTitle()) + length(data.getNotes()));
+        bytes += (long) FIELD_BYTES * (size(data.getFields()) + size(data.getCustom()));
+        bytes += (long) FILE_BYTES * size(record.getFiles());
+        return bytes;
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    private static int size(List<?> list) {
+        return list == null ? 0 : list.size();
+    }
+
+    /**
+     * Drop entries that are past the stale limit, and credentials with nothing left. Expired entries are also
+     * ignored on lookup.
+     */
+    public void purgeExpired() {
+        long now = System.currentTimeMillis();
+        lastPurge = now;
+        purge(records, now - staleMillis);
+        purge(files, now);
+        purge(pinned, now);
+    }
+
+    private static <T> void purge(Map<String, Map<String, Entry<T>>> cache, long now) {
+        for (String cacheKey : cache.keySet()) {
+            cache.computeIfPresent(cacheKey, (key, map) -> {
+                map.values().removeIf(e -> e.isExpired(now));
+                return map.isEmpty() ? null : map;
+            });
+        }
+    }
+
+    // Drop the entries used least recently, and a tenth more, so a full cache isn't sorted on every put.
+    private static <T> void trim(Map<String, Entry<T>> map, int max) {
+        int excess = map.size() - max;
+        if (excess <= 0) {
+            return;
+        }
+        List<Map.Entry<String, Entry<T>>> entries = new ArrayList<>(map.entrySet());
+        entries.sort(Comparator.comparingLong(e -> e.getValue().lastUsed));
+        int drop = Math.min(entries.size(), excess + max / 10);
+        for (int i = 0; i < drop; i++) {
+            map.remove(entries.get(i).getKey(), entries.get(i).getValue());
+        }
+    }
+
+    private <T> T getEntry(Map<String, Map<String, Entry<T>>> cache, String cacheKey, String key) {
+        return getEntry(cache, cacheKey, key, 0L);
+    }
+
+    private <T> T getEntry(Map<String, Map<String, Entry<T>>> cache, String cacheKey, String key,
+                           long graceMillis) {
+        if (!isEnabled() || cacheKey == null || key == null) {
+            return null;
+        }
+        Map<String, Entry<T>> map = cache.get(cacheKey);
+        if (map == null) {
+            return null;
+        }
+        Entry<T> entry = map.get(key);
+        if (entry == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (entry.isExpired(now - graceMillis)) {
+            return null;
+        }
+        entry.lastUsed = useCounter.incrementAndGet();
+        return entry.value;
+    }
+
+    private <T> void putEntry(Map<String, Map<String, Entry<T>>> cache, String cacheKey, String key, T value,
+                              int max) {
+        if (!isEnabled() || cacheKey == null || key == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Map<String, Entry<T>> map = cache.computeIfAbsent(cacheKey, k -> new ConcurrentHashMap<>());
+        map.put(key, new Entry<>(value, now + ttlMillis, useCounter.incrementAndGet()));
+        trim(map, max);
+        if (now - lastPurge > ttlMillis) {
+            purgeExpired();
+        }
+    }
+
+    private static final class Entry<T> {
+
+        private final T value;
+        private final long createdAt = System.currentTimeMillis();
+        private final long expiresAt;
+        private volatile long lastUsed;
+
+        Entry(T value, long expiresAt, long lastUsed) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.lastUsed = lastUsed;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+
+    /**
+     * Cache hit and miss counters. These are updated by every build, so they are LongAdders to avoid contention.
+     */
+    public static final class Stats {
+
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder staleHits = new LongAdder();
+        private final LongAdder fileHits = new LongAdder();
+        private final LongAdder fileMisses = new LongAdder();
+
+        public long getHits() {
+            return hits.sum();
+        }
+        public long getMisses() {
+            return misses.sum();
+        }
+        public long getStaleHits() {
+            return staleHits.sum();
+        }
+        public long getFileHits() {
+            return fileHits.sum();
+        }
+        public long getFileMisses() {
+            return fileMisses.sum();
+        }
+
+        /**
+         * @return The percentage of record lookups served from the cache, or -1 if there have been none.
+         */
+        public int getHitRatio() {
+            long hitCount = getHits();
+            long total = hitCount + getMisses();
+            return total == 0 ? -1 : (int) (hitCount * 100 / total);
+        }
+    }
+
+    /**
+     * A snapshot of what is cached for a credential.
+     */
+    public static final class Summary {
+
+        private final String cacheKey;
+        private final Stats stats;
+        private int records;
+        private int expiredRecords;
+        private int pinnedRecords;
+        private int files;
+        private long fileBytes;
+        private long recordBytes;
+        private long oldestEntryAge;
+
+        Summary(String cacheKey, Stats stats) {
+            this.cacheKey = cacheKey;
+            this.stats = stats;
+        }
+
+        public String getCacheKey() {
+            return cacheKey;
+        }
+        public String getCredentialId() {
+            return KsmCredential.idOfCacheKey(cacheKey);
+        }
+        public Stats getStats() {
+            return stats;
+        }
+        public int getRecords() {
+            return records;
+        }
+        public int getExpiredRecords() {
+            return expiredRecords;
+        }
+        public int getPinnedRecords() {
+            return pinnedRecords;
+        }
+        public int getFiles() {
+            return files;
+        }
+        public long getFileBytes() {
+            return fileBytes;
+        }
+        /**
+         * @return An estimate of the memory used by the cached records, expired and pinned ones included
+         */
+        public long getRecordBytes() {
+            return recordBytes;
+        }
+        public long getOldestEntryAge() {
+            return oldestEntryAge;
+        }
+    }
+}
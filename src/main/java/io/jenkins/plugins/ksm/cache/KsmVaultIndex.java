@@ -0,0 +1,348 @@
+package io.jenkins.plugins.ksm.cache;
+
+import com.keepersecurity.secretsManager.core.KeeperFile;
+import com.keepersecurity.secretsManager.core.KeeperRecord;
+import com.keepersecurity.secretsManager.core.KeeperRecordField;
+import com.keepersecurity.secretsManager.core.KeeperSecrets;
+import com.keepersecurity.secretsManager.core.Notation;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import io.jenkins.plugins.ksm.KsmQuery;
+import io.jenkins.plugins.ksm.credential.KsmCredential;
+import io.jenkins.plugins.ksm.http.KsmBulkhead;
+import io.jenkins.plugins.ksm.http.KsmRetryPolicy;
+import io.jenkins.plugins.ksm.notation.KsmCompiledNotation;
+import io.jenkins.plugins.ksm.notation.KsmFieldDataEnumType;
+import io.jenkins.plugins.ksm.notation.KsmNotation;
+import io.jenkins.plugins.ksm.notation.KsmTestNotation;
+import jenkins.util.SystemProperties;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The UIDs, titles, field names and file names of the records each KSM credential can see, used to check notations
+ * and suggest them while a job is configured. No values are kept. Credentials in different stores can have the same
+ * id, so the records are kept by the credential's cache key.
+ *
+ * Form checks only read what is already loaded. A credential that has not been loaded yet, or was loaded more than
+ * 10 minutes ago, is loaded again in the background. The refresh time can be changed with the
+ * io.jenkins.plugins.ksm.cache.KsmVaultIndex.refreshSeconds system property.
+ */
+public class KsmVaultIndex {
+
+    private static final Logger logger = Logger.getLogger(KsmVaultIndex.class.getName());
+
+    private static final long REFRESH_MILLIS = TimeUnit.SECONDS.toMillis(SystemProperties.getLong(
+            KsmVaultIndex.class.getName() + ".refreshSeconds", 600L));
+
+    // One credential is loaded at a time. If the queue is full, the next form check will ask again.
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            1, 1, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(20),
+            new NamingThreadFactory(new DaemonThreadFactory(), "KsmVaultIndex"),
+            new ThreadPoolExecutor.DiscardPolicy());
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private static final KsmVaultIndex INSTANCE = new KsmVaultIndex();
+
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+    private final Set<String> loading = ConcurrentHashMap.newKeySet();
+
+    public static KsmVaultIndex get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get the records of a credential that are already loaded. This never calls the Keeper Secrets Manager server.
+     * If the records have not been loaded, or are old, they are loaded in the background.
+     * @param credential The KSM credential
+     * @return The records, or null if they have not been loaded yet
+     */
+    public Snapshot getSnapshot(KsmCredential credential) {
+        Snapshot snapshot = snapshots.get(credential.getCacheKey());
+        if (snapshot == null || snapshot.isStale()) {
+            refresh(credential);
+        }
+        return snapshot;
+    }
+
+    void refresh(final KsmCredential credential) {
+        if (KsmTestNotation.hasDataFile() || credential.getState() != KsmCredential.State.READY) {
+            return;
+        }
+        final String credentialId = credential.getId();
+        final String cacheKey = credential.getCacheKey();
+        if (!loading.add(cacheKey)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    put(cacheKey, Snapshot.of(load(credential)));
+                    logger.log(Level.FINE, "Loaded the record index for " + credentialId);
+                } catch (Exception e) {
+                    logger.log(Level.FINE, "Could not load the record index for " + credentialId + ": "
+                            + e.getMessage());
+                } finally {
+                    loading.remove(cacheKey);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            loading.remove(cacheKey);
+        }
+    }
+
+    private static KeeperSecrets load(KsmCredential credential) throws Exception {
+        // Builds come first, so loading the index waits its turn like any other request.
+        KsmBulkhead bulkhead = credential.getBulkhead();
+        bulkhead.acquire();
+        try {
+            KsmNotation notation = new KsmNotation();
+            return KsmRetryPolicy.callUntimed(credential.getHostname(),
+                    () -> notation.getNotationSecrets(KsmQuery.getOptions(credential)));
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    void put(String cacheKey, Snapshot snapshot) {
+        snapshots.put(cacheKey, snapshot);
+    }
+
+    /**
+     * Load the records of every credential with an id again the next time they are used. The records already loaded
+     * are still used until then.
+     * @param credentialId The KSM credential id
+     */
+    public void invalidate(String credentialId) {
+        for (Map.Entry<String, Snapshot> entry : snapshots.entrySet()) {
+            if (KsmCredential.isCacheKeyOf(entry.getKey(), credentialId)) {
+                entry.getValue().expired = true;
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        for (Snapshot snapshot : snapshots.values()) {
+            snapshot.expired = true;
+        }
+    }
+
+    /**
+     * The records of a credential at the time they were loaded.
+     */
+    public static final class Snapshot {
+
+        private final long loadedAt = System.currentTimeMillis();
+        private volatile boolean expired;
+
+        // The first record with a UID or title, the same one a notation would use.
+        private final Map<String, RecordInfo> byUidOrTitle = new HashMap<>();
+        private final Map<String, RecordInfo> byUid = new HashMap<>();
+        private final List<RecordInfo> records = new ArrayList<>();
+
+        public static Snapshot of(KeeperSecrets secrets) {
+            Snapshot snapshot = new Snapshot();
+            for (KeeperRecord record : secrets.getRecords()) {
+                RecordInfo info = new RecordInfo(record);
+                snapshot.records.add(info);
+                snapshot.byUid.putIfAbsent(info.uid, info);
+                snapshot.byUidOrTitle.putIfAbsent(info.uid, info);
+                snapshot.byUidOrTitle.putIfAbsent(info.title, info);
+            }
+            return snapshot;
+        }
+
+        public boolean isStale() {
+            return expired || System.currentTimeMillis() - loadedAt > REFRESH_MILLIS;
+        }
+
+        public RecordInfo getRecord(String uidOrTitle) {
+            return byUidOrTitle.get(uidOrTitle);
+        }
+
+        // A file notation only finds a record by its UID.
+        public RecordInfo getRecordByUid(String uid) {
+            return byUid.get(uid);
+        }
+
+        public List<RecordInfo> getRecords() {
+            return Collections.unmodifiableList(records);
+        }
+
+        /**
+         * Check that the record, fields and file of a notation exist.
+         * @param compiled The parsed notation
+         * @return Why the notation would not find a value, or null if it would
+         */
+        public String check(KsmCompiledNotation compiled) {
+            String token = compiled.getUid();
+            if (compiled.getFieldDataType() == KsmFieldDataEnumType.FILE) {
+                RecordInfo record = getRecordByUid(token);
+                if (record == null) {
+                    return "No record with the UID " + token + " was found.";
+                }
+                if (!record.files.contains(compiled.getFieldKey())) {
+                    return "The record " + token + " does not have the file " + compiled.getFieldKey() + ".";
+                }
+                return null;
+            }
+
+            RecordInfo record = getRecord(token);
+            if (record == null) {
+                return "No record with the UID or title " + token + " was found.";
+            }
+            Set<String> names = compiled.getFieldDataType() == KsmFieldDataEnumType.CUSTOM
+                    ? record.customFields : record.fields;
+            List<String> keys = compiled.isBulk()
+                    ? (compiled.getFieldKeys() == null ? Collections.emptyList() : compiled.getFieldKeys())
+                    : Collections.singletonList(compiled.getFieldKey());
+            for (String key : keys) {
+                if (!names.contains(key)) {
+                    return "The record " + token + " does not have the " + compiled.getFieldDataType() + " " + key
+                            + ". It has " + (names.isEmpty() ? "none" : String.join(", ", names)) + ".";
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Suggest how to finish a notation: the record, then field, custom_field or file, then the field or file.
+         * @param value What has been typed so far
+         * @param max The most suggestions to return
+         * @return The notations, each with the keeper:// prefix
+         */
+        public List<String> suggest(String value, int max) {
+            String prefix = KsmNotation.notationPrefix + "://";
+            String text = value == null ? "" : value;
+            if (text.startsWith(prefix)) {
+                text = text.substring(prefix.length());
+            }
+
+            List<String> suggestions = new ArrayList<>();
+            String[] parts = text.split("/", -1);
+            if (parts.length == 1) {
+                for (RecordInfo record : records) {
+                    if (suggestions.size() >= max) {
+                        break;
+                    }
+                    if (startsWith(record.uid, parts[0])) {
+                        suggestions.add(prefix + record.uid + "/");
+                    } else if (isPlain(record.title) && startsWith(record.title, parts[0])) {
+                        suggestions.add(prefix + record.title + "/");
+                    }
+                }
+            } else if (parts.length == 2) {
+                for (KsmFieldDataEnumType type : KsmFieldDataEnumType.values()) {
+                    if (startsWith(type.toString(), parts[1])) {
+                        suggestions.add(prefix + parts[0] + "/" + type + "/");
+                    }
+                }
+            } else if (parts.length == 3) {
+                KsmFieldDataEnumType type = KsmFieldDataEnumType.getEnumByString(parts[1]);
+                RecordInfo record = type == KsmFieldDataEnumType.FILE ? getRecordByUid(parts[0]) : getRecord(parts[0]);
+                if (type != null && record != null) {
+                    Set<String> names = type == KsmFieldDataEnumType.FILE ? record.files
+                            : (type == KsmFieldDataEnumType.CUSTOM ? record.customFields : record.fields);
+                    for (String name : names) {
+                        if (suggestions.size() >= max) {
+                            break;
+                        }
+                        if (isPlain(name) && startsWith(name, parts[2])) {
+                            suggestions.add(prefix + parts[0] + "/" + type + "/" + name);
+                        }
+                    }
+                }
+            }
+            return suggestions;
+        }
+
+        private static boolean startsWith(String text, String typed) {
+            return text.regionMatches(true, 0, typed, 0, typed.length());
+        }
+
+        // Names that would need to be escaped in a notation are not suggested.
+        private static boolean isPlain(String name) {
+            return name != null && !name.isEmpty() && name.indexOf('/') < 0 && name.indexOf('[') < 0
+                    && name.indexOf(']') < 0 && name.indexOf('\\') < 0;
+        }
+    }
+
+    /**
+     * The names a notation can use for a record.
+     */
+    public static final class RecordInfo {
+
+        private final String uid;
+        private final String title;
+        private final String type;
+        // Field types and labels, in the order of the record.
+        private final Set<String> fields = new LinkedHashSet<>();
+        private final Set<String> customFields = new LinkedHashSet<>();
+        // File names, titles and UIDs.
+        private final Set<String> files = new LinkedHashSet<>();
+        // The UID and name of the first file, if the record has any.
+        private String fileUid;
+        private String fileName;
+
+        RecordInfo(KeeperRecord record) {
+            this.uid = record.getRecordUid();
+            this.title = record.getData().getTitle();
+            this.type = record.getData().getType();
+            addFields(fields, record.getData().getFields());
+            addFields(customFields, record.getData().getCustom());
+            if (record.getFiles() != null) {
+                for (KeeperFile file : record.getFiles()) {
+                    if (fileUid == null) {
+                        fileUid = file.getFileUid();
+                        fileName = file.getData().getName();
+                    }
+                    files.add(file.getData().getName());
+                    files.add(file.getData().getTitle());
+                    files.add(file.getFileUid());
+                }
+            }
+        }
+
+        private static void addFields(Set<String> names, List<KeeperRecordField> recordFields) {
+            if (recordFields != null) {
+                for (KeeperRecordField field : recordFields) {
+                    names.add(Notation.fieldType(field));
+                    if (field.getLabel() != null && !field.getLabel().isEmpty()) {
+                        names.add(field.getLabel());
+                    }
+                }
+            }
+        }
+
+        public String getUid() {
+            return uid;
+        }
+        public String getTitle() {
+            return title;
+        }
+        public String getType() {
+            return type;
+        }
+        public Set<String> getFields() {
+            return Collections.unmodifiableSet(fields);
+        }
+        public Set<String> getCustomFields() {
+            return Collections.unmodifiableSet(customFields);
+        }
+        public Set<String> getFiles() {
+            return Collections.unmodifiableSet(files);
+        }
+        public String getFileUid() {
+            return fileUid;
+        }
+        public String getFileName() {
+            return fileName;
+        }
+    }
+}
@@ -1,25 +1,45 @@
 package io.jenkins.plugins.ksm.credential;
 
 import com.cloudbees.plugins.credentials.*;
+import com.cloudbees.plugins.credentials.domains.Domain;
 import com.keepersecurity.secretsManager.core.LocalConfigStorage;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
 import hudson.Util;
 import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.ModelObject;
 import hudson.security.ACL;
 import hudson.util.FormValidation;
 import hudson.util.Secret;
 import com.cloudbees.plugins.credentials.impl.BaseStandardCredentials;
 import io.jenkins.plugins.ksm.KsmQuery;
+import io.jenkins.plugins.ksm.cache.KsmRecordCache;
+import io.jenkins.plugins.ksm.http.KsmBulkhead;
+import io.jenkins.plugins.ksm.provider.KsmProvidedValues;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.verb.POST;
 import jenkins.model.Jenkins;
+import jenkins.security.ACLContext;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,16 +49,26 @@ import org.jenkins.ui.icon.IconType;
 
 public class KsmCredential extends BaseStandardCredentials {
 
+    // Blank, or the error from redeeming the token. The token itself is kept in pendingToken until it's redeemed.
     private String token;
+    private Secret pendingToken;
     private Secret clientId;
     private Secret privateKey;
     private Secret appKey;
     private String hostname;
     private boolean skipSslVerification;
     private boolean allowConfigInject;
+    private int maxConcurrentRequests;
+    private int maxQueuedRequests;
+    private String additionalHostnames;
+    private boolean hedgeRequests;
+    private transient volatile CompletableFuture<?> redemption;
+    private transient volatile String cacheKey;
 
     public final static String tokenErrorPrefix = "Error:";
     public final static int tokenHashLength = 43;
+    // A SHA-256 hash, base64 encoded without padding.
+    private final static int cacheKeyFingerprintLength = 43;
 
     private static final Logger logger = Logger.getLogger(KsmQuery.class.getName());
 
@@ -52,40 +82,213 @@ public class KsmCredential extends BaseStandardCredentials {
 
         token = Util.fixNull(token).trim();
 
-        // If the token is not blank, or already an error, redeem the token.
-        if (!"".equals(token) && (!token.startsWith(KsmCredential.tokenErrorPrefix))){
-            try {
-                LocalConfigStorage storage = KsmQuery.redeemToken(token, hostname, skipSslVerification);
+        // If keys are set, make sure token is blank. It's been redeemed.
+        boolean redeem = needsRedemption(token);
+        if (!redeem && hasKeys(clientId, privateKey, appKey)) {
+            token = "";
+        }
+
+        if (redeem) {
+            this.pendingToken = Secret.fromString(token);
+            this.token = "";
+        } else {
+            this.token = token;
+        }
+        this.clientId = clientId;
+        this.privateKey = privateKey;
+        this.appKey = appKey;
+        this.hostname = hostname;
+        this.skipSslVerification = skipSslVerification;
+        this.allowConfigInject = allowConfigInject;
+
+        // The credential was created or updated. Anything built, or fetched, with the old values is stale.
+        KsmQuery.invalidateOptions(getId());
+        KsmRecordCache.get().invalidate(getId());
+        KsmCredentialHealth.get().invalidate(getId());
+        KsmProvidedValues.get().invalidate(getId());
+
+        // If the token is not blank, or already an error, redeem the token. This happens in the background; builds
+        // using the credential wait for it.
+        if (redeem) {
+            startRedemption();
+        }
+    }
+
+    public enum State {
+        // The one-time access token is being redeemed.
+        PENDING,
+        READY,
+        // The token could not be redeemed. The error is in the token field.
+        ERROR
+    }
+
+    private static boolean needsRedemption(String token) {
+        return !"".equals(token) && !token.startsWith(KsmCredential.tokenErrorPrefix);
+    }
+
+    private boolean hasPendingToken() {
+        return !Secret.toString(pendingToken).equals("");
+    }
+
+    // Credentials saved by older versions kept the token in plain text until it was redeemed.
+    private Object readResolve() {
+        if (needsRedemption(Util.fixNull(token))) {
+            pendingToken = Secret.fromString(token);
+            token = "";
+        }
+        return this;
+    }
+
+    private static boolean hasKeys(Secret clientId, Secret privateKey, Secret appKey) {
+        return (!Secret.toString(clientId).equals(""))
+                && (!Secret.toString(privateKey).equals(""))
+                && (!Secret.toString(appKey).equals(""));
+    }
+
+    private synchronized CompletableFuture<?> startRedemption() {
+        if (redemption == null) {
+            final Secret redeemToken = pendingToken;
+            redemption = KsmTokenRedeemer.redeem(redeemToken, hostname, skipSslVerification)
+                    .handle((storage, error) -> {
+                        finishRedemption(redeemToken, storage, error);
+                        return null;
+                    });
+        }
+        return redemption;
+    }
+
+    private void finishRedemption(Secret redeemToken, LocalConfigStorage storage, Throwable error) {
+        synchronized (this) {
+            if (redeemToken != pendingToken) {
+                return;
+            }
+            // The token can only be used once, there is no reason to keep it.
+            pendingToken = null;
+            if (error == null) {
                 clientId = Secret.fromString(storage.getString("clientId"));
                 appKey = Secret.fromString(storage.getString("appKey"));
                 privateKey = Secret.fromString(storage.getString("privateKey"));
                 hostname = storage.getString("hostname");
                 token = "";
-            }
-            catch(Exception e) {
+            } else if (hasKeys(clientId, privateKey, appKey)) {
+                // Keep using the keys the credential already had.
+                logger.log(Level.WARNING, "Could not redeem the token for credential " + getId() + ": "
+                        + error.getMessage());
+                token = "";
+            } else {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error;
 
                 // Why do this? Need a way to show the error. We can't throw an error or Jenkins will go to a 500
                 // error message page. Only way is to store the error in the token ... until we find a better way.
-                token = tokenErrorPrefix + " " + e.getMessage();
+                token = tokenErrorPrefix + " " + cause.getMessage();
             }
+            cacheKey = null;
         }
+        KsmQuery.invalidateOptions(getId());
+        KsmRecordCache.get().invalidate(getId());
+        KsmCredentialHealth.get().invalidate(getId());
+        KsmProvidedValues.get().invalidate(getId());
+        persist();
+    }
 
-        // If keys are set, make sure token is blank. It's been redeemed.
-        if (
-                (!Secret.toString(clientId).equals(""))
-            && (!Secret.toString(privateKey).equals(""))
-            && (!Secret.toString(appKey).equals(""))
-        ){
-            token = "";
+    /**
+     * Save the store holding this credential, so the keys from the redeemed token are not lost. The token can
+     * only be used once.
+     */
+    private void persist() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            return;
         }
+        try (ACLContext ignored = ACL.as2(ACL.SYSTEM2)) {
+            for (CredentialsStore store : getAllStores(jenkins)) {
+                for (Domain domain : store.getDomains()) {
+                    for (Credentials credential : store.getCredentials(domain)) {
+                        if (credential == this) {
+                            store.updateCredentials(domain, this, this);
+                            return;
+                        }
+                    }
+                }
+            }
+            // Not in a store yet. It will be saved with the keys when it's added.
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Could not save credential " + getId() + " after redeeming the token: "
+                    + e.getMessage());
+        }
+    }
 
-        this.token = token;
-        this.clientId = clientId;
-        this.privateKey = privateKey;
-        this.appKey = appKey;
-        this.hostname = hostname;
-        this.skipSslVerification = skipSslVerification;
-        this.allowConfigInject = allowConfigInject;
+    // The global stores and the stores of every folder, each once. Must be called as SYSTEM.
+    private static List<CredentialsStore> getAllStores(Jenkins jenkins) {
+        List<ModelObject> contexts = new ArrayList<>();
+        contexts.add(jenkins);
+        for (Item item : jenkins.allItems(Item.class)) {
+            if (item instanceof ItemGroup) {
+                contexts.add(item);
+            }
+        }
+        List<CredentialsStore> stores = new ArrayList<>();
+        Set<CredentialsStore> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ModelObject context : contexts) {
+            for (CredentialsStore store : CredentialsProvider.lookupStores(context)) {
+                if (seen.add(store)) {
+                    stores.add(store);
+                }
+            }
+        }
+        return stores;
+    }
+
+    /**
+     * Get every KSM credential in the global stores and the stores of every folder. The stores are read directly,
+     * so the credentials of every folder aren't added to the index.
+     * @return The credentials, global ones first
+     */
+    static List<KsmCredential> getAllStoredCredentials() {
+        List<KsmCredential> credentials = new ArrayList<>();
+        try (ACLContext ignored = ACL.as2(ACL.SYSTEM2)) {
+            for (CredentialsStore store : getAllStores(Jenkins.get())) {
+                for (Domain domain : store.getDomains()) {
+                    for (Credentials credential : store.getCredentials(domain)) {
+                        if (credential instanceof KsmCredential) {
+                            credentials.add((KsmCredential) credential);
+                        }
+                    }
+                }
+            }
+        }
+        return credentials;
+    }
+
+    public State getState() {
+        CompletableFuture<?> pending = redemption;
+        if ((pending != null && !pending.isDone()) || hasPendingToken()) {
+            return State.PENDING;
+        }
+        if (Util.fixNull(token).startsWith(tokenErrorPrefix)) {
+            return State.ERROR;
+        }
+        return State.READY;
+    }
+
+    /**
+     * Wait for the one-time access token to be redeemed. If it's not being redeemed, for example Jenkins
+     * restarted before it was, this starts it.
+     * @throws Exception The token was not redeemed in time, or the thread was interrupted.
+     */
+    public void awaitRedemption() throws Exception {
+        if (getState() != State.PENDING) {
+            return;
+        }
+        try {
+            startRedemption().get(KsmTokenRedeemer.WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            throw new Exception("The one-time access token for the credential is still being redeemed. Try again " +
+                    "later.");
+        } catch (ExecutionException ignored) {
+            // The error is stored in the token.
+        }
     }
 
     public String getToken() {
@@ -110,6 +313,98 @@ public class KsmCredential extends BaseStandardCredentials {
         return allowConfigInject;
     }
 
+    // The number of builds that can retrieve secrets with this credential at the same time. 0 is no limit.
+    public int getMaxConcurrentRequests() {
+        return Math.max(KsmBulkhead.UNLIMITED, maxConcurrentRequests);
+    }
+    @DataBoundSetter
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    // The number of builds that can wait to retrieve secrets. Any more are failed. 0 is no limit.
+    public int getMaxQueuedRequests() {
+        return Math.max(0, maxQueuedRequests);
+    }
+    @DataBoundSetter
+    public void setMaxQueuedRequests(int maxQueuedRequests) {
+        this.maxQueuedRequests = maxQueuedRequests;
+    }
+
+    // Other endpoints, mirrors or regions, that can answer for the hostname. One per line.
+    public String getAdditionalHostnames() {
+        return Util.fixNull(additionalHostnames);
+    }
+    @DataBoundSetter
+    public void setAdditionalHostnames(String additionalHostnames) {
+        this.additionalHostnames = Util.fixEmptyAndTrim(additionalHostnames);
+    }
+
+    public boolean getHedgeRequests() {
+        return hedgeRequests;
+    }
+    @DataBoundSetter
+    public void setHedgeRequests(boolean hedgeRequests) {
+        this.hedgeRequests = hedgeRequests;
+    }
+
+    public KsmBulkhead getBulkhead() {
+        // A queue limit of 0 on the credential is no limit, on the bulkhead it's no waiting.
+        int maxQueued = getMaxQueuedRequests() > 0 ? getMaxQueuedRequests() : -1;
+        return KsmBulkhead.forCredential(getCacheKey(), getId(), getMaxConcurrentRequests(), maxQueued);
+    }
+
+    /**
+     * Get the key the caches use for this credential. Credential ids are only unique within a store, a folder can
+     * have a credential with the same id as another folder, or as a global one. The key adds a fingerprint of the
+     * client id and hostname, so credentials for different applications never share cached records.
+     * @return The id, a slash, and the fingerprint
+     */
+    public String getCacheKey() {
+        String key = cacheKey;
+        if (key == null) {
+            key = cacheKey(getId(), Secret.toString(clientId), hostname);
+            cacheKey = key;
+        }
+        return key;
+    }
+
+    static String cacheKey(String credentialId, String clientId, String hostname) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((Util.fixNull(clientId) + "\n" + Util.fixNull(hostname).trim())
+                    .getBytes(StandardCharsets.UTF_8));
+            return credentialId + "/" + Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Check if a cache key belongs to a credential with the id, in any store.
+     * @param key The cache key
+     * @param credentialId The KSM credential id
+     * @return true if it does
+     */
+    public static boolean isCacheKeyOf(String key, String credentialId) {
+        return key != null && credentialId != null
+                && key.length() == credentialId.length() + cacheKeyFingerprintLength + 1
+                && key.startsWith(credentialId) && key.charAt(credentialId.length()) == '/';
+    }
+
+    /**
+     * Get the credential id from a cache key.
+     * @param key The cache key
+     * @return The KSM credential id
+     */
+    public static String idOfCacheKey(String key) {
+        int end = key == null ? -1 : key.length() - cacheKeyFingerprintLength - 1;
+        if (end < 0 || key.charAt(end) != '/') {
+            return key;
+        }
+        return key.substring(0, end);
+    }
+
     public String getCredentialError() {
         return token;
     }
@@ -121,20 +416,31 @@ public class KsmCredential extends BaseStandardCredentials {
             logger.log(Level.FINE, "Getting credential id for " + item.getDisplayName());
         }
 
+        KsmCredential credential = KsmCredentialIndex.get().getCredential(credentialId, item);
+        if (credential == null) {
+            throw new Exception("Cannot find the credential for the public id.");
+        }
+        return credential;
+    }
+
+    /**
+     * Get the KSM credentials an item can use.
+     * @param item The item, or null for the global credentials
+     * @return The credentials
+     */
+    public static List<KsmCredential> getCredentials(Item item) {
+        return KsmCredentialIndex.get().getCredentials(item);
+    }
+
+    // Lists every KSM credential in the item's folders and the global store. Use the index instead.
+    static List<KsmCredential> lookupCredentials(Item item) {
         // TODO: Switch to ACL.SYSTEM2 when CredentialsProvider.lookupCredentials is updated.
-        CredentialsMatcher idMatcher = CredentialsMatchers.withId(credentialId);
-        List<KsmCredential> credentials = CredentialsProvider.lookupCredentialsInItem(
+        return CredentialsProvider.lookupCredentialsInItem(
                 KsmCredential.class,
                 item,
                 ACL.SYSTEM2,
                 Collections.emptyList()
         );
-
-        KsmCredential credential = CredentialsMatchers.firstOrNull(credentials, idMatcher);
-        if (credential == null) {
-            throw new Exception("Cannot find the credential for the public id.");
-        }
-        return credential;
     }
 
     @Extension
@@ -186,6 +492,17 @@ public class KsmCredential extends BaseStandardCredentials {
             return FormValidation.ok();
         }
 
+        // Blank, or 0, is no limit.
+        public FormValidation doCheckMaxConcurrentRequests(@QueryParameter String value) {
+            return Util.fixEmptyAndTrim(value) == null ? FormValidation.ok()
+                    : FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckMaxQueuedRequests(@QueryParameter String value) {
+            return Util.fixEmptyAndTrim(value) == null ? FormValidation.ok()
+                    : FormValidation.validateNonNegativeInteger(value);
+        }
+
         public FormValidation doCheckDescription(@QueryParameter String description) {
             if(description.trim().equals("")) {
                 return FormValidation.error("Description cannot be blank.");
@@ -0,0 +1,264 @@
+package io.jenkins.plugins.ksm.credential;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import io.jenkins.plugins.ksm.KsmQuery;
+import io.jenkins.plugins.ksm.http.KsmHttpStatusException;
+import io.jenkins.plugins.ksm.http.KsmRetryPolicy;
+import jenkins.util.SystemProperties;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The result of the last health check of each KSM credential; whether the server accepted its keys, and how long it
+ * took to answer. The checks are run by {@link KsmCredentialHealthCheck}, a few credentials at a time, with a probe
+ * that doesn't retrieve any records.
+ *
+ * A build using a credential the server rejected at its last check fails right away, instead of waiting for its
+ * turn to make the same request. This can be turned off with the
+ * io.jenkins.plugins.ksm.credential.KsmCredentialHealth.failFast system property. Only a refusal of the keys, a 401
+ * or 403 response or an access_denied or invalid_client error, counts as rejected. A credential the server could not
+ * be reached for is left to the retries and the circuit breaker, and any other failure is only reported.
+ *
+ * Credentials in different stores can have the same id, so the results are kept by the credential's cache key.
+ */
+public class KsmCredentialHealth {
+
+    private static final Logger logger = Logger.getLogger(KsmCredentialHealth.class.getName());
+
+    private static final boolean FAIL_FAST = SystemProperties.getBoolean(
+            KsmCredentialHealth.class.getName() + ".failFast", true);
+
+    private static final int THREADS = SystemProperties.getInteger(
+            KsmCredentialHealth.class.getName() + ".threads", 4);
+
+    // The longest a round of checks waits for a probe. The probe itself is bounded by the request timeout.
+    private static final long TIMEOUT_SECONDS = SystemProperties.getLong(
+            KsmCredentialHealth.class.getName() + ".timeoutSeconds", 120L);
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            THREADS, THREADS, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            new NamingThreadFactory(new DaemonThreadFactory(), "KsmCredentialHealth"));
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private static final KsmCredentialHealth INSTANCE = new KsmCredentialHealth(
+            credential -> KsmQuery.probe(credential.getHostname(), KsmQuery.getOptions(credential)),
+            FAIL_FAST);
+
+    public enum Status {
+        HEALTHY,
+        // The server could not be reached, or the requests are paused by the circuit breaker.
+        UNREACHABLE,
+        // The server answered, but did not accept the keys, or the token could not be redeemed.
+        REJECTED,
+        // The check failed for another reason, for example a response that could not be read. Builds still run.
+        FAILED
+    }
+
+    // The errors the server gives when it refuses the keys.
+    private static final Set<String> REJECTION_ERRORS = new HashSet<>(Arrays.asList("access_denied", "invalid_client"));
+
+    interface Probe {
+        void probe(KsmCredential credential) throws Exception;
+    }
+
+    private final Probe probe;
+    private final boolean failFast;
+    private final Map<String, Result> results = new ConcurrentHashMap<>();
+
+    KsmCredentialHealth(Probe probe, boolean failFast) {
+        this.probe = probe;
+        this.failFast = failFast;
+    }
+
+    public static KsmCredentialHealth get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get the result of the last check of a credential.
+     * @param cacheKey The cache key of the KSM credential
+     * @return The result, or null if the credential has not been checked since it was last changed
+     */
+    public Result getResult(String cacheKey) {
+        return results.get(cacheKey);
+    }
+
+    /**
+     * Get the credentials that failed their last check.
+     * @return The results, sorted by credential id
+     */
+    public List<Result> getProblems() {
+        List<Result> problems = new ArrayList<>();
+        for (Result result : new TreeMap<>(results).values()) {
+            if (result.getStatus() != Status.HEALTHY) {
+                problems.add(result);
+            }
+        }
+        return problems;
+    }
+
+    /**
+     * Forget the results for every credential with an id. Called when a credential is created or updated, the keys
+     * might be different now.
+     * @param credentialId The KSM credential id
+     */
+    public void invalidate(String credentialId) {
+        if (credentialId != null) {
+            results.keySet().removeIf(key -> KsmCredential.isCacheKeyOf(key, credentialId));
+        }
+    }
+
+    /**
+     * Fail if the server rejected the credential at its last check.
+     * @param credential The KSM credential
+     * @throws Exception The credential was rejected.
+     */
+    public void checkUsable(KsmCredential credential) throws Exception {
+        Result result = results.get(credential.getCacheKey());
+        if (failFast && result != null && result.getStatus() == Status.REJECTED) {
+            throw new Exception("The credential " + credential.getId() + " was rejected by the Keeper Secrets "
+                    + "Manager server when it was checked at " + result.getCheckedAt() + ": " + result.getError());
+        }
+    }
+
+    /**
+     * Check a credential and keep the result.
+     * @param credential The KSM credential
+     * @return The result
+     */
+    Result check(KsmCredential credential) {
+        Result result;
+        if (credential.getState() == KsmCredential.State.ERROR) {
+            result = new Result(credential.getId(), Status.REJECTED, 0, credential.getCredentialError());
+        } else {
+            long start = System.nanoTime();
+            Status status = Status.HEALTHY;
+            String error = null;
+            try {
+                probe.probe(credential);
+            } catch (Exception e) {
+                status = classify(e);
+                error = e.getMessage();
+            }
+            result = new Result(credential.getId(), status,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), error);
+        }
+        results.put(credential.getCacheKey(), result);
+        if (result.getStatus() != Status.HEALTHY) {
+            logger.log(Level.WARNING, "The health check of credential " + credential.getId() + " failed, "
+                    + result.getStatus() + ": " + result.getError());
+        }
+        return result;
+    }
+
+    static Status classify(Exception e) {
+        if (KsmRetryPolicy.isTransient(e)) {
+            return Status.UNREACHABLE;
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof KsmHttpStatusException) {
+                int statusCode = ((KsmHttpStatusException) cause).getStatusCode();
+                if (statusCode == 401 || statusCode == 403) {
+                    return Status.REJECTED;
+                }
+            } else if (isRejection(cause.getMessage())) {
+                return Status.REJECTED;
+            }
+        }
+        return Status.FAILED;
+    }
+
+    // The SDK throws the server's error payload as the message, for example {"error":"access_denied",...}.
+    private static boolean isRejection(String message) {
+        if (message == null || !message.trim().startsWith("{")) {
+            return false;
+        }
+        try {
+            JSONObject obj = new JSONObject(message);
+            return REJECTION_ERRORS.contains(obj.optString("error"))
+                    || REJECTION_ERRORS.contains(obj.optString("result_code"));
+        } catch (JSONException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Check credentials in parallel and wait for the checks to finish. Credentials with a token still being
+     * redeemed are skipped, they are checked the next time.
+     * @param credentials The KSM credentials
+     * @return The number of credentials checked
+     * @throws InterruptedException The thread was interrupted while waiting.
+     */
+    public int checkAll(Collection<KsmCredential> credentials) throws InterruptedException {
+        List<CompletableFuture<Result>> checks = new ArrayList<>();
+        for (KsmCredential credential : credentials) {
+            if (credential.getState() != KsmCredential.State.PENDING) {
+                checks.add(CompletableFuture.supplyAsync(() -> check(credential), executor));
+            }
+        }
+        try {
+            CompletableFuture.allOf(checks.toArray(new CompletableFuture[0])).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            logger.log(Level.WARNING, "Not every KSM credential was checked within " + TIMEOUT_SECONDS
+                    + " seconds. The rest are checked in the background.");
+        } catch (ExecutionException e) {
+            // check() doesn't throw; each failure is kept in its result.
+        }
+        return checks.size();
+    }
+
+    public static final class Result {
+
+        private final String credentialId;
+        private final Status status;
+        private final long latencyMillis;
+        private final long checkedAt = System.currentTimeMillis();
+        private final String error;
+
+        Result(String credentialId, Status status, long latencyMillis, String error) {
+            this.credentialId = credentialId;
+            this.status = status;
+            this.latencyMillis = latencyMillis;
+            this.error = error;
+        }
+
+        public String getCredentialId() {
+            return credentialId;
+        }
+        public Status getStatus() {
+            return status;
+        }
+        public long getLatencyMillis() {
+            return latencyMillis;
+        }
+        public Date getCheckedAt() {
+            return new Date(checkedAt);
+        }
+        public String getError() {
+            return error;
+        }
+    }
+}
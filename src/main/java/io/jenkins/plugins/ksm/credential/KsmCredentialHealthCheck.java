@@ -0,0 +1,64 @@
+package io.jenkins.plugins.ksm.credential;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import io.jenkins.plugins.ksm.notation.KsmTestNotation;
+import jenkins.util.SystemProperties;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Check every KSM credential, global or in a folder, every 5 minutes, so a broken credential is found before a build
+ * uses it. The period can be changed with the io.jenkins.plugins.ksm.credential.KsmCredentialHealthCheck.periodSeconds
+ * system property, a period of 0 turns the checks off.
+ */
+@Extension
+public class KsmCredentialHealthCheck extends AsyncPeriodicWork {
+
+    private static final long PERIOD_SECONDS = SystemProperties.getLong(
+            KsmCredentialHealthCheck.class.getName() + ".periodSeconds", 300L);
+
+    public KsmCredentialHealthCheck() {
+        super("Keeper Secrets Manager credential health check");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        // Still scheduled when turned off, it just doesn't do anything.
+        return TimeUnit.SECONDS.toMillis(PERIOD_SECONDS > 0 ? PERIOD_SECONDS : TimeUnit.DAYS.toSeconds(1));
+    }
+
+    @Override
+    public long getInitialDelay() {
+        // Give the tokens left over from before a restart time to be redeemed.
+        return MIN;
+    }
+
+    @Override
+    protected Level getNormalLoggingLevel() {
+        return Level.FINE;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws InterruptedException {
+        if (PERIOD_SECONDS <= 0 || KsmTestNotation.hasDataFile()) {
+            return;
+        }
+
+        // By cache key, the same as the builds and the option cache, so a folder credential with the same id as a
+        // global one is checked too. The stores are read directly, looking up the credentials of each folder would
+        // fill the credential index with folders no build is using.
+        Map<String, KsmCredential> credentials = new LinkedHashMap<>();
+        for (KsmCredential credential : KsmCredential.getAllStoredCredentials()) {
+            credentials.putIfAbsent(credential.getCacheKey(), credential);
+        }
+
+        long start = System.currentTimeMillis();
+        int checked = KsmCredentialHealth.get().checkAll(credentials.values());
+        listener.getLogger().println("Checked " + checked + " KSM credential(s) in "
+                + (System.currentTimeMillis() - start) + " ms.");
+    }
+}
@@ -0,0 +1,26 @@
+package io.jenkins.plugins.ksm.credential;
+
+import hudson.Extension;
+import hudson.model.AdministrativeMonitor;
+import java.util.List;
+
+/**
+ * Tell administrators when a KSM credential failed its last health check, before a build fails because of it.
+ */
+@Extension
+public class KsmCredentialHealthMonitor extends AdministrativeMonitor {
+
+    @Override
+    public String getDisplayName() {
+        return "Keeper Secrets Manager Credential Health";
+    }
+
+    @Override
+    public boolean isActivated() {
+        return !getProblems().isEmpty();
+    }
+
+    public List<KsmCredentialHealth.Result> getProblems() {
+        return KsmCredentialHealth.get().getProblems();
+    }
+}
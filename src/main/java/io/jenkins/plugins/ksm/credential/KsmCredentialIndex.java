@@ -0,0 +1,319 @@
+package io.jenkins.plugins.ksm.credential;
+
+import com.cloudbees.plugins.credentials.Credentials;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsStore;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
+import com.cloudbees.plugins.credentials.domains.Domain;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Saveable;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+import hudson.security.ACL;
+import hudson.util.ListBoxModel;
+import jenkins.security.ACLContext;
+import jenkins.util.SystemProperties;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The KSM credentials each item can use, by id. Looking up the credentials of an item lists every credential in the
+ * item's folders and the global store, so the list is kept instead of being built again for every build, or every
+ * time a job's configuration page lists the credentials.
+ *
+ * The credentials of an item are looked up again when the global store is saved, when a folder it's in is saved with
+ * different KSM credentials, when the item is moved or deleted, and at least every 5 minutes in case a credentials provider changed without saving. The time
+ * can be changed with the io.jenkins.plugins.ksm.credential.KsmCredentialIndex.ttlSeconds system property, a TTL of 0
+ * disables the index.
+ */
+public class KsmCredentialIndex {
+
+    private static final Logger logger = Logger.getLogger(KsmCredentialIndex.class.getName());
+
+    private static final KsmCredentialIndex INSTANCE = new KsmCredentialIndex(
+            KsmCredential::lookupCredentials,
+            SystemProperties.getLong(KsmCredentialIndex.class.getName() + ".ttlSeconds", 300L),
+            SystemProperties.getInteger(KsmCredentialIndex.class.getName() + ".maxItems", 1000));
+
+    // The key for the global context, when there is no item.
+    private static final String GLOBAL = "";
+
+    private final Function<Item, List<KsmCredential>> lookup;
+    private final long ttlMillis;
+    private final int maxItems;
+
+    // By the full name of the item. The least recently used item is dropped first.
+    private final Map<String, Entry> entries;
+    // Changed by every invalidation, so a lookup that started before one isn't kept.
+    private long generation;
+    // The KSM credentials in each folder's own stores when it was last saved, by full name.
+    private final Map<String, List<KsmCredential>> folderCredentials = new HashMap<>();
+
+    KsmCredentialIndex(Function<Item, List<KsmCredential>> lookup, long ttlSeconds, int maxItems) {
+        this.lookup = lookup;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(Math.max(0L, ttlSeconds));
+        this.maxItems = Math.max(1, maxItems);
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > KsmCredentialIndex.this.maxItems;
+            }
+        };
+    }
+
+    public static KsmCredentialIndex get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get a KSM credential an item can use.
+     * @param credentialId The credential id
+     * @param item The item, or null for the global credentials
+     * @return The credential, or null if the item can't use a credential with the id
+     */
+    public KsmCredential getCredential(String credentialId, Item item) {
+        if (ttlMillis == 0) {
+            return find(lookup.apply(item), credentialId);
+        }
+        Entry entry = getEntry(item, false);
+        KsmCredential credential = entry.byId.get(credentialId);
+        if (credential == null) {
+            // It might have been added by a provider that doesn't save. A missing id is an error, so this is rare.
+            credential = getEntry(item, true).byId.get(credentialId);
+        }
+        return credential;
+    }
+
+    /**
+     * Get the KSM credentials an item can use.
+     * @param item The item, or null for the global credentials
+     * @return The credentials, in the order they were found
+     */
+    public List<KsmCredential> getCredentials(Item item) {
+        if (ttlMillis == 0) {
+            return lookup.apply(item);
+        }
+        return getEntry(item, false).credentials;
+    }
+
+    /**
+     * Get the credentials an item can use as list box options, sorted by name. The options are built once for each
+     * item, so a page with many applications only lists the credentials once.
+     * @param item The item, or null for the global credentials
+     * @return A copy of the options, which can be changed
+     */
+    public List<ListBoxModel.Option> getOptions(Item item) {
+        Entry entry = ttlMillis == 0 ? new Entry(lookup.apply(item)) : getEntry(item, false);
+        List<ListBoxModel.Option> options = entry.options;
+        if (options == null) {
+            // Only one option for each id, the same as the credential used by a build.
+            StandardListBoxModel model = new StandardListBoxModel();
+            for (KsmCredential credential : entry.byId.values()) {
+                model.with(credential);
+            }
+            List<ListBoxModel.Option> sorted = new ArrayList<>(model);
+            Collator collator = Collator.getInstance();
+            sorted.sort((a, b) -> collator.compare(a.name, b.name));
+            options = Collections.unmodifiableList(sorted);
+            entry.options = options;
+        }
+
+        // The page can mark an option as selected, so each request gets its own.
+        List<ListBoxModel.Option> copies = new ArrayList<>();
+        for (ListBoxModel.Option option : options) {
+            copies.add(new ListBoxModel.Option(option.name, option.value));
+        }
+        return copies;
+    }
+
+    private Entry getEntry(Item item, boolean reload) {
+        String key = key(item);
+        Entry entry;
+        long lookupGeneration;
+        synchronized (entries) {
+            entry = entries.get(key);
+            lookupGeneration = generation;
+        }
+        if (entry != null && !reload && System.currentTimeMillis() - entry.created < ttlMillis) {
+            return entry;
+        }
+
+        // Looked up outside the lock. Two builds might both look up the same item, which is harmless.
+        entry = new Entry(lookup.apply(item));
+        synchronized (entries) {
+            if (generation == lookupGeneration) {
+                entries.put(key, entry);
+            }
+        }
+        logger.log(Level.FINE, "Indexed " + entry.credentials.size() + " KSM credential(s) for "
+                + (item == null ? "the global context" : item.getFullName()));
+        return entry;
+    }
+
+    private static KsmCredential find(List<KsmCredential> credentials, String credentialId) {
+        for (KsmCredential credential : credentials) {
+            if (credential.getId().equals(credentialId)) {
+                return credential;
+            }
+        }
+        return null;
+    }
+
+    private static String key(Item item) {
+        return item == null ? GLOBAL : item.getFullName();
+    }
+
+    /**
+     * Look up the credentials of an item, and every item in it if it's a folder, again the next time they're used.
+     * @param fullName The full name of the item
+     */
+    public void invalidate(String fullName) {
+        synchronized (entries) {
+            generation++;
+            removeSubtree(entries, fullName);
+            removeSubtree(folderCredentials, fullName);
+        }
+    }
+
+    /**
+     * A folder was saved. Look up the credentials of the items in it again, but only if the KSM credentials in its
+     * own stores changed. Some folders, like multibranch projects, are saved every time their branches are scanned.
+     * @param fullName The full name of the folder
+     * @param credentials The KSM credentials in the folder's own stores
+     */
+    public void invalidateIfChanged(String fullName, List<KsmCredential> credentials) {
+        synchronized (entries) {
+            List<KsmCredential> previous = folderCredentials.get(fullName);
+            if (previous != null && sameInstances(previous, credentials)) {
+                return;
+            }
+            invalidate(fullName);
+            folderCredentials.put(fullName, new ArrayList<>(credentials));
+        }
+    }
+
+    // A changed credential is a new instance, so they're compared by identity.
+    private static boolean sameInstances(List<KsmCredential> a, List<KsmCredential> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            generation++;
+            entries.clear();
+            folderCredentials.clear();
+        }
+    }
+
+    private static void removeSubtree(Map<String, ?> map, String fullName) {
+        Iterator<String> keys = map.keySet().iterator();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (key.equals(fullName) || key.startsWith(fullName + "/")) {
+                keys.remove();
+            }
+        }
+    }
+
+    // The KSM credentials in the stores of the folder itself, not the ones of the folders it's in.
+    private static List<KsmCredential> getFolderCredentials(Item folder) {
+        List<KsmCredential> credentials = new ArrayList<>();
+        try (ACLContext ignored = ACL.as2(ACL.SYSTEM2)) {
+            for (CredentialsStore store : CredentialsProvider.lookupStores(folder)) {
+                if (store.getContext() != folder) {
+                    continue;
+                }
+                for (Domain domain : store.getDomains()) {
+                    for (Credentials credential : store.getCredentials(domain)) {
+                        if (credential instanceof KsmCredential) {
+                            credentials.add((KsmCredential) credential);
+                        }
+                    }
+                }
+            }
+        }
+        return credentials;
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static final class Entry {
+
+        private final long created = System.currentTimeMillis();
+        private final List<KsmCredential> credentials;
+        private final Map<String, KsmCredential> byId = new LinkedHashMap<>();
+        // Built the first time the credentials are listed in a form.
+        private volatile List<ListBoxModel.Option> options;
+
+        Entry(List<KsmCredential> credentials) {
+            this.credentials = Collections.unmodifiableList(new ArrayList<>(credentials));
+            // Like the lookup, when two stores have the same id the first one found is used.
+            for (KsmCredential credential : credentials) {
+                byId.putIfAbsent(credential.getId(), credential);
+            }
+        }
+    }
+
+    // The global store, or a folder and its store, was saved. The credentials in it might have changed.
+    @Extension
+    public static class SaveListener extends SaveableListener {
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof SystemCredentialsProvider) {
+                KsmCredentialIndex.get().invalidateAll();
+            } else if (o instanceof Item && o instanceof ItemGroup) {
+                Item folder = (Item) o;
+                KsmCredentialIndex.get().invalidateIfChanged(folder.getFullName(), getFolderCredentials(folder));
+            }
+        }
+    }
+
+    @Extension
+    public static class ItemChangeListener extends ItemListener {
+
+        @Override
+        public void onUpdated(Item item) {
+            if (item instanceof ItemGroup) {
+                KsmCredentialIndex.get().invalidateIfChanged(item.getFullName(), getFolderCredentials(item));
+            }
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            KsmCredentialIndex.get().invalidate(item.getFullName());
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            KsmCredentialIndex.get().invalidate(oldFullName);
+            KsmCredentialIndex.get().invalidate(newFullName);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package io.jenkins.plugins.ksm.credential;
+
+import com.keepersecurity.secretsManager.core.LocalConfigStorage;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.Secret;
+import io.jenkins.plugins.ksm.KsmQuery;
+import jenkins.util.SystemProperties;
+import java.util.concurrent.*;
+
+/**
+ * Redeems one-time access tokens in the background. Loading many credentials with tokens, for example from
+ * Configuration as Code, would otherwise redeem them one at a time, and an unreachable server would hold up
+ * Jenkins until each request timed out.
+ */
+public class KsmTokenRedeemer {
+
+    private static final int POOL_SIZE = SystemProperties.getInteger(
+            KsmTokenRedeemer.class.getName() + ".poolSize", 4);
+    private static final int QUEUE_SIZE = SystemProperties.getInteger(
+            KsmTokenRedeemer.class.getName() + ".queueSize", 500);
+
+    // How long a build waits for a credential's token to be redeemed.
+    public static final long WAIT_SECONDS = SystemProperties.getLong(
+            KsmTokenRedeemer.class.getName() + ".waitSeconds", 120L);
+
+    // If the queue is full, the token is redeemed by the thread that created the credential.
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            POOL_SIZE, POOL_SIZE, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(QUEUE_SIZE),
+            new NamingThreadFactory(new DaemonThreadFactory(), "KsmTokenRedeemer"),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private KsmTokenRedeemer() {
+    }
+
+    /**
+     * Queue a token to be redeemed.
+     * @param token The one-time access token
+     * @param hostname The hostname of the server
+     * @param skipSslVerification Don't verify the server's certificate
+     * @return A future with the storage holding the keys, or the redemption error.
+     */
+    public static CompletableFuture<LocalConfigStorage> redeem(Secret token, String hostname,
+                                                               boolean skipSslVerification) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return KsmQuery.redeemToken(token.getPlainText(), hostname, skipSslVerification);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+}
@@ -0,0 +1,144 @@
+package io.jenkins.plugins.ksm.http;
+
+import jenkins.util.SystemProperties;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the number of concurrent fetches, and the number of fetches waiting, for a KSM credential. A credential
+ * whose server is slow then only ties up its own share of the executor threads. A fetch that would go over the
+ * queue size is rejected right away.
+ *
+ * The limits are opt-in. A credential without a max concurrent fetches has no limit, its bulkhead only counts the
+ * fetches in flight. A credential with one, but no max queued fetches, lets any number of fetches wait.
+ */
+public class KsmBulkhead {
+
+    // No limit.
+    public static final int UNLIMITED = 0;
+
+    private static final long MAX_WAIT_SECONDS = SystemProperties.getLong(
+            KsmBulkhead.class.getName() + ".maxWaitSeconds", 300L);
+
+    private static final Map<String, KsmBulkhead> bulkheads = new ConcurrentHashMap<>();
+
+    private final String credentialId;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    // Null if there is no limit.
+    private final Semaphore permits;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param credentialId The id of the KSM credential, for messages
+     * @param maxConcurrent The max number of concurrent fetches, or UNLIMITED
+     * @param maxQueued The max number of waiting fetches, 0 for none, or a negative number for no limit
+     */
+    public KsmBulkhead(String credentialId, int maxConcurrent, int maxQueued) {
+        this.credentialId = credentialId;
+        this.maxConcurrent = concurrentLimit(maxConcurrent);
+        this.maxQueued = queueLimit(maxQueued);
+        this.permits = this.maxConcurrent == UNLIMITED ? null : new Semaphore(this.maxConcurrent, true);
+    }
+
+    private static int concurrentLimit(int maxConcurrent) {
+        return Math.max(UNLIMITED, maxConcurrent);
+    }
+
+    private static int queueLimit(int maxQueued) {
+        return maxQueued < 0 ? Integer.MAX_VALUE : maxQueued;
+    }
+
+    /**
+     * Get the bulkhead for a credential. If the sizes changed, a new bulkhead replaces the old one. Fetches that
+     * hold a permit from the old one release it there.
+     * @param key The cache key of the KSM credential. Credentials with the same id in different stores each get
+     *            their own bulkhead.
+     * @param credentialId The id of the KSM credential, for messages
+     * @param maxConcurrent The max number of concurrent fetches, or UNLIMITED
+     * @param maxQueued The max number of waiting fetches, 0 for none, or a negative number for no limit
+     * @return KsmBulkhead
+     */
+    public static KsmBulkhead forCredential(String key, String credentialId, int maxConcurrent, int maxQueued) {
+        return bulkheads.compute(key, (k, existing) -> {
+            if (existing != null && existing.maxConcurrent == concurrentLimit(maxConcurrent)
+                    && existing.maxQueued == queueLimit(maxQueued)) {
+                return existing;
+            }
+            return new KsmBulkhead(credentialId, maxConcurrent, maxQueued);
+        });
+    }
+
+    /**
+     * Get the bulkhead for a credential, if it has one.
+     * @param key The cache key of the KSM credential
+     * @return KsmBulkhead, or null
+     */
+    public static KsmBulkhead get(String key) {
+        return bulkheads.get(key);
+    }
+
+    /**
+     * Take a permit. It has to be released with release().
+     * @throws Exception The bulkhead is full, the wait was too long, or the thread was interrupted.
+     */
+    public void acquire() throws Exception {
+        if (permits == null || permits.tryAcquire()) {
+            inFlight.incrementAndGet();
+            return;
+        }
+        if (waiting.incrementAndGet() > maxQueued) {
+            waiting.decrementAndGet();
+            rejected.increment();
+            throw new Exception(saturatedMessage());
+        }
+        try {
+            if (!permits.tryAcquire(MAX_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                rejected.increment();
+                throw new Exception(saturatedMessage() + " Waited " + MAX_WAIT_SECONDS + " second(s).");
+            }
+            inFlight.incrementAndGet();
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    public void release() {
+        inFlight.decrementAndGet();
+        if (permits != null) {
+            permits.release();
+        }
+    }
+
+    private String saturatedMessage() {
+        return "Too many builds are retrieving secrets with the credential '" + credentialId + "'. "
+                + getInFlight() + " of " + maxConcurrent + " are in progress and " + waiting.get()
+                + (maxQueued == Integer.MAX_VALUE ? "" : " of " + maxQueued) + " are waiting. Increase the "
+                + "concurrent, or queued, request limits of the credential, or try again later.";
+    }
+
+    public String getCredentialId() {
+        return credentialId;
+    }
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+    public int getInFlight() {
+        return inFlight.get();
+    }
+    public int getWaiting() {
+        return waiting.get();
+    }
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
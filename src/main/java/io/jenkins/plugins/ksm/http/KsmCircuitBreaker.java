@@ -0,0 +1,147 @@
+package io.jenkins.plugins.ksm.http;
+
+import jenkins.util.SystemProperties;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A circuit breaker for a Keeper Secrets Manager server host.
+ *
+ * After a number of consecutive transient failures the breaker opens and requests fail without calling the
+ * server. After a wait, one request is let through. If it works the breaker closes, else it opens again.
+ */
+public class KsmCircuitBreaker {
+
+    private static final Logger logger = Logger.getLogger(KsmCircuitBreaker.class.getName());
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final int FAILURE_THRESHOLD = SystemProperties.getInteger(
+            KsmCircuitBreaker.class.getName() + ".failureThreshold", 5);
+    private static final long OPEN_MILLIS = SystemProperties.getLong(
+            KsmCircuitBreaker.class.getName() + ".openSeconds", 30L) * 1000L;
+
+    private static final Map<String, KsmCircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    private final String host;
+    private final int failureThreshold;
+    private final long openMillis;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInProgress;
+    private String lastError;
+
+    public KsmCircuitBreaker(String host, int failureThreshold, long openMillis) {
+        this.host = host;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+    }
+
+    public static KsmCircuitBreaker forHost(String host) {
+        String key = Objects.toString(host, "").trim();
+        return breakers.computeIfAbsent(key, k -> new KsmCircuitBreaker(k, FAILURE_THRESHOLD, OPEN_MILLIS));
+    }
+
+    /**
+     * Get all the breakers that have been used.
+     * @return List of breakers, sorted by host.
+     */
+    public static List<KsmCircuitBreaker> all() {
+        List<KsmCircuitBreaker> list = new ArrayList<>(breakers.values());
+        list.sort(Comparator.comparing(KsmCircuitBreaker::getHost));
+        return list;
+    }
+
+    /**
+     * Check if a request can be made. When the wait is over, a single trial request is allowed.
+     * @return true if the request can be made
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case OPEN:
+                if (System.currentTimeMillis() < getRetryAt()) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                trialInProgress = true;
+                return true;
+            case HALF_OPEN:
+                if (trialInProgress) {
+                    return false;
+                }
+                trialInProgress = true;
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            logger.log(Level.INFO, "Keeper Secrets Manager server " + host + " is responding again.");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInProgress = false;
+    }
+
+    public synchronized void recordFailure(String error) {
+        consecutiveFailures++;
+        lastError = error;
+        trialInProgress = false;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                logger.log(Level.WARNING, "Keeper Secrets Manager server " + host + " failed "
+                        + consecutiveFailures + " time(s). Pausing requests for " + (openMillis / 1000L)
+                        + " second(s). Last error: " + error);
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * The allowed request was never made.
+     */
+    public synchronized void cancelTrial() {
+        if (state == State.HALF_OPEN) {
+            trialInProgress = false;
+        }
+    }
+
+    public synchronized void reset() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInProgress = false;
+        lastError = null;
+    }
+
+    public String getHost() {
+        return host;
+    }
+    public synchronized State getState() {
+        return state;
+    }
+    public synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+    public synchronized long getOpenedAt() {
+        return openedAt;
+    }
+    public synchronized long getRetryAt() {
+        return openedAt + openMillis;
+    }
+    public synchronized String getLastError() {
+        return lastError;
+    }
+}
@@ -0,0 +1,33 @@
+package io.jenkins.plugins.ksm.http;
+
+import hudson.Extension;
+import hudson.model.AdministrativeMonitor;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tell administrators when builds are failing fast because a Keeper Secrets Manager server is not responding.
+ */
+@Extension
+public class KsmCircuitBreakerMonitor extends AdministrativeMonitor {
+
+    @Override
+    public String getDisplayName() {
+        return "Keeper Secrets Manager Server Availability";
+    }
+
+    @Override
+    public boolean isActivated() {
+        return !getOpenBreakers().isEmpty();
+    }
+
+    public List<KsmCircuitBreaker> getOpenBreakers() {
+        List<KsmCircuitBreaker> open = new ArrayList<>();
+        for (KsmCircuitBreaker breaker : KsmCircuitBreaker.all()) {
+            if (breaker.isOpen()) {
+                open.add(breaker);
+            }
+        }
+        return open;
+    }
+}
@@ -0,0 +1,12 @@
+package io.jenkins.plugins.ksm.http;
+
+/**
+ * Thrown, without calling the server, when the circuit breaker for the server is open.
+ */
+public class KsmCircuitOpenException extends Exception {
+
+    public KsmCircuitOpenException(String host, long retryAt) {
+        super("The Keeper Secrets Manager server " + host + " has been failing. Requests are paused for "
+                + Math.max(1L, (retryAt - System.currentTimeMillis() + 999L) / 1000L) + " more second(s).");
+    }
+}
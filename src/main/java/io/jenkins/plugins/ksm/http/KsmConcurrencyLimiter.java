@@ -0,0 +1,233 @@
+package io.jenkins.plugins.ksm.http;
+
+import jenkins.util.SystemProperties;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Limits the number of concurrent requests to a Keeper Secrets Manager server host.
+ *
+ * The limit adapts, AIMD style. Each request that completes quickly raises the limit a little, about 1 per full
+ * window of requests. A request that fails, or takes much longer than the fastest recent requests, cuts the limit
+ * by a quarter. Requests over the limit wait in a first come, first served queue.
+ *
+ * Only requests that take about the same time whatever the size of the vault are compared to the fastest ones,
+ * requests for record UIDs. Fetching every record, or downloading a file, takes longer the bigger it is; those
+ * requests only cut the limit when they fail.
+ */
+public class KsmConcurrencyLimiter {
+
+    private static final Logger logger = Logger.getLogger(KsmConcurrencyLimiter.class.getName());
+
+    private static final int INITIAL_LIMIT = SystemProperties.getInteger(
+            KsmConcurrencyLimiter.class.getName() + ".initialLimit", 8);
+    private static final int MAX_LIMIT = SystemProperties.getInteger(
+            KsmConcurrencyLimiter.class.getName() + ".maxLimit", 64);
+    private static final long MAX_WAIT_SECONDS = SystemProperties.getLong(
+            KsmConcurrencyLimiter.class.getName() + ".maxWaitSeconds", 300L);
+
+    // A request slower than this many times the baseline latency counts as a sign of overload.
+    private static final double LATENCY_TOLERANCE = 2.0;
+    // Requests faster than this never count as overload, so jitter on very fast requests is ignored.
+    private static final long MIN_OVERLOAD_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final double DECREASE_FACTOR = 0.75;
+    private static final int MIN_LIMIT = 1;
+
+    private static final Map<String, KsmConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+
+    private final String host;
+    private final int maxLimit;
+    private final long maxWaitNanos;
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Deque<Condition> waiters = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    // The fastest recent request. It slowly drifts up, so an old fast sample does not hold forever.
+    private double baselineNanos = -1;
+    private long requests;
+    private long rejected;
+
+    public KsmConcurrencyLimiter(String host, int initialLimit, int maxLimit, long maxWaitSeconds) {
+        this.host = host;
+        this.maxLimit = Math.max(MIN_LIMIT, maxLimit);
+        this.limit = Math.max(MIN_LIMIT, Math.min(initialLimit, this.maxLimit));
+        this.maxWaitNanos = TimeUnit.SECONDS.toNanos(maxWaitSeconds);
+    }
+
+    public static KsmConcurrencyLimiter forHost(String host) {
+        String key = Objects.toString(host, "").trim();
+        return limiters.computeIfAbsent(key,
+                k -> new KsmConcurrencyLimiter(k, INITIAL_LIMIT, MAX_LIMIT, MAX_WAIT_SECONDS));
+    }
+
+    /**
+     * Get all the limiters that have been used.
+     * @return List of limiters, sorted by host.
+     */
+    public static List<KsmConcurrencyLimiter> all() {
+        List<KsmConcurrencyLimiter> list = new ArrayList<>(limiters.values());
+        list.sort(Comparator.comparing(KsmConcurrencyLimiter::getHost));
+        return list;
+    }
+
+    /**
+     * Wait for a slot. The returned permit has to be released when the request is done.
+     * @return Permit
+     * @throws Exception Waited too long, or was interrupted.
+     */
+    public Permit acquire() throws Exception {
+        lock.lock();
+        try {
+            if (waiters.isEmpty() && inFlight < (int) limit) {
+                inFlight++;
+                requests++;
+                return new Permit();
+            }
+
+            Condition turn = lock.newCondition();
+            waiters.addLast(turn);
+            long remaining = maxWaitNanos;
+            try {
+                while (waiters.peekFirst() != turn || inFlight >= (int) limit) {
+                    if (remaining <= 0L) {
+                        rejected++;
+                        throw new Exception("Timed out after " + TimeUnit.NANOSECONDS.toSeconds(maxWaitNanos)
+                                + " second(s) waiting to send a request to the Keeper Secrets Manager server "
+                                + host + ". There are " + inFlight + " request(s) in progress and "
+                                + waiters.size() + " waiting.");
+                    }
+                    remaining = turn.awaitNanos(remaining);
+                }
+            } finally {
+                waiters.remove(turn);
+                signalNext();
+            }
+            inFlight++;
+            requests++;
+            return new Permit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(long latencyNanos, boolean overloaded, boolean timed) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (!overloaded && timed) {
+                if (baselineNanos < 0 || latencyNanos < baselineNanos) {
+                    baselineNanos = latencyNanos;
+                } else {
+                    baselineNanos += (latencyNanos - baselineNanos) * 0.01;
+                }
+                overloaded = latencyNanos > MIN_OVERLOAD_NANOS && latencyNanos > baselineNanos * LATENCY_TOLERANCE;
+            }
+            double previous = limit;
+            if (overloaded) {
+                limit = Math.max(MIN_LIMIT, limit * DECREASE_FACTOR);
+            } else if (inFlight + 1 >= (int) limit) {
+                // Only grow when the limit is actually being used.
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            if ((int) previous != (int) limit) {
+                logger.log(Level.FINE, "Concurrency limit for " + host + " is now " + (int) limit);
+            }
+            signalNext();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signalNext() {
+        Condition next = waiters.peekFirst();
+        if (next != null && inFlight < (int) limit) {
+            next.signal();
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+    public long getRequests() {
+        lock.lock();
+        try {
+            return requests;
+        } finally {
+            lock.unlock();
+        }
+    }
+    public long getRejected() {
+        lock.lock();
+        try {
+            return rejected;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A slot for one request.
+     */
+    public final class Permit {
+
+        private final long startNanos = System.nanoTime();
+        private boolean released;
+
+        private Permit() {
+        }
+
+        /**
+         * Give the slot back.
+         * @param overloaded true if the request failed in a way that means the server is overloaded
+         */
+        public void release(boolean overloaded) {
+            release(overloaded, true);
+        }
+
+        /**
+         * Give the slot back, without comparing how long the request took to the others. For requests that take
+         * longer the more they get, like fetching every record.
+         * @param overloaded true if the request failed in a way that means the server is overloaded
+         */
+        public void releaseUntimed(boolean overloaded) {
+            release(overloaded, false);
+        }
+
+        private void release(boolean overloaded, boolean timed) {
+            if (released) {
+                return;
+            }
+            released = true;
+            KsmConcurrencyLimiter.this.release(System.nanoTime() - startNanos, overloaded, timed);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package io.jenkins.plugins.ksm.http;
+
+import com.keepersecurity.secretsManager.core.EncryptedPayload;
+import com.keepersecurity.secretsManager.core.KeeperHttpResponse;
+import com.keepersecurity.secretsManager.core.TransmissionKey;
+import jenkins.util.SystemProperties;
+import kotlin.jvm.functions.Function3;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends SDK requests to the fastest healthy endpoint of a credential.
+ *
+ * The endpoints are the host of the URL the SDK built, followed by the credential's additional hostnames. The
+ * latency of every endpoint is tracked. An endpoint that hasn't answered yet, or not in the last 5 minutes, is tried
+ * first, so each one is measured again and a faster one is found. An endpoint that fails is skipped for a while and the request goes to the
+ * next one. If hedging is on, a get_secret request that takes longer than the endpoint's p95 latency is also sent
+ * to the next endpoint, and the first response wins.
+ */
+public class KsmEndpointRouter implements Function3<String, TransmissionKey, EncryptedPayload, KeeperHttpResponse> {
+
+    private static final Logger logger = Logger.getLogger(KsmEndpointRouter.class.getName());
+
+    private static final long DOWN_MILLIS = SystemProperties.getLong(
+            KsmEndpointRouter.class.getName() + ".downSeconds", 30L) * 1000L;
+
+    // How long an endpoint's latency is trusted without a new sample.
+    private static final long REMEASURE_MILLIS = SystemProperties.getLong(
+            KsmEndpointRouter.class.getName() + ".remeasureSeconds", 300L) * 1000L;
+
+    // Only read requests are hedged, sending them twice is harmless.
+    private static final String HEDGE_PATH = "/get_secret";
+
+    private static final Map<String, EndpointStats> stats = new ConcurrentHashMap<>();
+
+    private final List<String> endpoints;
+    private final KsmHttpTransport transport;
+    private final boolean hedge;
+
+    /**
+     * @param endpoints Additional endpoints, host or host:port, in order of preference
+     * @param skipSslVerification Trust any server certificate
+     * @param hedge Send a hedge request for slow get_secret requests
+     */
+    public KsmEndpointRouter(List<String> endpoints, boolean skipSslVerification, boolean hedge) {
+        this.endpoints = Collections.unmodifiableList(new ArrayList<>(endpoints));
+        this.transport = KsmHttpTransport.get(skipSslVerification);
+        this.hedge = hedge;
+    }
+
+    /**
+     * Split the text of the additional hostnames field into a list. Blank lines and duplicates are dropped.
+     * @param text Hostnames separated by new lines, commas or spaces
+     * @return List of hostnames
+     */
+    public static List<String> parseEndpoints(String text) {
+        Set<String> list = new LinkedHashSet<>();
+        if (text != null) {
+            for (String endpoint : text.split("[\\s,]+")) {
+                if (!endpoint.trim().isEmpty()) {
+                    list.add(endpoint.trim());
+                }
+            }
+        }
+        return new ArrayList<>(list);
+    }
+
+    public static EndpointStats getStats(String endpoint) {
+        return stats.computeIfAbsent(endpoint, EndpointStats::new);
+    }
+
+    public static List<EndpointStats> allStats() {
+        List<EndpointStats> list = new ArrayList<>(stats.values());
+        list.sort(Comparator.comparing(EndpointStats::getEndpoint));
+        return list;
+    }
+
+    @Override
+    public KeeperHttpResponse invoke(String url, TransmissionKey transmissionKey, EncryptedPayload payload) {
+        URI uri = URI.create(url);
+        List<String> order = rank(uri.getRawAuthority());
+        boolean hedgeable = hedge && uri.getPath() != null && uri.getPath().endsWith(HEDGE_PATH);
+
+        RuntimeException last = null;
+        for (int index = 0; index < order.size(); index++) {
+            String endpoint = order.get(index);
+            String next = index + 1 < order.size() ? order.get(index + 1) : null;
+            try {
+                if (hedgeable && next != null) {
+                    // Both the endpoint and the next one are tried.
+                    index++;
+                    return hedged(uri, endpoint, next, transmissionKey, payload);
+                }
+                return KsmHttpTransport.await(send(uri, endpoint, transmissionKey, payload));
+            } catch (RuntimeException e) {
+                last = KsmHttpTransport.unchecked(e);
+                if (!KsmRetryPolicy.isTransient(last)) {
+                    throw last;
+                }
+                logger.log(Level.FINE, "Request to " + endpoint + " failed, trying the next endpoint: "
+                        + last.getMessage());
+            }
+        }
+        throw last;
+    }
+
+    private KeeperHttpResponse hedged(URI uri, String primary, String secondary,
+                                      TransmissionKey transmissionKey, EncryptedPayload payload) {
+        CompletableFuture<KeeperHttpResponse> first = send(uri, primary, transmissionKey, payload);
+        long p95 = getStats(primary).getP95Millis();
+        if (p95 <= 0) {
+            return KsmHttpTransport.await(first);
+        }
+        try {
+            return first.get(p95, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.log(Level.FINE, "Request to " + primary + " is slower than " + p95 + "ms, hedging to "
+                    + secondary);
+            getStats(primary).hedges.incrementAndGet();
+        } catch (InterruptedException e) {
+            // The build was aborted; don't wait for the request.
+            first.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("The request was interrupted."));
+        } catch (ExecutionException e) {
+            return KsmHttpTransport.await(first);
+        }
+
+        CompletableFuture<KeeperHttpResponse> second = send(uri, secondary, transmissionKey, payload);
+        CompletableFuture<KeeperHttpResponse> winner = new CompletableFuture<>();
+        // The first success wins. Only fail if both fail.
+        first.whenComplete((response, error) -> {
+            if (error == null) {
+                winner.complete(response);
+            } else {
+                second.whenComplete((r, e) -> {
+                    if (e == null) {
+                        winner.complete(r);
+                    } else {
+                        winner.completeExceptionally(error);
+                    }
+                });
+            }
+        });
+        second.whenComplete((response, error) -> {
+            if (error == null) {
+                winner.complete(response);
+            }
+        });
+        try {
+            return KsmHttpTransport.await(winner);
+        } finally {
+            // Cancel the request that lost, so it doesn't hold a connection. It's not counted in the latency.
+            first.cancel(true);
+            second.cancel(true);
+        }
+    }
+
+    /**
+     * Send the request to an endpoint. The latency is recorded when it succeeds.
+     * @return The future from the transport, cancelling it cancels the request
+     */
+    private CompletableFuture<KeeperHttpResponse> send(URI uri, String endpoint, TransmissionKey transmissionKey,
+                                                       EncryptedPayload payload) {
+        EndpointStats endpointStats = getStats(endpoint);
+        long start = System.nanoTime();
+        CompletableFuture<KeeperHttpResponse> sent = transport.sendAsync(withEndpoint(uri, endpoint),
+                transmissionKey, payload);
+        sent.whenComplete((response, error) -> {
+            if (error == null) {
+                endpointStats.recordSuccess(System.nanoTime() - start);
+            } else if (!isCancellation(error) && KsmRetryPolicy.isTransient(error)) {
+                endpointStats.recordFailure(DOWN_MILLIS);
+            }
+        });
+        return sent;
+    }
+
+    private static boolean isCancellation(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CancellationException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The endpoints in the order to try them. Healthy endpoints come first, fastest first. Endpoints without a
+     * recent sample come before all of them, in their configured order, so they are measured.
+     */
+    List<String> rank(String sdkEndpoint) {
+        List<String> all = new ArrayList<>();
+        all.add(sdkEndpoint);
+        for (String endpoint : endpoints) {
+            if (!all.contains(endpoint)) {
+                all.add(endpoint);
+            }
+        }
+        long now = System.currentTimeMillis();
+        List<String> healthy = new ArrayList<>();
+        List<String> down = new ArrayList<>();
+        for (String endpoint : all) {
+            (getStats(endpoint).isDown(now) ? down : healthy).add(endpoint);
+        }
+        healthy.sort(Comparator.comparingDouble(endpoint -> getStats(endpoint).getRankMillis(now)));
+        healthy.addAll(down);
+        return healthy;
+    }
+
+    private static URI withEndpoint(URI uri, String endpoint) {
+        try {
+            return new URI(uri.getScheme(), endpoint, uri.getPath(), uri.getQuery(), uri.getFragment());
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("The endpoint " + endpoint + " is not a valid hostname.", e);
+        }
+    }
+
+    /**
+     * Latency and health of an endpoint.
+     */
+    public static final class EndpointStats {
+
+        private static final int WINDOW = 100;
+        private static final int MIN_SAMPLES_FOR_P95 = 20;
+        private static final double EWMA_WEIGHT = 0.2;
+
+        private final String endpoint;
+        private final long[] samples = new long[WINDOW];
+        private int count;
+        private int position;
+        private double ewmaMillis = -1;
+        private long sampledAt;
+        private long downUntil;
+        private long failures;
+        private final AtomicLong hedges = new AtomicLong();
+
+        EndpointStats(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        synchronized void recordSuccess(long latencyNanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+            samples[position] = millis;
+            position = (position + 1) % WINDOW;
+            count = Math.min(count + 1, WINDOW);
+            ewmaMillis = ewmaMillis < 0 ? millis : ewmaMillis + (millis - ewmaMillis) * EWMA_WEIGHT;
+            sampledAt = System.currentTimeMillis();
+            downUntil = 0L;
+        }
+
+        // The latency to rank the endpoint by. 0 if it has no recent sample, so it's tried, and measured, next.
+        synchronized double getRankMillis(long now) {
+            if (ewmaMillis < 0 || now - sampledAt > REMEASURE_MILLIS) {
+                return 0;
+            }
+            return ewmaMillis;
+        }
+
+        synchronized void recordFailure(long downMillis) {
+            failures++;
+            downUntil = System.currentTimeMillis() + downMillis;
+        }
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+        public synchronized boolean isDown(long now) {
+            return now < downUntil;
+        }
+        public synchronized double getEwmaMillis() {
+            return ewmaMillis;
+        }
+        public synchronized long getAverageMillis() {
+            return Math.round(ewmaMillis);
+        }
+        public synchronized long getFailures() {
+            return failures;
+        }
+        public long getHedges() {
+            return hedges.get();
+        }
+        public synchronized int getSampleCount() {
+            return count;
+        }
+
+        /**
+         * @return The 95th percentile latency of the recent requests, or 0 if there are not enough samples.
+         */
+        public synchronized long getP95Millis() {
+            if (count < MIN_SAMPLES_FOR_P95) {
+                return 0L;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            return Math.max(1L, sorted[(int) Math.ceil(count * 0.95) - 1]);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package io.jenkins.plugins.ksm.http;
+
+/**
+ * Thrown by the transport when the server returns a status that is worth retrying; a 5xx or 429. The message is
+ * the response body, which is what the SDK would have used for its own exception.
+ */
+public class KsmHttpStatusException extends RuntimeException {
+
+    private final int statusCode;
+
+    public KsmHttpStatusException(int statusCode, String body) {
+        super(body);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public static boolean isRetryable(int statusCode) {
+        return statusCode == 429 || statusCode >= 500;
+    }
+}
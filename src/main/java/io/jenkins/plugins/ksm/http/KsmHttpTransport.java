@@ -0,0 +1,297 @@
+package io.jenkins.plugins.ksm.http;
+
+import com.keepersecurity.secretsManager.core.CryptoUtils;
+import com.keepersecurity.secretsManager.core.EncryptedPayload;
+import com.keepersecurity.secretsManager.core.KeeperHttpResponse;
+import com.keepersecurity.secretsManager.core.TransmissionKey;
+import jenkins.util.SystemProperties;
+import kotlin.jvm.functions.Function3;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedTrustManager;
+
+/**
+ * The query function used by the SDK to talk to the Keeper Secrets Manager server.
+ *
+ * The SDK's default opens a new HttpsURLConnection, and TLS connection, for every request. This uses a shared
+ * java.net.http.HttpClient per server host, which keeps connections alive, negotiates HTTP/2 when the server
+ * supports it, and reuses TLS sessions. The request is the same as the SDK's default.
+ *
+ * A 5xx or 429 response is thrown as a KsmHttpStatusException, so it can be retried.
+ */
+public class KsmHttpTransport implements Function3<String, TransmissionKey, EncryptedPayload, KeeperHttpResponse> {
+
+    private static final Logger logger = Logger.getLogger(KsmHttpTransport.class.getName());
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(SystemProperties.getLong(
+            KsmHttpTransport.class.getName() + ".connectTimeoutSeconds", 30L));
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(SystemProperties.getLong(
+            KsmHttpTransport.class.getName() + ".requestTimeoutSeconds", 60L));
+
+    private static final KsmHttpTransport VERIFIED = new KsmHttpTransport(false);
+    private static final KsmHttpTransport UNVERIFIED = new KsmHttpTransport(true);
+
+    // One client per host and SSL verification setting.
+    private static final Map<String, HostClient> clients = new ConcurrentHashMap<>();
+
+    private final boolean skipSslVerification;
+
+    private KsmHttpTransport(boolean skipSslVerification) {
+        this.skipSslVerification = skipSslVerification;
+    }
+
+    public static KsmHttpTransport get(boolean skipSslVerification) {
+        return skipSslVerification ? UNVERIFIED : VERIFIED;
+    }
+
+    @Override
+    public KeeperHttpResponse invoke(String url, TransmissionKey transmissionKey, EncryptedPayload payload) {
+        return await(sendAsync(URI.create(url), transmissionKey, payload));
+    }
+
+    /**
+     * Send the request without waiting for the response.
+     * @param uri The full URL of the request
+     * @param transmissionKey The transmission key from the SDK
+     * @param payload The encrypted payload from the SDK
+     * @return A future that completes with the response, or fails with KsmHttpStatusException or IOException.
+     *         Cancelling it cancels the request.
+     */
+    public CompletableFuture<KeeperHttpResponse> sendAsync(URI uri, TransmissionKey transmissionKey,
+                                                           EncryptedPayload payload) {
+
+        HostClient hostClient = getHostClient(uri.getHost());
+        HttpRequest request = buildRequest(uri, transmissionKey, payload);
+
+        HostMetrics metrics = hostClient.metrics;
+        metrics.requests.increment();
+        metrics.inFlight.incrementAndGet();
+        CompletableFuture<HttpResponse<byte[]>> sent = hostClient.client.sendAsync(request,
+                HttpResponse.BodyHandlers.ofByteArray());
+        // Counted on the request itself. The result below is skipped if it was cancelled first.
+        sent.whenComplete((response, error) -> {
+            metrics.inFlight.decrementAndGet();
+            if (error != null ? !sent.isCancelled() : KsmHttpStatusException.isRetryable(response.statusCode())) {
+                metrics.failures.increment();
+            }
+        });
+        CompletableFuture<KeeperHttpResponse> result = sent
+                .handle((response, error) -> {
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error;
+                        throw new CompletionException(cause);
+                    }
+                    if (response.version() == HttpClient.Version.HTTP_2) {
+                        metrics.http2Responses.increment();
+                    }
+                    if (KsmHttpStatusException.isRetryable(response.statusCode())) {
+                        throw new KsmHttpStatusException(response.statusCode(),
+                                new String(response.body(), StandardCharsets.UTF_8));
+                    }
+                    return new KeeperHttpResponse(response.statusCode(), response.body());
+                });
+        // Cancelling the result cancels the request, so it doesn't hold a connection for a response no one reads.
+        result.whenComplete((response, error) -> {
+            if (result.isCancelled()) {
+                sent.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Wait for a response from sendAsync, and throw its failure the same way invoke() does.
+     * @param future The future from sendAsync
+     * @return The response
+     */
+    static KeeperHttpResponse await(CompletableFuture<KeeperHttpResponse> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("The request was interrupted."));
+        } catch (ExecutionException e) {
+            throw unchecked(e.getCause());
+        }
+    }
+
+    static RuntimeException unchecked(Throwable cause) {
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof IOException) {
+            return new UncheckedIOException(cause.getMessage(), (IOException) cause);
+        }
+        return new UncheckedIOException(new IOException(cause.getMessage(), cause));
+    }
+
+    /**
+     * Build the request for an SDK call. Exposed so the classes it needs can be loaded ahead of the first request.
+     * @param uri The full URL of the request
+     * @param transmissionKey The transmission key from the SDK
+     * @param payload The encrypted payload from the SDK
+     * @return HttpRequest
+     */
+    public static HttpRequest buildRequest(URI uri, TransmissionKey transmissionKey, EncryptedPayload payload) {
+        // Same headers as the SDK. HttpsURLConnection adds the Content-Type when posting, so add it here too.
+        return HttpRequest.newBuilder(uri)
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .header("PublicKeyId", String.valueOf(transmissionKey.getPublicKeyId()))
+                .header("TransmissionKey", CryptoUtils.bytesToBase64(transmissionKey.getEncryptedKey()))
+                .header("Authorization", "Signature" + CryptoUtils.bytesToBase64(payload.getSignature()))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(payload.getPayload()))
+                .build();
+    }
+
+    private HostClient getHostClient(String host) {
+        String key = host + (skipSslVerification ? "|unverified" : "|verified");
+        return clients.computeIfAbsent(key, k -> {
+            logger.log(Level.FINE, "Creating HTTP client for " + host + "; Skip SSL = " + skipSslVerification);
+            return new HostClient(host, skipSslVerification, buildClient(skipSslVerification));
+        });
+    }
+
+    /**
+     * Build an HttpClient. Exposed so the client can be built ahead of the first request.
+     * @param skipSslVerification Trust any server certificate
+     * @return HttpClient
+     */
+    public static HttpClient buildClient(boolean skipSslVerification) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .followRedirects(HttpClient.Redirect.NEVER);
+        if (skipSslVerification) {
+            builder.sslContext(trustAllContext());
+        }
+        return builder.build();
+    }
+
+    private static SSLContext trustAllContext() {
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, new TrustManager[]{new TrustAllManager()}, new SecureRandom());
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot create the SSL context: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Get the metrics for each host client.
+     * @return List of metrics, sorted by host.
+     */
+    public static List<HostMetrics> getMetrics() {
+        List<HostMetrics> metrics = new ArrayList<>();
+        for (HostClient hostClient : clients.values()) {
+            metrics.add(hostClient.metrics);
+        }
+        metrics.sort(Comparator.comparing(HostMetrics::getHost));
+        return metrics;
+    }
+
+    private static final class HostClient {
+
+        private final HttpClient client;
+        private final HostMetrics metrics;
+
+        HostClient(String host, boolean skipSslVerification, HttpClient client) {
+            this.client = client;
+            this.metrics = new HostMetrics(host, skipSslVerification);
+        }
+    }
+
+    public static final class HostMetrics {
+
+        private final String host;
+        private final boolean skipSslVerification;
+        private final long createdAt = System.currentTimeMillis();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder http2Responses = new LongAdder();
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        HostMetrics(String host, boolean skipSslVerification) {
+            this.host = host;
+            this.skipSslVerification = skipSslVerification;
+        }
+
+        public String getHost() {
+            return host;
+        }
+        public boolean getSkipSslVerification() {
+            return skipSslVerification;
+        }
+        public long getCreatedAt() {
+            return createdAt;
+        }
+        public long getRequests() {
+            return requests.sum();
+        }
+        public long getFailures() {
+            return failures.sum();
+        }
+        public long getHttp2Responses() {
+            return http2Responses.sum();
+        }
+        public int getInFlight() {
+            return inFlight.get();
+        }
+    }
+
+    // Same as the SDK when skipping SSL verification; trust any certificate and do not check the hostname.
+    private static final class TrustAllManager extends X509ExtendedTrustManager {
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) {
+        }
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) {
+        }
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) {
+        }
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) {
+        }
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) {
+        }
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) {
+        }
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package io.jenkins.plugins.ksm.http;
+
+import jenkins.util.SystemProperties;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Retry calls to the Keeper Secrets Manager server when they fail for a transient reason; a network error, a 5xx
+ * or a 429. The wait between attempts is exponential with full jitter, so builds that failed at the same time do
+ * not retry at the same time. Every call goes through the circuit breaker, and concurrency limiter, for the host.
+ */
+public class KsmRetryPolicy {
+
+    private static final Logger logger = Logger.getLogger(KsmRetryPolicy.class.getName());
+
+    private static final int MAX_ATTEMPTS = SystemProperties.getInteger(
+            KsmRetryPolicy.class.getName() + ".maxAttempts", 3);
+    private static final long BASE_DELAY_MILLIS = SystemProperties.getLong(
+            KsmRetryPolicy.class.getName() + ".baseDelayMillis", 250L);
+    private static final long MAX_DELAY_MILLIS = SystemProperties.getLong(
+            KsmRetryPolicy.class.getName() + ".maxDelayMillis", 5000L);
+
+    private KsmRetryPolicy() {
+    }
+
+    /**
+     * Make a call to the server, retrying transient failures.
+     * @param host The hostname of the server, used to pick the circuit breaker
+     * @param call The call
+     * @param <T> The return type of the call
+     * @return The result of the call
+     * @throws Exception The last failure, or KsmCircuitOpenException if the breaker is open.
+     */
+    public static <T> T call(String host, Callable<T> call) throws Exception {
+        return call(host, MAX_ATTEMPTS, true, call);
+    }
+
+    /**
+     * Make a call to the server that takes longer the more it gets, like fetching every record or downloading a
+     * file. It's retried the same way, but how long it takes isn't used by the concurrency limiter to tell if the
+     * server is overloaded; a big vault would look like an overloaded server. Only its failures are.
+     * @param host The hostname of the server, used to pick the circuit breaker
+     * @param call The call
+     * @param <T> The return type of the call
+     * @return The result of the call
+     * @throws Exception The last failure, or KsmCircuitOpenException if the breaker is open.
+     */
+    public static <T> T callUntimed(String host, Callable<T> call) throws Exception {
+        return call(host, MAX_ATTEMPTS, false, call);
+    }
+
+    /**
+     * Make a call to the server that must not be repeated, like redeeming a one-time access token. It goes through
+     * the circuit breaker and concurrency limiter, but a failure is not retried. If the server handled the first
+     * attempt, and only the response was lost, a second attempt would fail for a different reason. Redeeming a token
+     * fetches every record, so, like callUntimed, how long it takes isn't used by the concurrency limiter.
+     * @param host The hostname of the server, used to pick the circuit breaker
+     * @param call The call
+     * @param <T> The return type of the call
+     * @return The result of the call
+     * @throws Exception The failure, or KsmCircuitOpenException if the breaker is open.
+     */
+    public static <T> T callOnce(String host, Callable<T> call) throws Exception {
+        return call(host, 1, false, call);
+    }
+
+    private static <T> T call(String host, int maxAttempts, boolean timed, Callable<T> call) throws Exception {
+        KsmCircuitBreaker breaker = KsmCircuitBreaker.forHost(host);
+        KsmConcurrencyLimiter limiter = KsmConcurrencyLimiter.forHost(host);
+        for (int attempt = 1; ; attempt++) {
+            if (!breaker.allowRequest()) {
+                throw new KsmCircuitOpenException(breaker.getHost(), breaker.getRetryAt());
+            }
+            KsmConcurrencyLimiter.Permit permit;
+            try {
+                permit = limiter.acquire();
+            } catch (Exception e) {
+                // Never got to make the call. Give back the trial, if this was it.
+                breaker.cancelTrial();
+                throw e;
+            }
+            try {
+                T result = call.call();
+                release(permit, false, timed);
+                breaker.recordSuccess();
+                return result;
+            } catch (Exception e) {
+                release(permit, isTransient(e), timed);
+                if (!isTransient(e)) {
+                    // The server answered; it's up, the request was just wrong.
+                    breaker.recordSuccess();
+                    throw e;
+                }
+                breaker.recordFailure(e.getMessage());
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+                long delay = backoff(attempt);
+                logger.log(Level.FINE, "Call to " + host + " failed, attempt " + attempt + " of " + maxAttempts
+                        + ". Retrying in " + delay + "ms: " + e.getMessage());
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    private static void release(KsmConcurrencyLimiter.Permit permit, boolean overloaded, boolean timed) {
+        if (timed) {
+            permit.release(overloaded);
+        } else {
+            permit.releaseUntimed(overloaded);
+        }
+    }
+
+    /**
+     * Check if a failure is transient, and the call is worth retrying.
+     * @param e The failure
+     * @return true if transient
+     */
+    public static boolean isTransient(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof KsmCircuitOpenException) {
+                return true;
+            }
+            if (cause instanceof KsmHttpStatusException) {
+                return KsmHttpStatusException.isRetryable(((KsmHttpStatusException) cause).getStatusCode());
+            }
+            if (cause instanceof InterruptedIOException && Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Full jitter; a random wait between 0 and the exponential delay.
+    static long backoff(int attempt) {
+        long delay = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(delay + 1);
+    }
+}
@@ -0,0 +1,133 @@
+package io.jenkins.plugins.ksm.notation;
+
+import org.json.JSONObject;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Formats the fields of a bulk notation, field/* or field/{login,password}, as environmental variables or a file.
+ */
+public final class KsmBulkExport {
+
+    private KsmBulkExport() {
+    }
+
+    /**
+     * The environmental variable a field is stored in. The name is upper case, and any character that can't be in an
+     * environmental variable name is replaced with an '_'. For example, with the prefix DB_, the label
+     * "Lock Box Location" is DB_LOCK_BOX_LOCATION.
+     * @param prefix The env var of the secret
+     * @param fieldName The field label, or type
+     * @return The name of the environmental variable
+     */
+    public static String envVarName(String prefix, String fieldName) {
+        StringBuilder name = new StringBuilder(prefix == null ? "" : prefix);
+        for (char c : fieldName.toUpperCase(Locale.ROOT).toCharArray()) {
+            name.append((c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' ? c : '_');
+        }
+        return name.toString();
+    }
+
+    /**
+     * Make sure no two fields would be stored in the same environmental variable.
+     * @param prefix The env var of the secret
+     * @param fieldNames The field labels, or types
+     * @throws Exception Two fields have the same environmental variable name.
+     */
+    public static void checkEnvVarNames(String prefix, Collection<String> fieldNames) throws Exception {
+        Map<String, String> names = new HashMap<>();
+        for (String fieldName : fieldNames) {
+            String envVar = envVarName(prefix, fieldName);
+            String other = names.putIfAbsent(envVar, fieldName);
+            if (other != null) {
+                throw new Exception("The fields '" + other + "' and '" + fieldName + "' would both be stored in the "
+                        + "environmental variable " + envVar + ". List the fields to use instead of using *.");
+            }
+        }
+    }
+
+    /**
+     * The content of the file for the fields. A file path ending with .json gets a JSON object, anything else gets
+     * a dotenv file with one NAME=value line for each field.
+     * @param filePath The file path of the secret
+     * @param fields The field values, by label or type
+     * @return The content of the file
+     * @throws Exception Two fields have the same name in the dotenv file.
+     */
+    public static String render(String filePath, Map<String, String> fields) throws Exception {
+        if (filePath != null && filePath.toLowerCase(Locale.ROOT).endsWith(".json")) {
+            return toJson(fields);
+        }
+        checkEnvVarNames(null, fields.keySet());
+        return toDotenv(fields);
+    }
+
+    // The fields are kept in the same order as the record.
+    static String toJson(Map<String, String> fields) {
+        StringBuilder json = new StringBuilder("{");
+        String separator = "\n";
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            json.append(separator).append("  ").append(JSONObject.quote(field.getKey())).append(": ")
+                    .append(JSONObject.quote(field.getValue()));
+            separator = ",\n";
+        }
+        return json.append(fields.isEmpty() ? "}\n" : "\n}\n").toString();
+    }
+
+    static String toDotenv(Map<String, String> fields) {
+        StringBuilder dotenv = new StringBuilder();
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            dotenv.append(envVarName(null, field.getKey())).append('=').append(dotenvValue(field.getValue()))
+                    .append('\n');
+        }
+        return dotenv.toString();
+    }
+
+    // Simple values are left alone. Single quotes keep everything else as is, unless the value has a single quote
+    // or a line break, then it's double quoted and escaped.
+    private static String dotenvValue(String value) {
+        boolean simple = true;
+        boolean singleQuotes = true;
+        for (char c : value.toCharArray()) {
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || "_-.,:/@+".indexOf(c) >= 0)) {
+                simple = false;
+            }
+            if (c == '\'' || c == '\n' || c == '\r') {
+                singleQuotes = false;
+            }
+        }
+        if (simple) {
+            return value;
+        }
+        if (singleQuotes) {
+            return "'" + value + "'";
+        }
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '$':
+                    quoted.append("\\$");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                default:
+                    quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
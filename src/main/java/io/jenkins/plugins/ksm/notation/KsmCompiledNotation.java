@@ -0,0 +1,398 @@
+package io.jenkins.plugins.ksm.notation;
+
+import jenkins.util.SystemProperties;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A parsed keeper notation. It's immutable, so the same instance is shared by every build that uses the same
+ * notation string, and the notation is only parsed the first time it's seen.
+ */
+public final class KsmCompiledNotation {
+
+    // How many notations to remember. The least recently used notation is dropped first.
+    private static final int MAX_CACHED = SystemProperties.getInteger(
+            KsmCompiledNotation.class.getName() + ".maxCached", 2000);
+
+    private static final Map<String, KsmCompiledNotation> cache =
+            new LinkedHashMap<String, KsmCompiledNotation>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, KsmCompiledNotation> eldest) {
+                    return size() > MAX_CACHED;
+                }
+            };
+
+    private final String notation;
+    private final String uid;
+    private final Long revision;
+    private final KsmFieldDataEnumType fieldDataType;
+    private final String fieldKey;
+    private final boolean returnSingle;
+    private final int arrayIndex;
+    private final String dictKey;
+    private final boolean bulk;
+    private final List<String> fieldKeys;
+
+    private KsmCompiledNotation(String notation, String uid, Long revision, KsmFieldDataEnumType fieldDataType,
+                                String fieldKey, boolean returnSingle, int arrayIndex, String dictKey, boolean bulk,
+                                List<String> fieldKeys) {
+        this.notation = notation;
+        this.uid = uid;
+        this.revision = revision;
+        this.fieldDataType = fieldDataType;
+        this.fieldKey = fieldKey;
+        this.returnSingle = returnSingle;
+        this.arrayIndex = arrayIndex;
+        this.dictKey = dictKey;
+        this.bulk = bulk;
+        this.fieldKeys = fieldKeys;
+    }
+
+    /**
+     * Get the compiled form of a notation, parsing it if it has not been seen before.
+     * @param notation The keeper notation, with or without the keeper:// prefix
+     * @return KsmCompiledNotation
+     * @throws Exception The notation is not valid. Invalid notations are not cached.
+     */
+    public static KsmCompiledNotation compile(String notation) throws Exception {
+        KsmCompiledNotation compiled;
+        synchronized (cache) {
+            compiled = cache.get(notation);
+        }
+        if (compiled == null) {
+            compiled = parse(notation);
+            synchronized (cache) {
+                cache.put(notation, compiled);
+            }
+        }
+        return compiled;
+    }
+
+    static void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    // The notation that is passed to the SDK. No prefix and no revision.
+    public String getNotation() {
+        return notation;
+    }
+    public String getUid() {
+        return uid;
+    }
+    public Long getRevision() {
+        return revision;
+    }
+    public KsmFieldDataEnumType getFieldDataType() {
+        return fieldDataType;
+    }
+    public String getFieldKey() {
+        return fieldKey;
+    }
+    public boolean getReturnSingle() {
+        return returnSingle;
+    }
+    public int getArrayIndex() {
+        return arrayIndex;
+    }
+    public String getDictKey() {
+        return dictKey;
+    }
+    // The notation is field/* or field/{login,password}, more than one field.
+    public boolean isBulk() {
+        return bulk;
+    }
+    // The fields listed by a bulk notation, or null for every field.
+    public List<String> getFieldKeys() {
+        return fieldKeys;
+    }
+
+    /**
+     * Parse a notation in one pass over the string.
+     *
+     * This has to accept, and reject with the same messages, exactly what the original split() and regex based
+     * parser did. Some of the odd cases below, like a trailing '/' being ignored, are because of how split() drops
+     * trailing empty strings.
+     */
+    private static KsmCompiledNotation parse(String notation) throws Exception {
+
+        // Why use this instead of the SDK? Because this is more user-friendly. However, this causes a problem
+        // if the SDK changes this might not match.
+
+        // If the notation starts with the notation prefix, normally used with env vars, remove it. The notation is
+        // what is between the first and second "//".
+        if (notation.startsWith(KsmNotation.notationPrefix)) {
+            int start = notation.indexOf("//");
+            if (start < 0 || onlyDoubleSlashes(notation, start + 2)) {
+                throw new Exception("Notation is missing information about the uid, field data type, and field key.");
+            }
+            start += 2;
+            int end = notation.indexOf("//", start);
+            notation = end < 0 ? notation.substring(start) : notation.substring(start, end);
+        }
+
+        // Find the '/' between the uid and the field type, and the field type and key. Trailing '/' are ignored.
+        int length = notation.length();
+        while (length > 0 && notation.charAt(length - 1) == '/') {
+            length--;
+        }
+        int firstSlash = -1;
+        int secondSlash = -1;
+        int slashCount = 0;
+        for (int index = 0; index < length; index++) {
+            if (notation.charAt(index) == '/') {
+                slashCount++;
+                if (firstSlash < 0) {
+                    firstSlash = index;
+                } else if (secondSlash < 0) {
+                    secondSlash = index;
+                }
+            }
+        }
+        if (length == 0 || slashCount < 2) {
+            throw new Exception("Notation format appears to be missing values. There should be 3 values separated by a '/' character.");
+        }
+        if (slashCount > 2) {
+            String msg = "Notation format appears to contain too many values. There should be 3 values separated by a '/' character.";
+
+            // There could be a change the keeper:// is misspelled.
+            if (notation.startsWith(KsmNotation.notationPrefix.substring(0,1))) {
+                msg += "  The keeper:// prefix might be misspelled.";
+            }
+            throw new Exception(msg);
+        }
+
+        String uid = notation.substring(0, firstSlash);
+        if (uid.isEmpty()) {
+            throw new Exception("The record uid or title is missing.");
+        }
+
+        // A UID can be pinned to a revision, UID@revision. The SDK doesn't know about the revision, so it's
+        // removed from the notation. A title with an '@' in it is left alone.
+        Long revision = null;
+        int at = uid.lastIndexOf('@');
+        if (at > 0 && isRevision(uid, at + 1) && KsmNotation.looksLikeUid(uid.substring(0, at))) {
+            revision = Long.parseLong(uid.substring(at + 1));
+            notation = notation.substring(0, at) + notation.substring(firstSlash);
+            firstSlash = at;
+            secondSlash -= uid.length() - at;
+            length -= uid.length() - at;
+            uid = uid.substring(0, at);
+        }
+
+        String fieldType = notation.substring(firstSlash + 1, secondSlash);
+        KsmFieldDataEnumType fieldDataType = KsmFieldDataEnumType.getEnumByString(fieldType);
+        if (fieldDataType == null) {
+            throw new Exception("The field type can only be field, custom_field, or file. The field type of " + fieldType + " is invalid.");
+        }
+        String fieldKey = notation.substring(secondSlash + 1, length);
+
+        boolean returnSingle = true;
+        int index = 0;
+        String dictKey = null;
+
+        // Like the regex \[.*$ the predicate starts at the first '[' that isn't followed by a line break.
+        int predicateEnd = fieldKey.length() - trailingLineTerminatorLength(fieldKey);
+        int predicateStart = -1;
+        for (int position = predicateEnd - 1; position >= 0 && !isLineTerminator(fieldKey.charAt(position)); position--) {
+            if (fieldKey.charAt(position) == '[') {
+                predicateStart = position;
+            }
+        }
+        if (predicateStart >= 0) {
+            List<String> predicateParts = splitOnCloseBracket(fieldKey.substring(predicateStart, predicateEnd));
+
+            if (predicateParts.size() > 2 ) {
+                throw new Exception("The predicate of the notation appears to be invalid. Too many [], max 2 allowed.");
+            }
+
+            // This will remove the preceding '[' character.
+            String firstPredicate = predicateParts.get(0).substring(1);
+
+            // If there was a value, then we need to find out if it's index is an array or a dictionary key
+            if (!firstPredicate.isEmpty()) {
+                Integer firstIndex = parseInteger(firstPredicate);
+                if (firstIndex != null) {
+                    index = firstIndex;
+                } else if (isDictKey(firstPredicate)) {
+                    dictKey = firstPredicate;
+                }
+            }
+            // Indicate that we wanted the entire array, not just a single value.
+            else {
+                returnSingle = false;
+            }
+
+            // Is there a second predicate [first][second]
+            if (predicateParts.size() == 2) {
+                if (!returnSingle) {
+                    throw new Exception("If the second [] is a dictionary key, the first [] needs to have any index.");
+                }
+                // This will remove the preceding '[' character.
+                String secondPredicate = predicateParts.get(1).substring(1);
+                if (parseInteger(secondPredicate) != null) {
+                    throw new Exception("If the second [] is a dictionary key, the first [] needs to have any index.");
+                }
+                if (isDictKey(secondPredicate)) {
+                    dictKey = secondPredicate;
+                }
+                else {
+                    throw new Exception("The second [] must have key for the dictionary. Cannot be blank.");
+                }
+            }
+
+            // A key made up of only '[' has no name.
+            if (onlyChar(fieldKey, '[')) {
+                throw new Exception("The notation field key is missing before the '['.");
+            }
+
+            // Remove the predicate from the key. We know one exists, else we wouldn't be in this conditional block.
+            fieldKey = fieldKey.substring(0, fieldKey.indexOf('['));
+        }
+
+        // A '*', or a list of fields in {}, gets more than one field from the record.
+        boolean bulk = false;
+        List<String> fieldKeys = null;
+        if (fieldKey.equals("*") || (fieldKey.length() > 1 && fieldKey.startsWith("{") && fieldKey.endsWith("}"))) {
+            if (predicateStart >= 0) {
+                throw new Exception("A [] cannot be used with * or a list of fields.");
+            }
+            if (fieldDataType == KsmFieldDataEnumType.FILE) {
+                throw new Exception("Only field and custom_field can be used with * or a list of fields.");
+            }
+            bulk = true;
+            if (!fieldKey.equals("*")) {
+                fieldKeys = new ArrayList<>();
+                for (String key : fieldKey.substring(1, fieldKey.length() - 1).split(",", -1)) {
+                    if (key.trim().isEmpty()) {
+                        throw new Exception("The list of fields " + fieldKey + " has a blank field.");
+                    }
+                    fieldKeys.add(key.trim());
+                }
+                fieldKeys = Collections.unmodifiableList(fieldKeys);
+            }
+        }
+
+        return new KsmCompiledNotation(notation, uid, revision, fieldDataType, fieldKey, returnSingle, index,
+                dictKey, bulk, fieldKeys);
+    }
+
+    private static boolean onlyDoubleSlashes(String text, int start) {
+        int remaining = text.length() - start;
+        return remaining % 2 == 0 && onlyChar(text.substring(start), '/');
+    }
+
+    private static boolean onlyChar(String text, char c) {
+        for (int index = 0; index < text.length(); index++) {
+            if (text.charAt(index) != c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isRevision(String text, int start) {
+        int digits = text.length() - start;
+        if (digits < 1 || digits > 18) {
+            return false;
+        }
+        for (int index = start; index < text.length(); index++) {
+            char c = text.charAt(index);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The parts of the predicate separated by ']'. Trailing empty parts are dropped.
+    private static List<String> splitOnCloseBracket(String text) {
+        List<String> parts = new ArrayList<>(2);
+        int partStart = 0;
+        for (int index = 0; index <= text.length(); index++) {
+            if (index == text.length() || text.charAt(index) == ']') {
+                parts.add(text.substring(partStart, index));
+                partStart = index + 1;
+            }
+        }
+        while (!parts.isEmpty() && parts.get(parts.size() - 1).isEmpty()) {
+            parts.remove(parts.size() - 1);
+        }
+        return parts;
+    }
+
+    /**
+     * The same as Integer.parseInt, without the exception.
+     * @param text The text
+     * @return The number, or null if the text is not a base 10 int.
+     */
+    static Integer parseInteger(String text) {
+        int length = text.length();
+        if (length == 0) {
+            return null;
+        }
+        int index = 0;
+        boolean negative = false;
+        char first = text.charAt(0);
+        if (first < '0') {
+            if (first == '-') {
+                negative = true;
+            } else if (first != '+') {
+                return null;
+            }
+            if (length == 1) {
+                return null;
+            }
+            index++;
+        }
+        long limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+        long result = 0;
+        for (; index < length; index++) {
+            int digit = Character.digit(text.charAt(index), 10);
+            if (digit < 0) {
+                return null;
+            }
+            result = result * 10 + digit;
+            if (result > limit) {
+                return null;
+            }
+        }
+        return (int) (negative ? -result : result);
+    }
+
+    /**
+     * The same as finding ^[a-zA-Z0-9_]+$ in the text. Like the regex, a single line terminator at the end is
+     * allowed.
+     * @param text The text
+     * @return true if the text can be a dictionary key
+     */
+    static boolean isDictKey(String text) {
+        int length = text.length() - trailingLineTerminatorLength(text);
+        if (length == 0) {
+            return false;
+        }
+        for (int index = 0; index < length; index++) {
+            char c = text.charAt(index);
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int trailingLineTerminatorLength(String text) {
+        if (text.endsWith("\r\n")) {
+            return 2;
+        }
+        return !text.isEmpty() && isLineTerminator(text.charAt(text.length() - 1)) ? 1 : 0;
+    }
+
+    // The characters the regex '.' doesn't match and '$' can match before.
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
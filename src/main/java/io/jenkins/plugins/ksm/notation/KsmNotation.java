@@ -2,14 +2,19 @@ package io.jenkins.plugins.ksm.notation;
 
 import static com.keepersecurity.secretsManager.core.SecretsManager.downloadFile;
 import com.keepersecurity.secretsManager.core.*;
-import hudson.util.Secret;
 import io.jenkins.plugins.ksm.KsmQuery;
 import io.jenkins.plugins.ksm.KsmSecret;
+import io.jenkins.plugins.ksm.cache.KsmRecordCache;
 import io.jenkins.plugins.ksm.credential.KsmCredential;
+import io.jenkins.plugins.ksm.credential.KsmCredentialHealth;
+import io.jenkins.plugins.ksm.http.KsmBulkhead;
+import io.jenkins.plugins.ksm.http.KsmRetryPolicy;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.SystemProperties;
+import java.net.URI;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.lang.SuppressWarnings;
+import java.util.concurrent.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -20,15 +25,41 @@ public class KsmNotation {
 
     // Keeper record UIDs are 22-character URL-safe base64 strings. The SDK
     // additionally accepts a record title in place of a UID; when the token
-    // does not match this pattern we treat it as a title (#43).
-    private static final Pattern UID_PATTERN = Pattern.compile("^[A-Za-z0-9_-]{22}$");
+    // does not look like a UID we treat it as a title (#43).
+    private static final int UID_LENGTH = 22;
 
     public static boolean looksLikeUid(String token) {
-        return token != null && UID_PATTERN.matcher(token).matches();
+        if (token == null || token.length() != UID_LENGTH) {
+            return false;
+        }
+        for (int index = 0; index < UID_LENGTH; index++) {
+            char c = token.charAt(index);
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-')) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private static final Logger logger = Logger.getLogger(KsmNotation.class.getName());
 
+    // Requests for more UIDs than this are split into shards that are fetched in parallel.
+    private static final int SHARD_SIZE = SystemProperties.getInteger(
+            KsmNotation.class.getName() + ".shardSize", 50);
+    private static final int SHARD_THREADS = SystemProperties.getInteger(
+            KsmNotation.class.getName() + ".shardThreads", 4);
+
+    // If every thread is busy and the queue is full, the build thread fetches the shard itself.
+    private static final ThreadPoolExecutor shardExecutor = new ThreadPoolExecutor(
+            SHARD_THREADS, SHARD_THREADS, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(SHARD_THREADS * 16),
+            new NamingThreadFactory(new DaemonThreadFactory(), "KsmShardFetch"),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+    static {
+        shardExecutor.allowCoreThreadTimeOut(true);
+    }
+
     /**
      * Check in envVar is a keeper notation and then attempt to parse it.
      * @param envVar The name of the environmental variable
@@ -60,7 +91,7 @@ public class KsmNotation {
                 item.getDestination(),
                 item.getEnvVar(),
                 item.getFilePath(),
-                item.getNotation(),
+                item.getCompiledNotation(),
                 allowFailure
         );
     }
@@ -89,143 +120,355 @@ public class KsmNotation {
      * @throws Exception The parse failed for this reason.
      */
 
-    @SuppressWarnings("unused")
     public static KsmNotationItem parse(String destination, String envVar, String filePath, String notation, boolean allowFailure) throws Exception {
 
-        // Why use this instead of the SDK? Because this is more user-friendly. However, this causes a problem
-        // if the SDK changes this might not match.
+        // The same notation is used by build after build, so it's only parsed the first time.
+        return KsmNotation.parse(destination, envVar, filePath, KsmCompiledNotation.compile(notation), allowFailure);
+    }
 
-        // If the notation starts with the notation prefix, normally used with env vars, remove it.
-        if (notation.startsWith(notationPrefix)) {
-            String[] notationParts = notation.split("//");
-            if ( notationParts.length < 2 ) {
-                throw new Exception("Notation is missing information about the uid, field data type, and field key.");
-            }
-            notation = notationParts[1];
-        }
+    /**
+     * Create a notation item from a notation that has already been parsed.
+     * @param destination Flag indicating in the destination is an environmental var or  file path.
+     * @param envVar The name of the environmental variable
+     * @param filePath Path to where the secret should be stored on disk.
+     * @param compiled The parsed keeper notation
+     * @param allowFailure Allow failure, don't throw exception, but log the error.
+     * @return KsmNotationItem
+     */
+
+    public static KsmNotationItem parse(String destination, String envVar, String filePath,
+                                        KsmCompiledNotation compiled, boolean allowFailure) {
+
+        KsmNotationItem item = new KsmNotationItem(
+                destination,
+                envVar,
+                filePath,
+                compiled.getNotation(),
+                compiled.getUid(),
+                compiled.getFieldDataType(),
+                compiled.getFieldKey(),
+                compiled.getReturnSingle(),
+                compiled.getArrayIndex(),
+                compiled.getDictKey(),
+                allowFailure);
+        item.setRevision(compiled.getRevision());
+        item.setBulk(compiled.isBulk());
+        item.setFieldKeys(compiled.getFieldKeys());
+        return item;
+    }
+
+    public KeeperSecrets getNotationSecrets(SecretsManagerOptions options, List<String> uids) {
+        return SecretsManager.getSecrets(options, uids);
+    }
+
+    public KeeperSecrets getNotationSecrets(SecretsManagerOptions options) {
+        return SecretsManager.getSecrets(options);
+    }
+
+    public byte[] downloadDataFile(KeeperFile file) {
+        return downloadFile(file);
+    }
 
-        String[] notationParts = notation.split("/");
-        if ( notationParts.length < 3 ) {
-            throw new Exception("Notation format appears to be missing values. There should be 3 values separated by a '/' character.");
+    /**
+     * The cache used for records and file attachments. Tests override this to get an isolated cache.
+     * @return KsmRecordCache
+     */
+    protected KsmRecordCache getRecordCache() {
+        return KsmRecordCache.get();
+    }
+
+    /**
+     * Get records by UID, using the cache for any record that has already been fetched for this credential. Only
+     * the missing records are requested from the vault.
+     * If the server cannot be reached, records that have expired, but are not too old, are used instead.
+     * @param cacheKey The cache key of the KSM credential
+     * @param hostname The hostname of the server
+     * @param options The options to use if records need to be fetched
+     * @param uids The record UIDs
+     * @return KeeperSecrets containing all requested records
+     * @throws Exception The vault did not return all the requested records.
+     */
+    protected KeeperSecrets getSecretsByUid(String cacheKey, String hostname, SecretsManagerOptions options,
+                                            Set<String> uids) throws Exception {
+
+        KsmRecordCache cache = getRecordCache();
+        List<KeeperRecord> records = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        for (String uid : uids) {
+            KeeperRecord record = cache.getRecord(cacheKey, uid);
+            if (record != null) {
+                records.add(record);
+            } else {
+                missing.add(uid);
+            }
         }
-        if ( notationParts.length > 3 ) {
-            String msg = "Notation format appears to contain too many values. There should be 3 values separated by a '/' character.";
 
-            // There could be a change the keeper:// is misspelled.
-            if (notation.startsWith(notationPrefix.substring(0,1))) {
-                msg += "  The keeper:// prefix might be misspelled.";
+        AppData appData = new AppData("", "");
+        if (!missing.isEmpty()) {
+            logger.log(Level.FINE, "Retrieving " + missing.size() + " record(s) by UID, " + records.size() +
+                    " record(s) from the cache.");
+            try {
+                KeeperSecrets fetched = fetchByUid(hostname, options, missing);
+                logger.log(Level.FINE, "Got " + fetched.getRecords().size() + " record(s).");
+                appData = fetched.getAppData();
+                for (KeeperRecord record : fetched.getRecords()) {
+                    cache.putRecord(cacheKey, record);
+                    records.add(record);
+                }
+            } catch (Exception e) {
+                if (!KsmRetryPolicy.isTransient(e)) {
+                    throw e;
+                }
+                // The server is down. If every missing record is in the cache, even expired, use them.
+                List<KeeperRecord> stale = new ArrayList<>();
+                for (String uid : missing) {
+                    KeeperRecord record = cache.getStaleRecord(cacheKey, uid);
+                    if (record == null) {
+                        throw e;
+                    }
+                    stale.add(record);
+                }
+                logger.log(Level.WARNING, "Could not retrieve record(s) from " + hostname + ", using "
+                        + stale.size() + " expired record(s) from the cache: " + e.getMessage());
+                records.addAll(stale);
             }
-            throw new Exception(msg);
+        } else {
+            logger.log(Level.FINE, "All " + records.size() + " record(s) retrieved from the cache.");
         }
-        String uid = notationParts[0];
-        if (uid.isEmpty()) {
-            throw new Exception("The record uid or title is missing.");
+
+        if (uids.size() != records.size()) {
+            logger.log(
+                    Level.WARNING,
+                    "Did not receive the same number of record(s) as requested. " +
+                            "Some of the record uid(s) may not exist in application."
+            );
+            throw new Exception("Requested " + uids.size() + " record(s), received " +
+                    records.size() + " records(s). This happens when a record does not exists in the " +
+                    "application, the record uid is wrong, or the record type is General. Make sure all the record " +
+                    "uids exist in your application and the records are not General type.");
         }
 
-        KsmFieldDataEnumType fieldDataType = KsmFieldDataEnumType.getEnumByString(notationParts[1]);
-        if (fieldDataType == null) {
-            throw new Exception("The field type can only be field, custom_field, or file. The field type of " + notationParts[1] + " is invalid.");
+        return new KeeperSecrets(appData, records, null, null);
+    }
+
+    protected int getShardSize() {
+        return SHARD_SIZE;
+    }
+
+    /**
+     * Fetch records by UID. A large number of UIDs is split into shards which are fetched, and decrypted, in
+     * parallel and then merged.
+     * @param hostname The hostname of the server
+     * @param options The options
+     * @param uids The record UIDs
+     * @return KeeperSecrets with the records from all shards
+     * @throws Exception A shard could not be fetched.
+     */
+    protected KeeperSecrets fetchByUid(String hostname, SecretsManagerOptions options, List<String> uids)
+            throws Exception {
+
+        int shardSize = Math.max(1, getShardSize());
+        if (uids.size() <= shardSize) {
+            return KsmRetryPolicy.call(hostname, () -> this.getNotationSecrets(options, uids));
         }
-        String fieldKey = notationParts[2];
 
-        Boolean returnSingle = Boolean.TRUE;
-        int index = 0;
-        String dictKey = null;
+        List<Future<KeeperSecrets>> futures = new ArrayList<>();
+        for (int index = 0; index < uids.size(); index += shardSize) {
+            List<String> shard = new ArrayList<>(uids.subList(index, Math.min(index + shardSize, uids.size())));
+            futures.add(shardExecutor.submit(
+                    () -> KsmRetryPolicy.call(hostname, () -> this.getNotationSecrets(options, shard))));
+        }
+        logger.log(Level.FINE, "Retrieving " + uids.size() + " record(s) in " + futures.size() + " shard(s).");
+
+        AppData appData = null;
+        List<KeeperRecord> records = new ArrayList<>();
+        try {
+            for (Future<KeeperSecrets> future : futures) {
+                KeeperSecrets shardSecrets = future.get();
+                if (appData == null) {
+                    appData = shardSecrets.getAppData();
+                }
+                records.addAll(shardSecrets.getRecords());
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        } finally {
+            for (Future<KeeperSecrets> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return new KeeperSecrets(appData, records, null, null);
+    }
 
-        Pattern predicatePattern = Pattern.compile("\\[.*$");
-        Matcher predicateMatcher = predicatePattern.matcher(fieldKey);
-        if (predicateMatcher.find()) {
-            String match = predicateMatcher.group(0);
-            String[] predicateParts = match.split("]");
+    /**
+     * Download a file attachment, or get it from the cache if it was recently downloaded.
+     * @param cacheKey The cache key of the KSM credential
+     * @param hostname The hostname of the server, used if the file URL has no host
+     * @param file The file to download
+     * @return The file content
+     * @throws Exception The download failed.
+     */
+    protected byte[] getCachedFile(String cacheKey, String hostname, KeeperFile file) throws Exception {
+        KsmRecordCache cache = getRecordCache();
+        byte[] fileBytes = cache.getFile(cacheKey, file.getFileUid());
+        if (fileBytes == null) {
+            // Files are not downloaded from the Secrets Manager server; limit and retry by the file's host.
+            String fileHost = Objects.toString(URI.create(file.getUrl()).getHost(), hostname);
+            fileBytes = KsmRetryPolicy.callUntimed(fileHost, () -> downloadDataFile(file));
+            cache.putFile(cacheKey, file.getFileUid(), fileBytes);
+        }
+        return fileBytes;
+    }
 
-            if (predicateParts.length > 2 ) {
-                throw new Exception("The predicate of the notation appears to be invalid. Too many [], max 2 allowed.");
+    /**
+     * Fetch any records that are not already in the cache. Used to warm the cache before a build starts.
+     * @param credential The KSM credential
+     * @param uids The record UIDs
+     * @return The number of records fetched from the vault.
+     * @throws Exception The records could not be fetched.
+     */
+    public int warm(KsmCredential credential, Collection<String> uids) throws Exception {
+        KsmRecordCache cache = getRecordCache();
+        List<String> missing = new ArrayList<>();
+        for (String uid : uids) {
+            if (looksLikeUid(uid) && !cache.hasRecord(credential.getCacheKey(), uid)) {
+                missing.add(uid);
             }
+        }
+        if (missing.isEmpty()) {
+            return 0;
+        }
 
-            // This will remove the preceding '[' character.
-            String firstPredicate = predicateParts[0].substring(1);
+        SecretsManagerOptions options = KsmQuery.getOptions(credential);
 
-            // If there was a value, then we need to find out if it's index is an array or a dictionary key
-            if ( !firstPredicate.equals("") ) {
+        KsmBulkhead bulkhead = credential.getBulkhead();
+        bulkhead.acquire();
+        try {
+            KeeperSecrets fetched = fetchByUid(credential.getHostname(), options, missing);
+            for (KeeperRecord record : fetched.getRecords()) {
+                cache.putRecord(credential.getCacheKey(), record);
+            }
+            return fetched.getRecords().size();
+        } finally {
+            bulkhead.release();
+        }
+    }
 
-                // Is the first predicate an index into an array?
-                try {
-                    index = Integer.parseInt(firstPredicate);
-                }
-                catch (NumberFormatException e) {
-                    // Is the first predicate a key to a dictionary?
-                    Pattern dictKeyPattern = Pattern.compile("^[a-zA-Z0-9_]+$");
-                    Matcher dictKeyMatcher = dictKeyPattern.matcher(firstPredicate);
-                    if(dictKeyMatcher.find()) {
-                        dictKey = firstPredicate;
-                    }
-                }
+    /**
+     * Get the records for notations pinned to a revision. A record at a pinned revision never changes, so it's
+     * served from the cache without asking the server. If the record has moved on to another revision the item is
+     * flagged with an error.
+     * @param credential The KSM credential
+     * @param options The options to use if records need to be fetched
+     * @param items The notation items
+     * @return The pinned records by UID@revision
+     * @throws Exception A record could not be fetched, or is not at the pinned revision, and failure is not allowed.
+     */
+    private Map<String, KeeperRecord> getPinnedRecords(KsmCredential credential, SecretsManagerOptions options,
+                                                       Map<String, KsmNotationItem> items) throws Exception {
+
+        KsmRecordCache cache = getRecordCache();
+        Map<String, KeeperRecord> pinnedRecords = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        for (KsmNotationItem item : items.values()) {
+            if (item.getError() != null || !item.isPinned()) {
+                continue;
             }
-            // Indicate that we wanted the entire array, not just a single value.
-            else {
-                returnSingle = Boolean.FALSE;
+            KeeperRecord record = cache.getPinnedRecord(credential.getCacheKey(), item.getUid(),
+                    item.getRevision());
+            if (record != null) {
+                pinnedRecords.put(pinnedKey(item), record);
+            } else {
+                missing.add(item.getUid());
             }
+        }
+        if (missing.isEmpty()) {
+            return pinnedRecords;
+        }
 
-            // Is there a second predicate [first][second]
-            if (predicateParts.length == 2) {
-                if (!returnSingle) {
-                    throw new Exception("If the second [] is a dictionary key, the first [] needs to have any index.");
-                }
-                // This will remove the preceding '[' character.
-                String secondPredicate = predicateParts[1].substring(1);
-                try {
-                    int ignored = Integer.parseInt(secondPredicate);
-                    throw new Exception("If the second [] is a dictionary key, the first [] needs to have any index.");
-                } catch (NumberFormatException ignored) {}
-                Pattern dictKeyPattern = Pattern.compile("^[a-zA-Z0-9_]+$");
-                Matcher dictKeyMatcher = dictKeyPattern.matcher(secondPredicate);
-                if(dictKeyMatcher.find()) {
-                    dictKey = secondPredicate;
-                }
-                else {
-                    throw new Exception("The second [] must have key for the dictionary. Cannot be blank.");
+        // Don't trust a cached record here. The pinned revision might be newer than what is in the cache.
+        Map<String, KeeperRecord> fetched = new HashMap<>();
+        for (KeeperRecord record : fetchByUid(credential.getHostname(), options, new ArrayList<>(missing))
+                .getRecords()) {
+            cache.putRecord(credential.getCacheKey(), record);
+            fetched.put(record.getRecordUid(), record);
+        }
+
+        for (KsmNotationItem item : items.values()) {
+            if (item.getError() != null || !item.isPinned() || pinnedRecords.containsKey(pinnedKey(item))) {
+                continue;
+            }
+            KeeperRecord record = fetched.get(item.getUid());
+            String error = null;
+            if (record == null) {
+                error = "Cannot find the record " + item.getUid() + ". Make sure the record uid exists in your " +
+                        "application.";
+            } else if (record.getRevision() != item.getRevision().longValue()) {
+                error = "The record " + item.getUid() + " is pinned to revision " + item.getRevision() +
+                        ", but the current revision is " + record.getRevision() + ". Update the notation to use " +
+                        "the current revision.";
+            }
+            if (error != null) {
+                item.setError(error);
+                if (!item.getAllowFailure()) {
+                    throw new Exception(error);
                 }
+                continue;
             }
-
-            // Remove the predicate from the key. We know one exists, else we wouldn't be in this conditional block.
-            String[] keyParts = fieldKey.split("\\[");
-            fieldKey = keyParts[0];
+            cache.putPinnedRecord(credential.getCacheKey(), record);
+            pinnedRecords.put(pinnedKey(item), record);
         }
-
-        return new KsmNotationItem(
-                destination,
-                envVar,
-                filePath,
-                notation,
-                uid,
-                fieldDataType,
-                fieldKey,
-                returnSingle,
-                index,
-                dictKey,
-                allowFailure);
+        return pinnedRecords;
     }
 
-    public KeeperSecrets getNotationSecrets(SecretsManagerOptions options, List<String> uids) {
-        return SecretsManager.getSecrets(options, uids);
+    /**
+     * Retrieve every record, because a notation uses a title, and keep only the records and fields the items use.
+     * The rest of the vault is not referenced once this returns, so it can be garbage collected while the values are
+     * resolved and files downloaded, instead of each running build holding its own copy.
+     * @param credential The KSM credential
+     * @param options The options
+     * @param items The items that will be resolved
+     * @return An index of the records the items use
+     * @throws Exception The records could not be retrieved.
+     */
+    private KsmRecordIndex getAllSecrets(KsmCredential credential, SecretsManagerOptions options,
+                                         Collection<KsmNotationItem> items) throws Exception {
+        logger.log(Level.FINE, "Notation includes record title(s); retrieving all records.");
+        KeeperSecrets secrets = KsmRetryPolicy.callUntimed(credential.getHostname(),
+                () -> this.getNotationSecrets(options));
+        logger.log(Level.FINE, "Got " + secrets.getRecords().size() + " record(s).");
+
+        KsmRecordIndex index = new KsmRecordIndex(secrets).project(items);
+        logger.log(Level.FINE, "Keeping " + index.getSecrets().getRecords().size() + " record(s).");
+        return index;
     }
 
-    public KeeperSecrets getNotationSecrets(SecretsManagerOptions options) {
-        return SecretsManager.getSecrets(options);
+    private static String pinnedKey(KsmNotationItem item) {
+        return item.getUid() + "@" + item.getRevision();
     }
 
-    public byte[] downloadDataFile(KeeperFile file) {
-        return downloadFile(file);
+    public void run(KsmCredential credential, Map<String, KsmNotationItem> items) throws Exception {
+
+        // Don't wait for a turn just to be told the keys are no good.
+        KsmCredentialHealth.get().checkUsable(credential);
+
+        // Only so many builds can use a credential at once, so a slow server doesn't tie up every executor.
+        KsmBulkhead bulkhead = credential.getBulkhead();
+        bulkhead.acquire();
+        try {
+            resolve(credential, items);
+        } finally {
+            bulkhead.release();
+        }
     }
 
-    public void run(KsmCredential credential, Map<String, KsmNotationItem> items) throws Exception {
+    private void resolve(KsmCredential credential, Map<String, KsmNotationItem> items) throws Exception {
 
-        SecretsManagerOptions options = KsmQuery.getOptions(
-                Secret.toString(credential.getClientId()),
-                Secret.toString(credential.getPrivateKey()),
-                Secret.toString(credential.getAppKey()),
-                credential.getHostname(),
-                credential.getSkipSslVerification());
+        SecretsManagerOptions options = KsmQuery.getOptions(credential);
+
+        // Notations pinned to a revision are resolved on their own, usually from the cache.
+        Map<String, KeeperRecord> pinnedRecords = getPinnedRecords(credential, options, items);
 
         // Collect the unique record tokens (UIDs or titles) from the requests.
         Set<String> uniqueTokens = new HashSet<>();
@@ -233,7 +476,7 @@ public class KsmNotation {
         for (Map.Entry<String, KsmNotationItem> entry : items.entrySet()) {
             KsmNotationItem item = entry.getValue();
             // Skip over any item already flagged as an error.
-            if(item.getError() != null) {
+            if(item.getError() != null || item.isPinned()) {
                 continue;
             }
             String token = item.getUid();
@@ -244,29 +487,18 @@ public class KsmNotation {
         }
 
         // If every token looks like a UID, use the server-side filter for
-        // efficiency and verify the record count. If any token is a title,
-        // fetch all records and let the SDK resolve titles (#43).
-        KeeperSecrets secrets;
-        if (allUids) {
-            logger.log(Level.FINE, "Retrieving " + uniqueTokens.size() + " record(s) by UID.");
-            secrets = this.getNotationSecrets(options, new ArrayList<>(uniqueTokens));
-            logger.log(Level.FINE, "Got " + secrets.getRecords().size() + " record(s).");
-
-            if (uniqueTokens.size() != secrets.getRecords().size()) {
-                logger.log(
-                        Level.WARNING,
-                        "Did not receive the same number of record(s) as requested. " +
-                                "Some of the record uid(s) may not exist in application."
-                );
-                throw new Exception("Requested " + uniqueTokens.size() + " record(s), received " +
-                        secrets.getRecords().size() + " records(s). This happens when a record does not exists in the " +
-                        "application, the record uid is wrong, or the record type is General. Make sure all the record " +
-                        "uids exist in your application and the records are not General type.");
-            }
+        // efficiency and verify the record count. Records still in the cache are not
+        // requested again. If any token is a title, fetch all records and let the SDK
+        // resolve titles (#43).
+        // The records are indexed once, instead of each notation searching all the records and fields.
+        KsmRecordIndex index;
+        if (uniqueTokens.isEmpty()) {
+            index = new KsmRecordIndex(new KeeperSecrets(new AppData("", ""), new ArrayList<>(), null, null));
+        } else if (allUids) {
+            index = new KsmRecordIndex(getSecretsByUid(credential.getCacheKey(), credential.getHostname(), options,
+                    uniqueTokens));
         } else {
-            logger.log(Level.FINE, "Notation includes record title(s); retrieving all records.");
-            secrets = this.getNotationSecrets(options);
-            logger.log(Level.FINE, "Got " + secrets.getRecords().size() + " record(s).");
+            index = getAllSecrets(credential, options, items.values());
         }
 
         for (Map.Entry<String, KsmNotationItem> entry : items.entrySet()) {
@@ -277,14 +509,30 @@ public class KsmNotation {
                 continue;
             }
 
+            KsmRecordIndex itemIndex = index;
+            if (item.isPinned()) {
+                itemIndex = new KsmRecordIndex(new KeeperSecrets(new AppData("", ""),
+                        Collections.singletonList(pinnedRecords.get(pinnedKey(item))), null, null));
+            }
+
             try {
-                if ( item.getFieldDataType() == KsmFieldDataEnumType.FILE ) {
-                    KeeperFile file = Notation.getFile(secrets, item.getNotation());
-                    byte[] fileBytes = downloadDataFile(file);
+                if (item.isBulk()) {
+                    // All the fields are taken from the record at once.
+                    Map<String, String> fields = itemIndex.getBulkValues(item);
+                    item.setFields(fields);
+                    if (item.isDestinationEnvVar()) {
+                        KsmBulkExport.checkEnvVarNames(item.getEnvVar(), fields.keySet());
+                    } else {
+                        item.setValue(KsmBulkExport.render(item.getFilePath(), fields));
+                    }
+                }
+                else if ( item.getFieldDataType() == KsmFieldDataEnumType.FILE ) {
+                    KeeperFile file = itemIndex.getFile(item);
+                    byte[] fileBytes = getCachedFile(credential.getCacheKey(), credential.getHostname(), file);
                     item.setValue(fileBytes);
                 }
                 else {
-                    String value = Notation.getValue(secrets, item.getNotation());
+                    String value = itemIndex.getValue(item);
                     item.setValue(value);
                 }
             }
@@ -4,6 +4,12 @@ import io.jenkins.plugins.ksm.KsmSecret;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 public class KsmNotationItem {
 
     private String destination;
@@ -16,6 +22,10 @@ public class KsmNotationItem {
     private Boolean returnSingle;
     private Integer arrayIndex;
     private String dictKey;
+    private Long revision;
+    private boolean bulk;
+    private List<String> fieldKeys;
+    private Map<String, String> fields;
     private Object value;
     private boolean allowFailure;
     private String error;
@@ -99,6 +109,22 @@ public class KsmNotationItem {
     public String getDictKey() {
         return dictKey;
     }
+    public Long getRevision() {
+        return revision;
+    }
+    public boolean isPinned() {
+        return revision != null;
+    }
+    public boolean isBulk() {
+        return bulk;
+    }
+    public List<String> getFieldKeys() {
+        return fieldKeys;
+    }
+    // The values of a bulk notation, by field label, or type if the field has no label.
+    public Map<String, String> getFields() {
+        return fields;
+    }
     public Object getValue() {
         return value;
     }
@@ -150,6 +176,22 @@ public class KsmNotationItem {
         this.dictKey = dictKey;
     }
     @DataBoundSetter
+    public void setRevision(Long revision) {
+        this.revision = revision;
+    }
+    @DataBoundSetter
+    public void setBulk(boolean bulk) {
+        this.bulk = bulk;
+    }
+    @DataBoundSetter
+    public void setFieldKeys(List<String> fieldKeys) {
+        this.fieldKeys = fieldKeys;
+    }
+    @DataBoundSetter
+    public void setFields(Map<String, String> fields) {
+        this.fields = fields;
+    }
+    @DataBoundSetter
     public void setValue(Object value) {
         this.value = value;
     }
@@ -166,6 +208,43 @@ public class KsmNotationItem {
         return destination.equals(KsmSecret.destinationEnvVar);
     }
 
+    /**
+     * The environmental variables to set. A bulk notation sets one for each field, named the env var followed by the
+     * field name.
+     * @return The environmental variables, by name
+     */
+    public Map<String, String> getEnvVars() {
+        if (bulk) {
+            Map<String, String> envVars = new LinkedHashMap<>();
+            if (fields != null) {
+                for (Map.Entry<String, String> field : fields.entrySet()) {
+                    envVars.putIfAbsent(KsmBulkExport.envVarName(envVar, field.getKey()), field.getValue());
+                }
+            }
+            return envVars;
+        }
+        if (value instanceof String) {
+            return Collections.singletonMap(envVar, (String) value);
+        }
+        return Collections.emptyMap();
+    }
+
+    // The values that need to be masked in the console log.
+    public List<String> getSecretValues() {
+        List<String> secretValues = new ArrayList<>();
+        if (value instanceof String) {
+            secretValues.add((String) value);
+        }
+        if (bulk && fields != null) {
+            for (String fieldValue : fields.values()) {
+                if (!fieldValue.isEmpty()) {
+                    secretValues.add(fieldValue);
+                }
+            }
+        }
+        return secretValues;
+    }
+
     public void clearError() {
         this.error = null;
     }
@@ -0,0 +1,317 @@
+package io.jenkins.plugins.ksm.notation;
+
+import com.keepersecurity.secretsManager.core.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index over the records that were retrieved for a build, so each notation doesn't have to scan every record
+ * and field. When all records are retrieved because a notation uses a title, that can be the entire vault.
+ *
+ * The index only answers the common notations, a field with or without an array index and a file, and only when
+ * it finds what the notation asks for. Everything else, including every error, is left to the SDK, so the values and
+ * error messages are the same as calling Notation.getValue() and Notation.getFile().
+ *
+ * Bulk notations, field/* and field/{login,password}, aren't supported by the SDK, so the index answers them itself.
+ * Their errors still come from the SDK, by asking it for the record or field that is missing.
+ */
+public class KsmRecordIndex {
+
+    private final KeeperSecrets secrets;
+
+    // The SDK finds fields by the first record with a matching UID or title, and files by the first record with a
+    // matching UID.
+    private final Map<String, KeeperRecord> byUidOrTitle = new HashMap<>();
+    private final Map<String, KeeperRecord> byUid = new HashMap<>();
+
+    // Built the first time a record is used.
+    private final Map<KeeperRecord, Map<String, KeeperRecordField>> standardFields = new HashMap<>();
+    private final Map<KeeperRecord, Map<String, KeeperRecordField>> customFields = new HashMap<>();
+    private final Map<KeeperRecord, Map<String, KeeperFile>> files = new HashMap<>();
+
+    public KsmRecordIndex(KeeperSecrets secrets) {
+        this.secrets = secrets;
+        for (KeeperRecord record : secrets.getRecords()) {
+            byUid.putIfAbsent(record.getRecordUid(), record);
+            byUidOrTitle.putIfAbsent(record.getRecordUid(), record);
+            byUidOrTitle.putIfAbsent(record.getData().getTitle(), record);
+        }
+    }
+
+    public KeeperSecrets getSecrets() {
+        return secrets;
+    }
+
+    /**
+     * Get the value of a field notation.
+     * @param item The parsed notation
+     * @return The value, the same as Notation.getValue()
+     * @throws Exception The value could not be found.
+     */
+    public String getValue(KsmNotationItem item) throws Exception {
+
+        String base = item.getUid() + "/" + item.getFieldDataType() + "/" + item.getFieldKey();
+        String notation = item.getNotation();
+
+        // Without an index the SDK returns the first value, with one it checks the index is in range first. Any other
+        // predicate, or anything the SDK would need to unescape, is left to the SDK.
+        int index;
+        if (notation.equals(base)) {
+            index = -1;
+        } else if (item.getReturnSingle() && item.getDictKey() == null && item.getArrayIndex() >= 0
+                && notation.equals(base + "[" + item.getArrayIndex() + "]")) {
+            index = item.getArrayIndex();
+        } else {
+            return Notation.getValue(secrets, notation);
+        }
+        if (isEscaped(base)) {
+            return Notation.getValue(secrets, notation);
+        }
+
+        KeeperRecord record = byUidOrTitle.get(item.getUid());
+        KeeperRecordField field = null;
+        if (record != null) {
+            field = getFields(record, item.getFieldDataType()).get(item.getFieldKey());
+        }
+        if (field == null || index >= Notation.getFieldValuesCount(field)) {
+            return Notation.getValue(secrets, notation);
+        }
+
+        List<String> values = Notation.getFieldStringValues(field, index, null);
+        return values.isEmpty() ? "" : values.get(0);
+    }
+
+    /**
+     * Get the file of a file notation.
+     * @param item The parsed notation
+     * @return The file, the same as Notation.getFile()
+     * @throws Exception The file could not be found.
+     */
+    public KeeperFile getFile(KsmNotationItem item) throws Exception {
+
+        // The SDK takes the file name as is, without looking for a predicate.
+        String notation = item.getNotation();
+        String[] parts = notation.split("/", -1);
+        KeeperFile file = null;
+        if (parts.length == 3 && !isEscaped(notation) && parts[1].equals(KsmFieldDataEnumType.FILE.toString())) {
+            KeeperRecord record = byUid.get(parts[0]);
+            if (record != null) {
+                file = getFiles(record).get(parts[2]);
+            }
+        }
+        if (file == null) {
+            return Notation.getFile(secrets, notation);
+        }
+        return file;
+    }
+
+    /**
+     * Get the values of a bulk notation, field/* or field/{login,password}, in one pass over the record. Each value
+     * is the same as a notation for just that field would get.
+     * @param item The parsed notation
+     * @return The values by field label, or type if the field has no label, in the order of the record or the list
+     * @throws Exception The record, or a listed field, could not be found.
+     */
+    public Map<String, String> getBulkValues(KsmNotationItem item) throws Exception {
+
+        // Errors are left to the SDK, so they are the same as a notation for a single field would give.
+        KeeperRecord record = byUidOrTitle.get(item.getUid());
+        if (record == null) {
+            Notation.getValue(secrets, item.getNotation());
+            throw new Exception("Record '" + item.getUid() + "' not found");
+        }
+
+        Map<String, String> values = new LinkedHashMap<>();
+        for (Map.Entry<String, KeeperRecordField> entry : getBulkFields(record, item).entrySet()) {
+            if (entry.getValue() == null) {
+                Notation.getValue(secrets, escape(item.getUid()) + "/" + item.getFieldDataType() + "/"
+                        + escape(entry.getKey()));
+                throw new Exception("Field " + entry.getKey() + " not found in the record " + record.getRecordUid());
+            }
+            List<String> fieldValues = Notation.getFieldStringValues(entry.getValue(), -1, null);
+            values.put(entry.getKey(), fieldValues.isEmpty() ? "" : fieldValues.get(0));
+        }
+        return values;
+    }
+
+    // The fields of a bulk notation by name. A listed field that isn't in the record is null.
+    private Map<String, KeeperRecordField> getBulkFields(KeeperRecord record, KsmNotationItem item) {
+        Map<String, KeeperRecordField> fields = new LinkedHashMap<>();
+        if (item.getFieldKeys() != null) {
+            Map<String, KeeperRecordField> byName = getFields(record, item.getFieldDataType());
+            for (String key : item.getFieldKeys()) {
+                fields.putIfAbsent(key, byName.get(key));
+            }
+            return fields;
+        }
+        List<KeeperRecordField> recordFields = item.getFieldDataType() == KsmFieldDataEnumType.CUSTOM
+                ? record.getData().getCustom() : record.getData().getFields();
+        if (recordFields != null) {
+            // Like a notation for a single field, when fields have the same name the first one is used.
+            for (KeeperRecordField field : recordFields) {
+                String name = field.getLabel() == null || field.getLabel().isEmpty()
+                        ? Notation.fieldType(field) : field.getLabel();
+                fields.putIfAbsent(name, field);
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Keep only the records, fields and files that the items use. Everything else that was retrieved, which can be
+     * the entire vault when a notation uses a title, can be garbage collected once this index is dropped.
+     *
+     * The order of the records, fields and files is kept, so the first match for each item is the same, and the
+     * items get the same values and errors from the projection as from this index. If an item uses a notation the
+     * index leaves to the SDK, nothing is removed.
+     * @param items The items that will be resolved
+     * @return An index of only what the items use
+     */
+    public KsmRecordIndex project(Collection<KsmNotationItem> items) {
+
+        // The fields and files each record needs. The same field can be in more than one record, so it's by identity.
+        Map<KeeperRecord, Set<Object>> usedByRecord = new IdentityHashMap<>();
+        for (KsmNotationItem item : items) {
+            if (item.getError() != null || item.isPinned()) {
+                continue;
+            }
+            String notation = item.getNotation();
+            KeeperRecord record;
+            Object used;
+            if (item.isBulk()) {
+                // Bulk notations are never left to the SDK, all they need are their fields.
+                record = byUidOrTitle.get(item.getUid());
+                if (record != null) {
+                    Set<Object> recordUsed = usedByRecord.computeIfAbsent(record,
+                            r -> Collections.newSetFromMap(new IdentityHashMap<>()));
+                    for (KeeperRecordField field : getBulkFields(record, item).values()) {
+                        if (field != null) {
+                            recordUsed.add(field);
+                        }
+                    }
+                }
+                continue;
+            }
+            if (item.getFieldDataType() == KsmFieldDataEnumType.FILE) {
+                String[] parts = notation.split("/", -1);
+                if (parts.length != 3 || isEscaped(notation)) {
+                    return this;
+                }
+                record = byUid.get(parts[0]);
+                used = record == null ? null : getFiles(record).get(parts[2]);
+            } else {
+                // The predicate doesn't change which field is used, only what is taken from it.
+                String base = item.getUid() + "/" + item.getFieldDataType() + "/" + item.getFieldKey();
+                if (isEscaped(base) || !notation.startsWith(base)
+                        || (notation.length() > base.length() && notation.charAt(base.length()) != '[')) {
+                    return this;
+                }
+                record = byUidOrTitle.get(item.getUid());
+                used = record == null ? null : getFields(record, item.getFieldDataType()).get(item.getFieldKey());
+            }
+            if (record != null) {
+                Set<Object> recordUsed = usedByRecord.computeIfAbsent(record,
+                        r -> Collections.newSetFromMap(new IdentityHashMap<>()));
+                if (used != null) {
+                    recordUsed.add(used);
+                }
+            }
+        }
+
+        List<KeeperRecord> records = new ArrayList<>();
+        for (KeeperRecord record : secrets.getRecords()) {
+            Set<Object> recordUsed = usedByRecord.get(record);
+            if (recordUsed != null) {
+                records.add(project(record, recordUsed));
+            }
+        }
+        return new KsmRecordIndex(new KeeperSecrets(secrets.getAppData(), records, secrets.getExpiresOn(),
+                secrets.getWarnings()));
+    }
+
+    private static KeeperRecord project(KeeperRecord record, Set<Object> used) {
+        KeeperRecordData data = record.getData();
+        KeeperRecordData projected = new KeeperRecordData(
+                data.getTitle(),
+                data.getType(),
+                keep(data.getFields(), used),
+                keep(data.getCustom(), used),
+                null
+        );
+        return new KeeperRecord(record.getRecordKey(), record.getRecordUid(), record.getFolderUid(),
+                record.getFolderKey(), record.getInnerFolderUid(), projected, record.getRevision(),
+                keep(record.getFiles(), used), null);
+    }
+
+    private static <T> List<T> keep(List<T> list, Set<Object> used) {
+        if (list == null) {
+            return null;
+        }
+        List<T> kept = new ArrayList<>();
+        for (T value : list) {
+            if (used.contains(value)) {
+                kept.add(value);
+            }
+        }
+        return kept;
+    }
+
+    private Map<String, KeeperRecordField> getFields(KeeperRecord record, KsmFieldDataEnumType fieldDataType) {
+        boolean custom = fieldDataType == KsmFieldDataEnumType.CUSTOM;
+        return (custom ? customFields : standardFields).computeIfAbsent(record, r -> {
+            List<KeeperRecordField> fields = custom ? r.getData().getCustom() : r.getData().getFields();
+            Map<String, KeeperRecordField> byName = new HashMap<>();
+            if (fields != null) {
+                // The SDK uses the first field with a matching type or label.
+                for (KeeperRecordField field : fields) {
+                    byName.putIfAbsent(Notation.fieldType(field), field);
+                    if (field.getLabel() != null) {
+                        byName.putIfAbsent(field.getLabel(), field);
+                    }
+                }
+            }
+            return byName;
+        });
+    }
+
+    private Map<String, KeeperFile> getFiles(KeeperRecord record) {
+        return files.computeIfAbsent(record, r -> {
+            Map<String, KeeperFile> byName = new HashMap<>();
+            if (r.getFiles() != null) {
+                // The SDK uses the first file with a matching name, title or file UID.
+                for (KeeperFile file : r.getFiles()) {
+                    byName.putIfAbsent(file.getData().getName(), file);
+                    byName.putIfAbsent(file.getData().getTitle(), file);
+                    byName.putIfAbsent(file.getFileUid(), file);
+                }
+            }
+            return byName;
+        });
+    }
+
+    // Escape the characters the SDK's notation parser treats specially.
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder();
+        for (char c : text.toCharArray()) {
+            if (c == '\\' || c == '/' || c == '[' || c == ']') {
+                escaped.append('\\');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    // Characters the SDK's notation parser treats specially. Notations with them are left to the SDK.
+    private static boolean isEscaped(String text) {
+        return text.indexOf('\\') >= 0 || text.indexOf('[') >= 0 || text.indexOf(']') >= 0
+                || text.contains("://");
+    }
+}
@@ -0,0 +1,192 @@
+package io.jenkins.plugins.ksm.notation;
+
+import io.jenkins.plugins.ksm.KsmSecret;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A template, like a settings.xml or .npmrc, with notations in it. Each notation is inside {{ and }}, for example
+ * {{keeper://Ipk9NR1rCBZXyflWbPwTGA/field/password}}. A {{ that is not followed by keeper:// is left alone, so
+ * templates can have other {{ }} placeholders in them.
+ *
+ * The template is parsed once. The notations are resolved with the other secrets, then the template is written to
+ * the file with the values put in, without building the whole file in memory first.
+ */
+public class KsmTemplate {
+
+    public static final String placeholderStart = "{{";
+    public static final String placeholderEnd = "}}";
+
+    private final String filePath;
+
+    // The text around the notations. There is always one more literal than placeholders.
+    private final List<String> literals = new ArrayList<>();
+    private final List<KsmNotationItem> placeholders = new ArrayList<>();
+
+    // The same notation used more than once in the template is only resolved once.
+    private final Map<String, KsmNotationItem> items = new LinkedHashMap<>();
+
+    private KsmTemplate(String filePath) {
+        this.filePath = filePath;
+    }
+
+    /**
+     * Parse a template.
+     * @param filePath The file the template will be written to
+     * @param template The content of the template
+     * @return KsmTemplate
+     * @throws Exception A notation in the template is not valid, or is missing its closing }}.
+     */
+    public static KsmTemplate parse(String filePath, String template) throws Exception {
+
+        KsmTemplate parsed = new KsmTemplate(filePath);
+        StringBuilder literal = new StringBuilder();
+        int line = 1;
+        int pos = 0;
+        while (true) {
+            int start = template.indexOf(placeholderStart, pos);
+            if (start < 0) {
+                break;
+            }
+            line += countLines(template, pos, start);
+
+            // Only {{ keeper://... }} is a notation, spaces inside the braces are allowed.
+            int notationStart = start + placeholderStart.length();
+            while (notationStart < template.length() && Character.isWhitespace(template.charAt(notationStart))) {
+                notationStart++;
+            }
+            if (!template.startsWith(KsmNotation.notationPrefix + "://", notationStart)) {
+                literal.append(template, pos, start + 1);
+                pos = start + 1;
+                continue;
+            }
+            int end = template.indexOf(placeholderEnd, notationStart);
+            if (end < 0) {
+                throw new Exception("The notation at line " + line + " of the template is missing the closing "
+                        + placeholderEnd + ".");
+            }
+            // A list of fields, {a,b}, ends with a '}' of its own. The }} after it closes the placeholder.
+            while (template.startsWith("}", end + placeholderEnd.length())
+                    && count(template, notationStart, end, '{') > count(template, notationStart, end, '}')) {
+                end++;
+            }
+
+            literal.append(template, pos, start);
+            parsed.literals.add(literal.toString());
+            literal.setLength(0);
+            parsed.placeholders.add(parsed.getItem(template.substring(notationStart, end).trim(), line));
+
+            line += countLines(template, start, end);
+            pos = end + placeholderEnd.length();
+        }
+        literal.append(template, pos, template.length());
+        parsed.literals.add(literal.toString());
+        return parsed;
+    }
+
+    private KsmNotationItem getItem(String notation, int line) throws Exception {
+        KsmNotationItem item = items.get(notation);
+        if (item == null) {
+            KsmCompiledNotation compiled;
+            try {
+                compiled = KsmCompiledNotation.compile(notation);
+            }
+            catch(Exception e) {
+                throw new Exception("The notation " + notation + " at line " + line + " of the template is not valid: "
+                        + e.getMessage());
+            }
+            if (compiled.isBulk()) {
+                throw new Exception("The notation " + notation + " at line " + line + " of the template gets more "
+                        + "than one field. Only a single value can be put in a template.");
+            }
+            item = KsmNotation.parse(KsmSecret.destinationTemplate, null, filePath, compiled, false);
+            items.put(notation, item);
+        }
+        return item;
+    }
+
+    private static int countLines(String text, int start, int end) {
+        return count(text, start, end, '\n');
+    }
+
+    private static int count(String text, int start, int end, char c) {
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == c) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    // The unique notations in the template.
+    public Collection<KsmNotationItem> getItems() {
+        return items.values();
+    }
+
+    /**
+     * The notations in the template, by a name that won't clash with the name of another secret, so they can be
+     * resolved with the rest of the secrets.
+     * @return Map of the notation items
+     */
+    public Map<String, KsmNotationItem> getNotationItems() {
+        Map<String, KsmNotationItem> named = new LinkedHashMap<>();
+        for (Map.Entry<String, KsmNotationItem> entry : items.entrySet()) {
+            named.put(filePath + " " + placeholderStart + entry.getKey() + placeholderEnd, entry.getValue());
+        }
+        return named;
+    }
+
+    // The values that need to be masked in the console log.
+    public List<String> getSecretValues() {
+        List<String> secretValues = new ArrayList<>();
+        for (KsmNotationItem item : items.values()) {
+            secretValues.addAll(item.getSecretValues());
+        }
+        return secretValues;
+    }
+
+    /**
+     * Write the template, with the values of the notations, to a stream. A notation of a file writes the file's
+     * content as is.
+     * @param out Where the template is written
+     * @param charset The charset of the template
+     * @throws Exception A notation does not have a value.
+     */
+    public void render(OutputStream out, Charset charset) throws Exception {
+
+        // Make sure every value is there before anything is written.
+        for (KsmNotationItem item : items.values()) {
+            if (item.getError() != null) {
+                throw new Exception("The notation " + item.getNotation() + " in the template could not be "
+                        + "resolved: " + item.getError());
+            }
+        }
+
+        for (int i = 0; i < placeholders.size(); i++) {
+            out.write(literals.get(i).getBytes(charset));
+            writeValue(out, placeholders.get(i).getValue(), charset);
+        }
+        out.write(literals.get(placeholders.size()).getBytes(charset));
+    }
+
+    private static void writeValue(OutputStream out, Object value, Charset charset) throws IOException {
+        if (value instanceof byte[]) {
+            out.write((byte[]) value);
+        }
+        else if (value != null) {
+            out.write(value.toString().getBytes(charset));
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package io.jenkins.plugins.ksm.notation;
 
 import com.keepersecurity.secretsManager.core.*;
+import io.jenkins.plugins.ksm.cache.KsmRecordCache;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
@@ -10,9 +11,12 @@ import java.util.Base64;
 
 public class KsmTestNotation extends KsmNotation {
 
-    private KeeperSecrets secrets;
+    // The records are made from the JSON each time they are retrieved, so like records from the server, they are
+    // only held while a build resolves its notations.
+    private String testData;
     private final static String ksmDataFile = "ksmTestData.json";
-    private final Map<String, byte[]> fileCache = new HashMap<>();
+    private final Map<String, String> fileData = new HashMap<>();
+    private final KsmRecordCache recordCache = new KsmRecordCache(KsmRecordCache.DEFAULT_TTL_SECONDS);
 
     /**
      * This method will add test data. It takes a JSON structure which it will turn
@@ -48,6 +52,12 @@ public class KsmTestNotation extends KsmNotation {
      */
 
     public void addTestData(String jsonString) {
+        // Make the records once, so bad test data fails here rather than in a build.
+        buildSecrets(jsonString);
+        this.testData = jsonString;
+    }
+
+    private KeeperSecrets buildSecrets(String jsonString) {
         JSONObject obj = new JSONObject(jsonString);
         JSONArray secretArr = obj.getJSONArray("secrets");
         List<KeeperRecord> records = new ArrayList<>();
@@ -100,11 +110,12 @@ public class KsmTestNotation extends KsmNotation {
             List<KeeperFile> files = new ArrayList<>();
             JSONArray fileArr = secretArr.getJSONObject(index).getJSONArray("files");
             for (int fileIndex = 0; fileIndex < fileArr.length(); fileIndex++) {
-                byte[] content = fileArr.getJSONObject(fileIndex).getString("data").getBytes(StandardCharsets.UTF_8);
+                String base64 = fileArr.getJSONObject(fileIndex).getString("data");
+                byte[] content = base64.getBytes(StandardCharsets.UTF_8);
 
-                fileCache.put(
+                fileData.put(
                         fileArr.getJSONObject(fileIndex).getString("name"),
-                        Base64.getDecoder().decode(content)
+                        base64
                 );
 
                 KeeperFileData fileData = new KeeperFileData(
@@ -116,7 +127,7 @@ public class KsmTestNotation extends KsmNotation {
                 );
                 KeeperFile keeperFile = new KeeperFile(
                         "HI".getBytes(StandardCharsets.UTF_8),
-                        "fileUId",
+                        uid + "-" + fileIndex,
                         fileData,
                         "http://localhost",
                         null
@@ -139,21 +150,27 @@ public class KsmTestNotation extends KsmNotation {
         }
 
         AppData appData = new AppData("","");
-        this.secrets = new KeeperSecrets(appData, records, null, null);
+        return new KeeperSecrets(appData, records, null, null);
+    }
+
+    @Override
+    protected KsmRecordCache getRecordCache() {
+        return recordCache;
     }
 
     public KeeperSecrets getNotationSecrets(SecretsManagerOptions options, List<String> uids) {
-        return this.secrets;
+        return getNotationSecrets(options);
     }
 
     @Override
     public KeeperSecrets getNotationSecrets(SecretsManagerOptions options) {
-        return this.secrets;
+        return testData == null ? null : buildSecrets(testData);
     }
 
     public byte[] downloadDataFile(KeeperFile file) {
         String name = file.getData().getName();
-        return fileCache.get(name);
+        String base64 = fileData.get(name);
+        return base64 == null ? null : Base64.getDecoder().decode(base64);
     }
 
     private static String getDataFilePath() {
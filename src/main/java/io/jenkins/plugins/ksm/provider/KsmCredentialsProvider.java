@@ -0,0 +1,121 @@
+package io.jenkins.plugins.ksm.provider;
+
+import com.cloudbees.plugins.credentials.Credentials;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.ItemGroup;
+import hudson.security.ACL;
+import io.jenkins.plugins.ksm.cache.KsmVaultIndex;
+import io.jenkins.plugins.ksm.credential.KsmCredential;
+import io.jenkins.plugins.ksm.credential.KsmCredentialIndex;
+import org.springframework.security.core.Authentication;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Offers the records of the KSM credential picked in the global configuration as Jenkins credentials, for plugins
+ * that only take Jenkins credentials, like Git, Docker and SSH agents.
+ *
+ * The credentials are listed from the record index, the same record names used to check notations, so listing them
+ * never calls the Keeper Secrets Manager server. The index is loaded, and refreshed, in the background. Until it is
+ * loaded no records are offered. The values are only retrieved when a credential is used.
+ */
+@Extension
+public class KsmCredentialsProvider extends CredentialsProvider {
+
+    private static final Logger logger = Logger.getLogger(KsmCredentialsProvider.class.getName());
+
+    // The credentials made from the last snapshot, so a listing doesn't make them again.
+    private volatile Listing listing;
+
+    @NonNull
+    @Override
+    public <C extends Credentials> List<C> getCredentialsInItemGroup(
+            @NonNull Class<C> type, ItemGroup itemGroup, Authentication authentication,
+            @NonNull List<DomainRequirement> domainRequirements) {
+        // Looking up the KSM credential lands here too, it isn't one of the types offered.
+        if (!ACL.SYSTEM2.equals(authentication) || !isOffered(type)) {
+            return Collections.emptyList();
+        }
+        List<C> credentials = new ArrayList<>();
+        for (KsmProvidedCredential credential : getProvided()) {
+            if (type.isInstance(credential)) {
+                credentials.add(type.cast(credential));
+            }
+        }
+        return credentials;
+    }
+
+    static boolean isOffered(Class<?> type) {
+        return type.isAssignableFrom(KsmProvidedString.class)
+                || type.isAssignableFrom(KsmProvidedUsernamePassword.class)
+                || type.isAssignableFrom(KsmProvidedFile.class);
+    }
+
+    List<KsmProvidedCredential> getProvided() {
+        String credentialsId = KsmCredentialsProviderConfig.get().getCredentialsId();
+        if (credentialsId == null) {
+            return Collections.emptyList();
+        }
+        KsmCredential credential = KsmCredentialIndex.get().getCredential(credentialsId, null);
+        if (credential == null) {
+            logger.log(Level.FINE, "The credential " + credentialsId + " used to offer records was not found.");
+            return Collections.emptyList();
+        }
+        // Null until the records are loaded, this starts loading them.
+        KsmVaultIndex.Snapshot snapshot = KsmVaultIndex.get().getSnapshot(credential);
+        if (snapshot == null) {
+            return Collections.emptyList();
+        }
+
+        Listing current = listing;
+        if (current == null || current.snapshot != snapshot || !current.cacheKey.equals(credential.getCacheKey())) {
+            current = new Listing(credential, snapshot);
+            listing = current;
+            logger.log(Level.FINE, "Offering " + current.credentials.size() + " record(s) of " + credentialsId
+                    + " as credentials.");
+        }
+        return current.credentials;
+    }
+
+    // Start loading the records after a restart, so they are there for the first build.
+    @Initializer(after = InitMilestone.JOB_LOADED, fatal = false)
+    public static void preload() {
+        ExtensionList.lookupSingleton(KsmCredentialsProvider.class).getProvided();
+    }
+
+    static final class Listing {
+
+        private final String cacheKey;
+        private final KsmVaultIndex.Snapshot snapshot;
+        private final List<KsmProvidedCredential> credentials;
+
+        Listing(KsmCredential ksmCredential, KsmVaultIndex.Snapshot snapshot) {
+            this.cacheKey = ksmCredential.getCacheKey();
+            this.snapshot = snapshot;
+            // A shortcut to a record has the same UID, the first one is used, the same as a notation.
+            Map<String, KsmProvidedCredential> made = new LinkedHashMap<>();
+            for (KsmVaultIndex.RecordInfo record : snapshot.getRecords()) {
+                KsmProvidedCredential credential = KsmProvidedCredential.fromRecord(ksmCredential, record);
+                if (credential != null) {
+                    made.putIfAbsent(credential.getId(), credential);
+                }
+            }
+            this.credentials = Collections.unmodifiableList(new ArrayList<>(made.values()));
+        }
+
+        List<KsmProvidedCredential> getCredentials() {
+            return credentials;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package io.jenkins.plugins.ksm.provider;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.Util;
+import hudson.util.ListBoxModel;
+import io.jenkins.plugins.ksm.KsmCommon;
+import jenkins.model.GlobalConfiguration;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.verb.POST;
+
+/**
+ * The KSM credential whose records are offered as Jenkins credentials. No records are offered until one is picked.
+ */
+@Extension
+@Symbol("keeperSecretsManagerCredentialsProvider")
+public class KsmCredentialsProviderConfig extends GlobalConfiguration {
+
+    private String credentialsId;
+
+    public KsmCredentialsProviderConfig() {
+        load();
+    }
+
+    public static KsmCredentialsProviderConfig get() {
+        return ExtensionList.lookupSingleton(KsmCredentialsProviderConfig.class);
+    }
+
+    public String getCredentialsId() {
+        return credentialsId;
+    }
+
+    @DataBoundSetter
+    public void setCredentialsId(String credentialsId) {
+        this.credentialsId = Util.fixEmptyAndTrim(credentialsId);
+        save();
+    }
+
+    // Only global credentials, the records are offered everywhere.
+    @POST
+    public ListBoxModel doFillCredentialsIdItems(@QueryParameter String credentialsId) {
+        return KsmCommon.buildCredentialsIdListBox(null, credentialsId);
+    }
+}
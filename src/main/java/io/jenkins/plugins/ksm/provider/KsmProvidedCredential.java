@@ -0,0 +1,81 @@
+package io.jenkins.plugins.ksm.provider;
+
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.CredentialsUnavailableException;
+import com.cloudbees.plugins.credentials.impl.BaseStandardCredentials;
+import io.jenkins.plugins.ksm.cache.KsmVaultIndex;
+import io.jenkins.plugins.ksm.credential.KsmCredential;
+import io.jenkins.plugins.ksm.notation.KsmNotation;
+import java.util.List;
+
+/**
+ * A Jenkins credential made from a KSM record, so plugins that only take Jenkins credentials can use the record. The
+ * id is the record UID, and the description is the record title. Only the UID, title and field names are known when
+ * the credential is listed; the values are retrieved the first time they are used.
+ */
+public abstract class KsmProvidedCredential extends BaseStandardCredentials {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String ksmCredentialId;
+    // The cache key of the KSM credential, its values are kept by it.
+    private final String ksmCacheKey;
+    private final String recordUid;
+
+    protected KsmProvidedCredential(String ksmCredentialId, String ksmCacheKey, String recordUid, String title) {
+        super(CredentialsScope.GLOBAL, recordUid, title);
+        this.ksmCredentialId = ksmCredentialId;
+        this.ksmCacheKey = ksmCacheKey;
+        this.recordUid = recordUid;
+    }
+
+    /**
+     * Make a credential from a record, by what the record has. A record with a login and password is a username
+     * and password, a record with only a password is secret text, and a record with a file is a secret file.
+     * @param ksmCredential The KSM credential that can see the record
+     * @param record The record
+     * @return The credential, or null if the record has none of these
+     */
+    static KsmProvidedCredential fromRecord(KsmCredential ksmCredential, KsmVaultIndex.RecordInfo record) {
+        String id = ksmCredential.getId();
+        String cacheKey = ksmCredential.getCacheKey();
+        String uid = record.getUid();
+        String title = record.getTitle();
+        if (record.getFields().contains("login") && record.getFields().contains("password")) {
+            return new KsmProvidedUsernamePassword(id, cacheKey, uid, title);
+        }
+        if (record.getFields().contains("password")) {
+            return new KsmProvidedString(id, cacheKey, uid, title);
+        }
+        if (record.getFileUid() != null) {
+            return new KsmProvidedFile(id, cacheKey, uid, title, record.getFileUid(), record.getFileName());
+        }
+        return null;
+    }
+
+    public String getKsmCredentialId() {
+        return ksmCredentialId;
+    }
+    public String getKsmCacheKey() {
+        return ksmCacheKey;
+    }
+    public String getRecordUid() {
+        return recordUid;
+    }
+
+    protected String notation(String path) {
+        return KsmNotation.notationPrefix + "://" + recordUid + "/" + path;
+    }
+
+    // The notations of all the values of the credential, they are retrieved together.
+    protected abstract List<String> getNotations();
+
+    protected Object getValue(String property, String notation) {
+        try {
+            return KsmProvidedValues.get().getValue(ksmCacheKey, getNotations(), notation);
+        } catch (Exception e) {
+            throw new CredentialsUnavailableException(property, "Could not get the " + property + " of the "
+                    + "credential " + getId() + " from Keeper Secrets Manager: " + e.getMessage(), e);
+        }
+    }
+}
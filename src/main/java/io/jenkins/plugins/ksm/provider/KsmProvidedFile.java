@@ -0,0 +1,86 @@
+package io.jenkins.plugins.ksm.provider;
+
+import com.cloudbees.plugins.credentials.CredentialsSnapshotTaker;
+import com.cloudbees.plugins.credentials.CredentialsUnavailableException;
+import com.cloudbees.plugins.credentials.SecretBytes;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import org.jenkinsci.plugins.plaincredentials.FileCredentials;
+import org.jenkinsci.plugins.plaincredentials.impl.FileCredentialsImpl;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The first file of a KSM record, as a secret file.
+ */
+public class KsmProvidedFile extends KsmProvidedCredential implements FileCredentials {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String fileUid;
+    private final String fileName;
+
+    public KsmProvidedFile(String ksmCredentialId, String ksmCacheKey, String recordUid, String title, String fileUid,
+                           String fileName) {
+        super(ksmCredentialId, ksmCacheKey, recordUid, title);
+        this.fileUid = fileUid;
+        this.fileName = fileName;
+    }
+
+    // By the file UID, a file name might need to be escaped in a notation.
+    @Override
+    protected List<String> getNotations() {
+        return Collections.singletonList(notation("file/" + fileUid));
+    }
+
+    @NonNull
+    @Override
+    public String getFileName() {
+        return fileName;
+    }
+
+    @NonNull
+    @Override
+    public InputStream getContent() throws IOException {
+        try {
+            return new ByteArrayInputStream((byte[]) getValue("content", notation("file/" + fileUid)));
+        } catch (CredentialsUnavailableException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends BaseStandardCredentialsDescriptor {
+        @NonNull
+        @Override
+        public String getDisplayName() {
+            return "Secret file from Keeper Secrets Manager";
+        }
+    }
+
+    // An agent can't retrieve the file, so it gets the content instead.
+    @Extension
+    public static class SnapshotTaker extends CredentialsSnapshotTaker<FileCredentials> {
+        @Override
+        public Class<FileCredentials> type() {
+            return FileCredentials.class;
+        }
+
+        @Override
+        public FileCredentials snapshot(FileCredentials credentials) {
+            if (!(credentials instanceof KsmProvidedFile)) {
+                return credentials;
+            }
+            try (InputStream content = credentials.getContent()) {
+                return new FileCredentialsImpl(credentials.getScope(), credentials.getId(),
+                        credentials.getDescription(), credentials.getFileName(),
+                        SecretBytes.fromBytes(content.readAllBytes()));
+            } catch (IOException e) {
+                throw new CredentialsUnavailableException("content", e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package io.jenkins.plugins.ksm.provider;
+
+import com.cloudbees.plugins.credentials.CredentialsSnapshotTaker;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.util.Secret;
+import org.jenkinsci.plugins.plaincredentials.StringCredentials;
+import org.jenkinsci.plugins.plaincredentials.impl.StringCredentialsImpl;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The password of a KSM record, as secret text.
+ */
+public class KsmProvidedString extends KsmProvidedCredential implements StringCredentials {
+
+    private static final long serialVersionUID = 1L;
+
+    public KsmProvidedString(String ksmCredentialId, String ksmCacheKey, String recordUid, String title) {
+        super(ksmCredentialId, ksmCacheKey, recordUid, title);
+    }
+
+    @Override
+    protected List<String> getNotations() {
+        return Collections.singletonList(notation("field/password"));
+    }
+
+    @NonNull
+    @Override
+    public Secret getSecret() {
+        return Secret.fromString((String) getValue("secret", notation("field/password")));
+    }
+
+    @Extension
+    public static class DescriptorImpl extends BaseStandardCredentialsDescriptor {
+        @NonNull
+        @Override
+        public String getDisplayName() {
+            return "Secret text from Keeper Secrets Manager";
+        }
+    }
+
+    // An agent can't retrieve the value, so it gets the value instead.
+    @Extension
+    public static class SnapshotTaker extends CredentialsSnapshotTaker<StringCredentials> {
+        @Override
+        public Class<StringCredentials> type() {
+            return StringCredentials.class;
+        }
+
+        @Override
+        public StringCredentials snapshot(StringCredentials credentials) {
+            if (!(credentials instanceof KsmProvidedString)) {
+                return credentials;
+            }
+            return new StringCredentialsImpl(credentials.getScope(), credentials.getId(),
+                    credentials.getDescription(), credentials.getSecret());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package io.jenkins.plugins.ksm.provider;
+
+import com.cloudbees.plugins.credentials.CredentialsNameProvider;
+import com.cloudbees.plugins.credentials.CredentialsSnapshotTaker;
+import com.cloudbees.plugins.credentials.CredentialsUnavailableException;
+import com.cloudbees.plugins.credentials.NameWith;
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Descriptor;
+import hudson.util.Secret;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The login and password of a KSM record, as a username and password.
+ */
+@NameWith(value = KsmProvidedUsernamePassword.NameProvider.class, priority = 64)
+public class KsmProvidedUsernamePassword extends KsmProvidedCredential implements StandardUsernamePasswordCredentials {
+
+    private static final long serialVersionUID = 1L;
+
+    public KsmProvidedUsernamePassword(String ksmCredentialId, String ksmCacheKey, String recordUid, String title) {
+        super(ksmCredentialId, ksmCacheKey, recordUid, title);
+    }
+
+    @Override
+    protected List<String> getNotations() {
+        return Arrays.asList(notation("field/login"), notation("field/password"));
+    }
+
+    @NonNull
+    @Override
+    public String getUsername() {
+        return (String) getValue("username", notation("field/login"));
+    }
+
+    @NonNull
+    @Override
+    public Secret getPassword() {
+        return Secret.fromString((String) getValue("password", notation("field/password")));
+    }
+
+    @Extension
+    public static class DescriptorImpl extends BaseStandardCredentialsDescriptor {
+        @NonNull
+        @Override
+        public String getDisplayName() {
+            return "Username with password from Keeper Secrets Manager";
+        }
+    }
+
+    // The name shown in credential lists. The default one has the username, which would retrieve the record for
+    // every credential listed.
+    public static class NameProvider extends CredentialsNameProvider<KsmProvidedUsernamePassword> {
+        @NonNull
+        @Override
+        public String getName(@NonNull KsmProvidedUsernamePassword credentials) {
+            String title = credentials.getDescription();
+            if (title == null || title.isEmpty()) {
+                return credentials.getRecordUid();
+            }
+            return title + " (" + credentials.getRecordUid() + ")";
+        }
+    }
+
+    // An agent can't retrieve the values, so it gets the values instead.
+    @Extension
+    public static class SnapshotTaker extends CredentialsSnapshotTaker<StandardUsernamePasswordCredentials> {
+        @Override
+        public Class<StandardUsernamePasswordCredentials> type() {
+            return StandardUsernamePasswordCredentials.class;
+        }
+
+        @Override
+        public StandardUsernamePasswordCredentials snapshot(StandardUsernamePasswordCredentials credentials) {
+            if (!(credentials instanceof KsmProvidedUsernamePassword)) {
+                return credentials;
+            }
+            try {
+                return new UsernamePasswordCredentialsImpl(credentials.getScope(), credentials.getId(),
+                        credentials.getDescription(), credentials.getUsername(),
+                        credentials.getPassword().getPlainText());
+            } catch (Descriptor.FormException e) {
+                throw new CredentialsUnavailableException("password", e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package io.jenkins.plugins.ksm.provider;
+
+import io.jenkins.plugins.ksm.KsmSecret;
+import io.jenkins.plugins.ksm.credential.KsmCredential;
+import io.jenkins.plugins.ksm.notation.KsmNotation;
+import io.jenkins.plugins.ksm.notation.KsmNotationItem;
+import jenkins.util.SystemProperties;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The values of the credentials made from KSM records. A value is only retrieved the first time the credential is
+ * used, not when the credentials are listed, and is then kept for 5 minutes. The time can be changed with the
+ * io.jenkins.plugins.ksm.provider.KsmProvidedValues.ttlSeconds system property, a TTL of 0 retrieves the values every
+ * time they are used.
+ *
+ * The values are kept by the cache key of the KSM credential they were retrieved with, so values retrieved with a
+ * credential are not used once it's replaced by another with the same id.
+ */
+public class KsmProvidedValues {
+
+    private static final Logger logger = Logger.getLogger(KsmProvidedValues.class.getName());
+
+    private static final KsmProvidedValues INSTANCE = new KsmProvidedValues(KsmProvidedValues::retrieve,
+            SystemProperties.getLong(KsmProvidedValues.class.getName() + ".ttlSeconds", 300L));
+
+    interface Resolver {
+        Map<String, Object> resolve(String cacheKey, List<String> notations) throws Exception;
+    }
+
+    private final Resolver resolver;
+    private final long ttlMillis;
+
+    // By the cache key of the KSM credential, then the notation.
+    private final Map<String, Map<String, Entry>> values = new ConcurrentHashMap<>();
+
+    KsmProvidedValues(Resolver resolver, long ttlSeconds) {
+        this.resolver = resolver;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(Math.max(0L, ttlSeconds));
+    }
+
+    public static KsmProvidedValues get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get a value of a credential. If any of the credential's values is missing, or old, they are all retrieved
+     * again together, so a username and password is one request.
+     * @param cacheKey The cache key of the KSM credential
+     * @param notations The notations of all the values of the credential
+     * @param notation The notation of the value
+     * @return The value, a String, or a byte[] for a file
+     * @throws Exception The values could not be retrieved.
+     */
+    public Object getValue(String cacheKey, List<String> notations, String notation) throws Exception {
+        long now = System.currentTimeMillis();
+        Map<String, Entry> credentialValues = values.computeIfAbsent(cacheKey, key -> new ConcurrentHashMap<>());
+        boolean fresh = true;
+        for (String each : notations) {
+            Entry entry = credentialValues.get(each);
+            if (entry == null || now - entry.retrievedAt >= ttlMillis) {
+                fresh = false;
+                break;
+            }
+        }
+        if (fresh) {
+            return credentialValues.get(notation).value;
+        }
+
+        Map<String, Object> resolved = resolver.resolve(cacheKey, notations);
+        for (Map.Entry<String, Object> value : resolved.entrySet()) {
+            credentialValues.put(value.getKey(), new Entry(value.getValue(), now));
+        }
+        return resolved.get(notation);
+    }
+
+    /**
+     * Retrieve the values of every KSM credential with an id again the next time they are used.
+     * @param credentialId The KSM credential id
+     */
+    public void invalidate(String credentialId) {
+        values.keySet().removeIf(key -> isKeyOf(key, credentialId));
+    }
+
+    /**
+     * Retrieve the values of a record again the next time they are used. Called when the record is rotated.
+     * @param credentialId The KSM credential id
+     * @param uid The record UID
+     */
+    public void invalidate(String credentialId, String uid) {
+        String prefix = KsmNotation.notationPrefix + "://" + uid + "/";
+        for (Map.Entry<String, Map<String, Entry>> entry : values.entrySet()) {
+            if (isKeyOf(entry.getKey(), credentialId)) {
+                entry.getValue().keySet().removeIf(notation -> notation.startsWith(prefix));
+            }
+        }
+    }
+
+    private static boolean isKeyOf(String key, String credentialId) {
+        return key.equals(credentialId) || KsmCredential.isCacheKeyOf(key, credentialId);
+    }
+
+    public void invalidateAll() {
+        values.clear();
+    }
+
+    // The same as a build would, so the records come from, and go in, the record cache.
+    private static Map<String, Object> retrieve(String cacheKey, List<String> notations) throws Exception {
+        String credentialId = KsmCredential.idOfCacheKey(cacheKey);
+        KsmCredential credential = KsmCredential.getCredentialFromId(credentialId, null);
+        if (!credential.getCacheKey().equals(cacheKey)) {
+            throw new Exception("The credential " + credentialId + " was changed after its records were offered. "
+                    + "Use the credentials offered now.");
+        }
+        credential.awaitRedemption();
+        if (!credential.getCredentialError().equals("")) {
+            throw new Exception("The credential " + credentialId + " has errors associated with it.");
+        }
+
+        Map<String, KsmNotationItem> items = new LinkedHashMap<>();
+        for (String notation : notations) {
+            items.put(notation, KsmNotation.parse(KsmSecret.destinationEnvVar, "KSM_PROVIDED", null, notation,
+                    false));
+        }
+        new KsmNotation().run(credential, items);
+        logger.log(Level.FINE, "Retrieved " + items.size() + " provided value(s) with credential " + credentialId);
+
+        Map<String, Object> resolved = new LinkedHashMap<>();
+        for (Map.Entry<String, KsmNotationItem> item : items.entrySet()) {
+            resolved.put(item.getKey(), item.getValue().getValue());
+        }
+        return resolved;
+    }
+
+    private static final class Entry {
+
+        private final Object value;
+        private final long retrievedAt;
+
+        Entry(Object value, long retrievedAt) {
+            this.value = value;
+            this.retrievedAt = retrievedAt;
+        }
+    }
+}
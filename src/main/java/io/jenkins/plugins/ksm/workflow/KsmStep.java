@@ -6,10 +6,12 @@ import hudson.FilePath;
 import hudson.console.ConsoleLogFilter;
 import io.jenkins.plugins.ksm.KsmApplication;
 import io.jenkins.plugins.ksm.KsmCommon;
+import io.jenkins.plugins.ksm.cache.KsmPrefetcher;
 import io.jenkins.plugins.ksm.credential.KsmCredential;
 import io.jenkins.plugins.ksm.log.KsmStepConsoleLogFilter;
 import io.jenkins.plugins.ksm.notation.KsmNotation;
 import io.jenkins.plugins.ksm.notation.KsmNotationItem;
+import io.jenkins.plugins.ksm.notation.KsmTemplate;
 import io.jenkins.plugins.ksm.notation.KsmTestNotation;
 import org.jenkinsci.plugins.workflow.steps.*;
 import hudson.Extension;
@@ -45,7 +47,32 @@ public class KsmStep extends Step {
     }
 
     @Override
-    public StepExecution start(StepContext context) {
+    public StepExecution start(StepContext context) throws Exception {
+
+        // Make sure the Jenkinsfile script has valid values before anything is retrieved. The notations were
+        // compiled when the script created the step, so a typo fails the step right away.
+        for (KsmApplication app : application) {
+            for (KsmSecret secret : app.getSecrets()) {
+                try {
+                    secret.validate();
+                }
+                catch(Exception e) {
+                    throw new AbortException(KsmCommon.errorPrefix + "The script has value problems: "
+                            + e.getMessage());
+                }
+                if (secret.isDestinationTemplate()) {
+                    // The notations are in the template, which is read from the workspace when the step runs.
+                    continue;
+                }
+                try {
+                    secret.getCompiledNotation();
+                }
+                catch(Exception e) {
+                    throw new AbortException(KsmCommon.errorPrefix + "Could not parse the secret "
+                            + secret.getName() + ":" + e.getMessage());
+                }
+            }
+        }
         return new Execution(this, context);
     }
 
@@ -108,6 +135,7 @@ public class KsmStep extends Step {
                 KsmCredential credential;
                 try {
                     credential = KsmCredential.getCredentialFromId(application.getCredentialsId(), run.getParent());
+                    credential.awaitRedemption();
                 }
                 catch(Exception e) {
                     throw new AbortException(KsmCommon.errorPrefix + e.getMessage());
@@ -118,16 +146,10 @@ public class KsmStep extends Step {
                 }
 
                 Map<String, KsmNotationItem> notationItems = new HashMap<>();
+                List<KsmTemplate> templates = new ArrayList<>();
                 for(KsmSecret secret : application.getSecrets()) {
 
-                    // Make sure the Jenkinsfile script has valid values.
-                    try {
-                        secret.validate();
-                    }
-                    catch(Exception e) {
-                        throw new AbortException(KsmCommon.errorPrefix + "The script has value problems: "
-                            + e.getMessage());
-                    }
+                    // The secrets were validated when the step started.
 
                     // Get the name of secret which is either the env var name or file path.
                     String secretName = KsmSecret.buildSecretName(
@@ -136,7 +158,23 @@ public class KsmStep extends Step {
                             secret.getFilePath()
                     );
 
-                    // Parse the notation and check if it's valid.
+                    // The notations of a template are resolved with the rest of the secrets.
+                    if (secret.isDestinationTemplate()) {
+                        try {
+                            LOGGER.log(Level.FINE, "Parsing template " + secret.getTemplatePath() + " for secret "
+                                    + secretName);
+
+                            templates.add(KsmTemplate.parse(secret.getFilePath(),
+                                    KsmCommon.readTemplateFromWorkspace(workspace, secret.getTemplatePath())));
+                        }
+                        catch(Exception e) {
+                            throw new AbortException(KsmCommon.errorPrefix + "Could not parse the template "
+                                    + secret.getTemplatePath() + ":" + e.getMessage());
+                        }
+                        continue;
+                    }
+
+                    // Use the notation compiled when the step was created.
                     try {
                         LOGGER.log(Level.FINE, "Parsing notation " + secret.getNotation() + " for secret "
                                 + secretName);
@@ -150,9 +188,16 @@ public class KsmStep extends Step {
                     }
                 }
 
+                // All the secrets, and the notations in the templates, are retrieved at once.
+                Map<String, KsmNotationItem> allItems = new HashMap<>(notationItems);
+                for (KsmTemplate template : templates) {
+                    allItems.putAll(template.getNotationItems());
+                }
+
                 try {
                     // Then run the environmental variables from this application.
-                    getNotationInstance().run(credential, notationItems);
+                    getNotationInstance().run(credential, allItems);
+                    KsmPrefetcher.recordUsage(run.getParent(), credential, allItems.values());
                 }
                 catch(Exception e) {
                     throw new AbortException(KsmCommon.errorPrefix + "The environmental variable replace had problems: "
@@ -167,11 +212,9 @@ public class KsmStep extends Step {
 
                     Object value = notationItem.getValue();
                     if( notationItem.isDestinationEnvVar()) {
-                        // Env Var have to be strings or the OS won't like them. Validate we have a string for the
-                        // env var.
-                        if (value instanceof String ) {
-                            envVars.put(notationItem.getEnvVar(), (String) value);
-                        }
+                        // Env Var have to be strings or the OS won't like them. Only string values, or the fields
+                        // of a bulk notation, are returned.
+                        envVars.putAll(notationItem.getEnvVars());
                     }
                     else {
                         try {
@@ -186,8 +229,17 @@ public class KsmStep extends Step {
                                     + notationItem.getFilePath() + ": " + e.getMessage());
                         }
                     }
-                    if (value instanceof String ) {
-                        secretValues.add((String) value);
+                    secretValues.addAll(notationItem.getSecretValues());
+                }
+
+                for (KsmTemplate template : templates) {
+                    secretValues.addAll(template.getSecretValues());
+                    try {
+                        KsmCommon.writeTemplateToWorkspace(workspace, template.getFilePath(), template);
+                        secretFiles.add(template.getFilePath());
+                    } catch(IOException e) {
+                        throw new AbortException(KsmCommon.errorPrefix + "Could not write secret to "
+                                + template.getFilePath() + ": " + e.getMessage());
                     }
                 }
 
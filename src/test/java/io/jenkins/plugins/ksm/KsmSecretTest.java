@@ -1,9 +1,12 @@
 package io.jenkins.plugins.ksm;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
+import io.jenkins.plugins.ksm.notation.KsmCompiledNotation;
+import io.jenkins.plugins.ksm.notation.KsmNotation;
 import org.junit.Test;
 
 public class KsmSecretTest {
@@ -20,6 +23,26 @@ public class KsmSecretTest {
         new KsmSecret(NOTATION, KsmSecret.destinationFilePath, null, "secret.txt").validate();
     }
 
+    @Test
+    public void validateAcceptsTemplateDestinationWithoutNotation() throws Exception {
+        KsmSecret secret = new KsmSecret(null, KsmSecret.destinationTemplate, null, "settings.xml");
+        secret.setTemplatePath("settings.xml.tpl");
+        secret.validate();
+        assertTrue(secret.isDestinationTemplate());
+    }
+
+    @Test
+    public void validateRejectsTemplateDestinationWithoutPaths() {
+        Exception e = assertThrows(Exception.class,
+                () -> new KsmSecret(null, KsmSecret.destinationTemplate, null, "settings.xml").validate());
+        assertTrue(e.getMessage().toLowerCase().contains("templatepath"));
+
+        KsmSecret secret = new KsmSecret(null, KsmSecret.destinationTemplate, null, "");
+        secret.setTemplatePath("settings.xml.tpl");
+        e = assertThrows(Exception.class, secret::validate);
+        assertTrue(e.getMessage().toLowerCase().contains("filepath"));
+    }
+
     @Test
     public void validateRejectsMissingDestination() {
         Exception e = assertThrows(Exception.class,
@@ -111,4 +134,32 @@ public class KsmSecretTest {
         assertEquals("true", s.isDestinationType("env"));
         assertEquals("", s.isDestinationType("file"));
     }
+
+    @Test
+    public void notationIsCompiledWhenTheSecretIsCreated() throws Exception {
+        KsmSecret s = new KsmSecret(NOTATION, KsmSecret.destinationEnvVar, "X", null);
+        assertSame(KsmCompiledNotation.compile(NOTATION), s.getCompiledNotation());
+        assertEquals("login", s.getCompiledNotation().getFieldKey());
+        assertEquals("login", KsmNotation.parse(s, false).getFieldKey());
+    }
+
+    @Test
+    public void setNotationCompilesTheNewNotation() throws Exception {
+        KsmSecret s = new KsmSecret(NOTATION, KsmSecret.destinationEnvVar, "X", null);
+        s.setNotation("keeper://A_7YpGBUgRTeDEQLhVRo0Q/field/password");
+        assertEquals("password", s.getCompiledNotation().getFieldKey());
+    }
+
+    @Test
+    public void getCompiledNotationRejectsInvalidNotation() {
+        // Creating the secret doesn't fail, using the notation does.
+        KsmSecret s = new KsmSecret("keeper://A_7YpGBUgRTeDEQLhVRo0Q/bogus/login",
+                KsmSecret.destinationEnvVar, "X", null);
+        Exception e = assertThrows(Exception.class, s::getCompiledNotation);
+        assertTrue(e.getMessage().contains("bogus"));
+
+        KsmSecret blank = new KsmSecret("", KsmSecret.destinationEnvVar, "X", null);
+        e = assertThrows(Exception.class, blank::getCompiledNotation);
+        assertTrue(e.getMessage().toLowerCase().contains("notation"));
+    }
 }
@@ -0,0 +1,14 @@
+package io.jenkins.plugins.ksm;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class KsmWarmUpTest {
+
+    @Test
+    public void warmUpRunsWithoutTheNetwork() throws Exception {
+        // Fails if any step of the made up round trip doesn't work with the SDK.
+        assertEquals("password", KsmWarmUp.warmUp(2));
+    }
+}
@@ -0,0 +1,19 @@
+package io.jenkins.plugins.ksm;
+
+import com.keepersecurity.secretsManager.core.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class MockRecords {
+
+    private MockRecords() {
+    }
+
+    // A login record with only what the record indexes look at. The key is never used to decrypt anything.
+    public static KeeperRecord record(String uid, String title, List<KeeperRecordField> fields,
+                                      List<KeeperRecordField> custom, List<KeeperFile> files) {
+        return new KeeperRecord("KEY".getBytes(StandardCharsets.UTF_8), uid, null, null, null,
+                new KeeperRecordData(title, "login", fields, custom, null), 0L, files, null);
+    }
+}
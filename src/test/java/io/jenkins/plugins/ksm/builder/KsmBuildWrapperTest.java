@@ -13,6 +13,7 @@ import hudson.util.Secret;
 import io.jenkins.plugins.ksm.KsmApplication;
 import io.jenkins.plugins.ksm.KsmSecret;
 import io.jenkins.plugins.ksm.MockConfig;
+import io.jenkins.plugins.ksm.cache.KsmPrefetchHistory;
 import io.jenkins.plugins.ksm.credential.KsmCredential;
 import io.jenkins.plugins.ksm.notation.KsmNotation;
 import io.jenkins.plugins.ksm.notation.KsmTestNotation;
@@ -324,4 +325,50 @@ public class KsmBuildWrapperTest {
         assertNull("systemSecretError must be reset at the start of getSecrets",
                 errField.get(wrapper));
     }
+
+    @Test
+    public void testApplicationsSharingACredentialRecordAllUids() throws Exception {
+
+        HashMap<String, String> mockConfig = new MockConfig().makeConfig();
+        KsmCredential credential = new KsmCredential(
+                CredentialsScope.GLOBAL, "SHAREDAPPID", "SHAREDAPPCRED", "",
+                Secret.fromString(mockConfig.get("clientId")),
+                Secret.fromString(mockConfig.get("privateKey")),
+                Secret.fromString(mockConfig.get("appKey")),
+                mockConfig.get("hostname"),
+                false, true);
+        SystemCredentialsProvider.getInstance().setDomainCredentialsMap(
+                Collections.singletonMap(Domain.global(), Collections.singletonList(credential)));
+
+        KsmTestNotation notation = new KsmTestNotation();
+        JSONArray array = new JSONArray();
+        for (String uid : new String[]{"A_7YpGBUgRTeDEQLhVRo0Q", "B_7YpGBUgRTeDEQLhVRo0Q"}) {
+            JSONObject field = new JSONObject();
+            field.put("label", "login");
+            field.put("fieldType", "Login");
+            field.put("values", new JSONArray().put("login-" + uid));
+            JSONObject record = new JSONObject();
+            record.put("uid", uid);
+            record.put("title", "Record " + uid);
+            record.put("type", "login");
+            record.put("fields", new JSONArray().put(field));
+            array.put(record);
+        }
+        notation.addTestData(new JSONObject().put("secrets", array).toString());
+
+        // Two applications, using the same credential, each with their own record.
+        List<KsmApplication> applications = new ArrayList<>();
+        applications.add(new KsmApplication(credential.getId(), Collections.singletonList(new KsmSecret(
+                "keeper://A_7YpGBUgRTeDEQLhVRo0Q/field/login", KsmSecret.destinationEnvVar, "LOGIN_A", null))));
+        applications.add(new KsmApplication(credential.getId(), Collections.singletonList(new KsmSecret(
+                "keeper://B_7YpGBUgRTeDEQLhVRo0Q/field/login", KsmSecret.destinationEnvVar, "LOGIN_B", null))));
+
+        FreeStyleProject project = j.createFreeStyleProject();
+        TestWrapper wrapper = new TestWrapper(applications, notation);
+        wrapper.run(new PrintStream(new ByteArrayOutputStream()), project);
+
+        // The second application doesn't replace what the first one used.
+        assertEquals(new HashSet<>(Arrays.asList("A_7YpGBUgRTeDEQLhVRo0Q", "B_7YpGBUgRTeDEQLhVRo0Q")),
+                KsmPrefetchHistory.get().lookup(project.getFullName()).get(credential.getId()));
+    }
 }
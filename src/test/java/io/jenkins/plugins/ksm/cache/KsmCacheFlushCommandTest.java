@@ -0,0 +1,78 @@
+package io.jenkins.plugins.ksm.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.*;
+
+import hudson.cli.CLICommandInvoker;
+import jenkins.model.Jenkins;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockAuthorizationStrategy;
+
+public class KsmCacheFlushCommandTest {
+
+    private static final String UID_A = "A_7YpGBUgRTeDEQLhVRo0Q";
+    private static final String UID_B = "B_7YpGBUgRTeDEQLhVRo0Q";
+
+    @ClassRule
+    public static JenkinsRule j = new JenkinsRule();
+
+    @Before
+    public void setUp() {
+        j.jenkins.setSecurityRealm(j.createDummySecurityRealm());
+        j.jenkins.setAuthorizationStrategy(new MockAuthorizationStrategy()
+                .grant(Jenkins.ADMINISTER).everywhere().to("admin")
+                .grant(Jenkins.READ).everywhere().to("user"));
+
+        KsmRecordCache.get().invalidateAll();
+        KsmRecordCache.get().putRecord("FLUSHID", KsmRecordCacheTest.makeRecord(UID_A, 1L));
+        KsmRecordCache.get().putRecord("FLUSHID", KsmRecordCacheTest.makeRecord(UID_B, 1L));
+    }
+
+    private static CLICommandInvoker.Result flush(String user, String... args) {
+        return new CLICommandInvoker(j, "ksm-cache-flush").asUser(user).invokeWithArgs(args);
+    }
+
+    @Test
+    public void onlyAdministratorsCanFlush() {
+        CLICommandInvoker.Result result = flush("user", "--all");
+        assertThat(result, CLICommandInvoker.Matcher.failedWith(6));
+        assertThat(result.stderr(), containsString("Overall/Administer"));
+        assertNotNull(KsmRecordCache.get().getRecord("FLUSHID", UID_A));
+    }
+
+    @Test
+    public void flushOneRecord() {
+        CLICommandInvoker.Result result = flush("admin", "-c", "FLUSHID", "-u", UID_A);
+        assertThat(result, CLICommandInvoker.Matcher.succeeded());
+        assertThat(result.stdout(), containsString("FLUSHID: removed 1 of 1 record(s)."));
+        assertNull(KsmRecordCache.get().getRecord("FLUSHID", UID_A));
+        assertNotNull(KsmRecordCache.get().getRecord("FLUSHID", UID_B));
+    }
+
+    @Test
+    public void flushEverything() {
+        CLICommandInvoker.Result result = flush("admin", "--all");
+        assertThat(result, CLICommandInvoker.Matcher.succeeded());
+        assertThat(result.stdout(), containsString("Removed all cached records."));
+        assertNull(KsmRecordCache.get().getRecord("FLUSHID", UID_B));
+    }
+
+    @Test
+    public void unknownCredentialRemovesNothing() {
+        CLICommandInvoker.Result result = flush("admin", "-c", "MISSING", "-u", UID_A);
+        assertThat(result, CLICommandInvoker.Matcher.succeeded());
+        assertThat(result.stdout(), containsString("MISSING: removed 0 of 1 record(s)."));
+        assertNotNull(KsmRecordCache.get().getRecord("FLUSHID", UID_A));
+    }
+
+    @Test
+    public void credentialOrAllIsRequired() {
+        CLICommandInvoker.Result result = flush("admin");
+        assertThat(result, CLICommandInvoker.Matcher.failedWith(2));
+        assertThat(result.stderr(), containsString("Either a credential id (-c) or --all is required."));
+    }
+}
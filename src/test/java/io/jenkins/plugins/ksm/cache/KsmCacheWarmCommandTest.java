@@ -0,0 +1,60 @@
+package io.jenkins.plugins.ksm.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+
+import hudson.cli.CLICommandInvoker;
+import jenkins.model.Jenkins;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockAuthorizationStrategy;
+
+public class KsmCacheWarmCommandTest {
+
+    private static final String UID_A = "A_7YpGBUgRTeDEQLhVRo0Q";
+
+    @ClassRule
+    public static JenkinsRule j = new JenkinsRule();
+
+    @Before
+    public void setUp() {
+        j.jenkins.setSecurityRealm(j.createDummySecurityRealm());
+        j.jenkins.setAuthorizationStrategy(new MockAuthorizationStrategy()
+                .grant(Jenkins.ADMINISTER).everywhere().to("admin")
+                .grant(Jenkins.READ).everywhere().to("user"));
+    }
+
+    private static CLICommandInvoker.Result warm(String user, String... args) {
+        return new CLICommandInvoker(j, "ksm-cache-warm").asUser(user).invokeWithArgs(args);
+    }
+
+    @Test
+    public void onlyAdministratorsCanWarm() {
+        CLICommandInvoker.Result result = warm("user", "-c", "WARMID", "-u", UID_A);
+        assertThat(result, CLICommandInvoker.Matcher.failedWith(6));
+        assertThat(result.stderr(), containsString("Overall/Administer"));
+    }
+
+    @Test
+    public void unknownCredentialFails() {
+        CLICommandInvoker.Result result = warm("admin", "-c", "MISSING", "-u", UID_A);
+        assertThat(result, CLICommandInvoker.Matcher.failedWith(1));
+        assertThat(result.stdout(), containsString("MISSING: failed, Cannot find the credential for the public id."));
+    }
+
+    @Test
+    public void nothingToWarmWithoutHistory() {
+        CLICommandInvoker.Result result = warm("admin", "-c", "NOHISTORY");
+        assertThat(result, CLICommandInvoker.Matcher.succeeded());
+        assertThat(result.stdout(), containsString("Nothing to warm."));
+    }
+
+    @Test
+    public void uidNeedsACredential() {
+        CLICommandInvoker.Result result = warm("admin", "-u", UID_A);
+        assertThat(result, CLICommandInvoker.Matcher.failedWith(2));
+        assertThat(result.stderr(), containsString("A credential id (-c) is required with a record UID (-u)."));
+    }
+}
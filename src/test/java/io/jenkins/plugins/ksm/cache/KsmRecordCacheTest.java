@@ -0,0 +1,269 @@
+package io.jenkins.plugins.ksm.cache;
+
+import static org.junit.Assert.*;
+
+import com.keepersecurity.secretsManager.core.*;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import io.jenkins.plugins.ksm.credential.KsmCredential;
+import io.jenkins.plugins.ksm.notation.KsmNotation;
+import io.jenkins.plugins.ksm.notation.KsmNotationItem;
+import org.junit.Test;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class KsmRecordCacheTest {
+
+    private static final String UID_A = "A_7YpGBUgRTeDEQLhVRo0Q";
+    private static final String UID_B = "B_7YpGBUgRTeDEQLhVRo0Q";
+
+    static KeeperRecord makeRecord(String uid, long revision) {
+        List<KeeperRecordField> fields = new ArrayList<>();
+        fields.add(new Login(Collections.singletonList("user-" + uid)));
+        KeeperRecordData data = new KeeperRecordData("Title " + uid, "login", fields, null, null);
+        return new KeeperRecord("KEY".getBytes(StandardCharsets.UTF_8), uid, null, null, null, data, revision,
+                new ArrayList<>(), null);
+    }
+
+    // Counts how many records are requested from the "vault".
+    static class CountingNotation extends KsmNotation {
+
+        private final KsmRecordCache cache = new KsmRecordCache(KsmRecordCache.DEFAULT_TTL_SECONDS);
+        final List<String> requested = new ArrayList<>();
+        long revision = 1L;
+
+        @Override
+        protected KsmRecordCache getRecordCache() {
+            return cache;
+        }
+
+        @Override
+        public KeeperSecrets getNotationSecrets(SecretsManagerOptions options, List<String> uids) {
+            requested.addAll(uids);
+            List<KeeperRecord> records = new ArrayList<>();
+            for (String uid : uids) {
+                records.add(makeRecord(uid, revision));
+            }
+            return new KeeperSecrets(new AppData("", ""), records, null, null);
+        }
+
+        KeeperSecrets fetch(String credentialId, String... uids) throws Exception {
+            return getSecretsByUid(credentialId, "keepersecurity.com", null, new LinkedHashSet<>(Arrays.asList(uids)));
+        }
+    }
+
+    @Test
+    public void recordIsReturnedUntilInvalidated() {
+        KsmRecordCache cache = new KsmRecordCache(60);
+        cache.putRecord("CRED", makeRecord(UID_A, 1L));
+
+        assertNotNull(cache.getRecord("CRED", UID_A));
+        assertNull(cache.getRecord("OTHER", UID_A));
+
+        cache.invalidate("CRED");
+        assertNull(cache.getRecord("CRED", UID_A));
+    }
+
+    @Test
+    public void credentialsWithTheSameIdDoNotShareRecords() {
+        KsmRecordCache cache = new KsmRecordCache(60);
+        KsmCredential folder = new KsmCredential(CredentialsScope.GLOBAL, "CRED", "CRED", "", null, null, null,
+                "keepersecurity.com", false, false);
+        KsmCredential global = new KsmCredential(CredentialsScope.GLOBAL, "CRED", "CRED", "", null, null, null,
+                "keepersecurity.eu", false, false);
+        KsmCredential other = new KsmCredential(CredentialsScope.GLOBAL, "CRED2", "CRED2", "", null, null, null,
+                "keepersecurity.com", false, false);
+        cache.putRecord(folder.getCacheKey(), makeRecord(UID_A, 1L));
+        cache.putRecord(other.getCacheKey(), makeRecord(UID_A, 1L));
+
+        assertNotNull(cache.getRecord(folder.getCacheKey(), UID_A));
+        assertNull(cache.getRecord(global.getCacheKey(), UID_A));
+        assertEquals("CRED", cache.summarize(folder.getCacheKey()).getCredentialId());
+
+        // Flushing by id removes the records for the id in every store, and nothing else.
+        cache.invalidate("CRED");
+        assertNull(cache.getRecord(folder.getCacheKey(), UID_A));
+        assertNotNull(cache.getRecord(other.getCacheKey(), UID_A));
+    }
+
+    @Test
+    public void singleRecordCanBeInvalidated() {
+        KsmRecordCache cache = new KsmRecordCache(60);
+        KeeperFileData fileData = new KeeperFileData("cert.pem", "cert.pem", "", 3L, 1L);
+        KeeperFile file = new KeeperFile("KEY".getBytes(StandardCharsets.UTF_8), "FILE_A", fileData, "http://localhost", null);
+        KeeperRecordData data = new KeeperRecordData("Title", "file", new ArrayList<>(), null, null);
+        cache.putRecord("CRED", new KeeperRecord("KEY".getBytes(StandardCharsets.UTF_8), UID_A, null, null, null,
+                data, 1L, Collections.singletonList(file), null));
+        cache.putFile("CRED", "FILE_A", new byte[]{1, 2, 3});
+        cache.putRecord("CRED", makeRecord(UID_B, 1L));
+        cache.putPinnedRecord("CRED", makeRecord(UID_A, 1L));
+
+        assertTrue(cache.invalidate("CRED", UID_A));
+        assertNull(cache.getRecord("CRED", UID_A));
+        assertNull(cache.getFile("CRED", "FILE_A"));
+        assertNull(cache.getPinnedRecord("CRED", UID_A, 1L));
+
+        // Other records are left alone.
+        assertNotNull(cache.getRecord("CRED", UID_B));
+        assertFalse(cache.invalidate("CRED", UID_A));
+    }
+
+    @Test
+    public void hitsAndMissesAreCounted() {
+        KsmRecordCache cache = new KsmRecordCache(60);
+        cache.putRecord("CRED", makeRecord(UID_A, 1L));
+        cache.putFile("CRED", "FILE", new byte[]{1, 2, 3});
+
+        cache.getRecord("CRED", UID_A);
+        cache.getRecord("CRED", UID_A);
+        cache.getRecord("CRED", UID_B);
+        cache.getFile("CRED", "FILE");
+        // Checking for a record, when warming, is not a lookup by a build.
+        cache.hasRecord("CRED", UID_B);
+
+        KsmRecordCache.Stats stats = cache.getStats("CRED");
+        assertEquals(2, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(66, stats.getHitRatio());
+        assertEquals(1, stats.getFileHits());
+
+        KsmRecordCache.Summary summary = cache.summarize("CRED");
+        assertEquals(1, summary.getRecords());
+        assertEquals(1, summary.getFiles());
+        assertEquals(3, summary.getFileBytes());
+        assertEquals(Collections.singleton("CRED"), cache.getCacheKeys());
+    }
+
+    @Test
+    public void recordMemoryIsEstimated() {
+        KsmRecordCache cache = new KsmRecordCache(KsmRecordCache.DEFAULT_TTL_SECONDS);
+        assertEquals(0, cache.summarize("CRED").getRecordBytes());
+
+        cache.putRecord("CRED", makeRecord(UID_A, 1L));
+        long one = cache.summarize("CRED").getRecordBytes();
+        assertEquals(KsmRecordCache.estimateBytes(makeRecord(UID_A, 1L)), one);
+        assertTrue(one > 0);
+
+        cache.putRecord("CRED", makeRecord(UID_B, 1L));
+        assertEquals(2 * one, cache.summarize("CRED").getRecordBytes());
+    }
+
+    @Test
+    public void zeroTtlDisablesCache() {
+        KsmRecordCache cache = new KsmRecordCache(0);
+        cache.putRecord("CRED", makeRecord(UID_A, 1L));
+        cache.putFile("CRED", "FILE", new byte[]{1, 2, 3});
+
+        assertFalse(cache.isEnabled());
+        assertNull(cache.getRecord("CRED", UID_A));
+        assertNull(cache.getFile("CRED", "FILE"));
+    }
+
+    @Test
+    public void onlyMissingRecordsAreFetched() throws Exception {
+        CountingNotation notation = new CountingNotation();
+
+        assertEquals(1, notation.fetch("CRED", UID_A).getRecords().size());
+        assertEquals(2, notation.fetch("CRED", UID_A, UID_B).getRecords().size());
+        assertEquals(Arrays.asList(UID_A, UID_B), notation.requested);
+
+        // Another credential does not share the cached records.
+        notation.fetch("OTHER", UID_A);
+        assertEquals(Arrays.asList(UID_A, UID_B, UID_A), notation.requested);
+    }
+
+    @Test
+    public void largePinnedRevisionMatchesTheRecord() throws Exception {
+        CountingNotation notation = new CountingNotation();
+        // Outside the range of cached Long instances.
+        notation.revision = 100000L;
+        KsmCredential credential = new KsmCredential(CredentialsScope.GLOBAL, "CRED", "CRED", "", null, null, null,
+                "keepersecurity.com", false, false);
+
+        for (int i = 0; i < 2; i++) {
+            Map<String, KsmNotationItem> items = new HashMap<>();
+            KsmNotationItem item = KsmNotation.parse("X", "keeper://" + UID_A + "@100000/field/login", false);
+            items.put(item.getName(), item);
+            notation.run(credential, items);
+            assertNull(item.getError());
+            assertEquals("user-" + UID_A, item.getValue());
+        }
+        // The second time, the pinned record came from the cache.
+        assertEquals(Collections.singletonList(UID_A), notation.requested);
+    }
+
+    @Test
+    public void pinnedRecordIsKeptUntilANewerRevisionIsSeen() {
+        KsmRecordCache cache = new KsmRecordCache(60);
+        cache.putPinnedRecord("CRED", makeRecord(UID_A, 5L));
+
+        assertNotNull(cache.getPinnedRecord("CRED", UID_A, 5L));
+        assertNull(cache.getPinnedRecord("CRED", UID_A, 4L));
+
+        // Purging expired entries leaves pinned records that haven't expired alone.
+        cache.purgeExpired();
+        assertNotNull(cache.getPinnedRecord("CRED", UID_A, 5L));
+
+        // The record was updated; revision 5 is no longer current.
+        cache.putRecord("CRED", makeRecord(UID_A, 6L));
+        assertNull(cache.getPinnedRecord("CRED", UID_A, 5L));
+    }
+
+    @Test
+    public void leastRecentlyUsedRecordsAreDroppedWhenFull() {
+        KsmRecordCache cache = new KsmRecordCache(60, 3600, 10, 10);
+        for (int i = 0; i < 10; i++) {
+            cache.putRecord("CRED", makeRecord("UID_" + i, 1L));
+        }
+        // Used after the others were added, so it's the most recent.
+        assertNotNull(cache.getRecord("CRED", "UID_0"));
+        cache.putRecord("CRED", makeRecord("UID_10", 1L));
+
+        assertEquals(9, cache.summarize("CRED").getRecords());
+        assertNotNull(cache.getRecord("CRED", "UID_0"));
+        assertNotNull(cache.getRecord("CRED", "UID_10"));
+        assertNull(cache.getRecord("CRED", "UID_1"));
+
+        // Pinned records have the same limit.
+        for (int i = 0; i < 20; i++) {
+            cache.putPinnedRecord("CRED", makeRecord("PIN_" + i, 1L));
+        }
+        assertTrue(cache.summarize("CRED").getPinnedRecords() <= 10);
+        assertNotNull(cache.getPinnedRecord("CRED", "PIN_19", 1L));
+    }
+
+    @Test
+    public void invalidatingACredentialDropsItsCounters() {
+        KsmRecordCache cache = new KsmRecordCache(60);
+        cache.putRecord("CRED", makeRecord(UID_A, 1L));
+        cache.getRecord("CRED", UID_A);
+        cache.getRecord("OTHER", UID_A);
+        assertEquals(new TreeSet<>(Arrays.asList("CRED", "OTHER")), cache.getCacheKeys());
+
+        cache.invalidate("CRED");
+        assertEquals(Collections.singleton("OTHER"), cache.getCacheKeys());
+    }
+
+    @Test
+    public void zeroStaleSecondsNeverServesExpiredRecords() {
+        KsmRecordCache cache = new KsmRecordCache(60, 0);
+        cache.putRecord("CRED", makeRecord(UID_A, 1L));
+        assertNull(cache.getStaleRecord("CRED", UID_A));
+
+        KsmRecordCache stale = new KsmRecordCache(60, 3600);
+        stale.putRecord("CRED", makeRecord(UID_A, 1L));
+        assertNotNull(stale.getStaleRecord("CRED", UID_A));
+    }
+
+    @Test
+    public void historyKeepsLatestUidsPerCredential() {
+        KsmPrefetchHistory history = new KsmPrefetchHistory(2);
+        history.record("job1", "CRED", Collections.singletonList(UID_A));
+        history.record("job1", "CRED", Collections.singletonList(UID_B));
+        history.record("job2", "CRED", Collections.singletonList(UID_A));
+        history.record("job3", "CRED", Collections.singletonList(UID_A));
+
+        // job1 was the least recently used, and was dropped.
+        assertTrue(history.lookup("job1").isEmpty());
+        assertEquals(Collections.singleton(UID_A), history.lookup("job3").get("CRED"));
+    }
+}
@@ -0,0 +1,123 @@
+package io.jenkins.plugins.ksm.cache;
+
+import static io.jenkins.plugins.ksm.MockRecords.record;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.keepersecurity.secretsManager.core.*;
+import io.jenkins.plugins.ksm.credential.KsmCredential;
+import io.jenkins.plugins.ksm.notation.KsmCompiledNotation;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class KsmVaultIndexTest {
+
+    private static final String UID_A = "A_7YpGBUgRTeDEQLhVRo0Q";
+    private static final String UID_B = "Ipk9NR1rCBZXyflWbPwTGA";
+
+    private static KsmVaultIndex.Snapshot snapshot() {
+        KeeperFile file = new KeeperFile("KEY".getBytes(StandardCharsets.UTF_8), "FILE_A_0",
+                new KeeperFileData("Cat", "cat.png", "", 1L, 1L), "http://localhost", null);
+        KeeperRecord first = record(UID_A, "Database",
+                Arrays.asList(
+                        new Login("Account", Collections.singletonList("admin")),
+                        new Password(null, true, false, false, null, Collections.singletonList("secret"))),
+                Collections.singletonList(new Text("Lock Box", Collections.singletonList("basement"))),
+                Collections.singletonList(file));
+        KeeperRecord second = record(UID_B, "Web/Server",
+                Collections.singletonList(new Login(null, Collections.singletonList("web"))), null, null);
+        return KsmVaultIndex.Snapshot.of(new KeeperSecrets(new AppData("", ""), Arrays.asList(first, second),
+                null, null));
+    }
+
+    private static String check(KsmVaultIndex.Snapshot snapshot, String notation) throws Exception {
+        return snapshot.check(KsmCompiledNotation.compile(notation));
+    }
+
+    @Test
+    public void checkFindsRecordsFieldsAndFiles() throws Exception {
+        KsmVaultIndex.Snapshot snapshot = snapshot();
+        assertNull(check(snapshot, "keeper://" + UID_A + "/field/login"));
+        assertNull(check(snapshot, "keeper://Database/field/Account"));
+        assertNull(check(snapshot, "keeper://" + UID_A + "/field/password[0]"));
+        assertNull(check(snapshot, "keeper://" + UID_A + "/custom_field/Lock Box"));
+        assertNull(check(snapshot, "keeper://" + UID_A + "/file/cat.png"));
+        assertNull(check(snapshot, "keeper://" + UID_A + "/field/{login,password}"));
+        assertNull(check(snapshot, "keeper://" + UID_A + "/custom_field/*"));
+    }
+
+    @Test
+    public void checkReportsWhatIsMissing() throws Exception {
+        KsmVaultIndex.Snapshot snapshot = snapshot();
+        assertEquals("No record with the UID or title Missing was found.",
+                check(snapshot, "keeper://Missing/field/login"));
+        assertEquals("The record " + UID_A + " does not have the field url. It has login, Account, password.",
+                check(snapshot, "keeper://" + UID_A + "/field/url"));
+        assertEquals("The record " + UID_A + " does not have the field pin. It has login, Account, password.",
+                check(snapshot, "keeper://" + UID_A + "/field/{login,pin}"));
+        assertEquals("The record " + UID_A + " does not have the file dog.png.",
+                check(snapshot, "keeper://" + UID_A + "/file/dog.png"));
+
+        // Files are only found by the record UID.
+        assertEquals("No record with the UID Database was found.", check(snapshot, "keeper://Database/file/Cat"));
+    }
+
+    @Test
+    public void suggestEachPartOfTheNotation() {
+        KsmVaultIndex.Snapshot snapshot = snapshot();
+
+        assertEquals(Collections.singletonList("keeper://" + UID_A + "/"), snapshot.suggest("keeper://a_7", 20));
+        assertEquals(Collections.singletonList("keeper://Database/"), snapshot.suggest("data", 20));
+        // A title with a '/' would have to be escaped, so it's not suggested.
+        assertTrue(snapshot.suggest("keeper://Web", 20).isEmpty());
+        assertEquals(1, snapshot.suggest("keeper://", 1).size());
+
+        assertEquals(Arrays.asList("keeper://Database/field/", "keeper://Database/file/"),
+                snapshot.suggest("keeper://Database/fi", 20));
+        assertEquals(Arrays.asList("keeper://Database/field/login", "keeper://Database/field/Account"),
+                snapshot.suggest("keeper://Database/field/", 2));
+        assertEquals(Collections.singletonList("keeper://" + UID_A + "/custom_field/Lock Box"),
+                snapshot.suggest("keeper://" + UID_A + "/custom_field/lo", 20));
+        assertEquals(Arrays.asList("keeper://" + UID_A + "/file/cat.png", "keeper://" + UID_A + "/file/Cat"),
+                snapshot.suggest("keeper://" + UID_A + "/file/c", 20));
+    }
+
+    @Test
+    public void invalidateKeepsTheSnapshotUntilItIsLoadedAgain() {
+        KsmVaultIndex index = new KsmVaultIndex();
+        KsmVaultIndex.Snapshot snapshot = snapshot();
+        index.put(credential("cred", "keepersecurity.com").getCacheKey(), snapshot);
+        assertFalse(snapshot.isStale());
+
+        index.invalidate("cred");
+        assertTrue(snapshot.isStale());
+        index.invalidate("unknown");
+    }
+
+    @Test
+    public void invalidateExpiresEveryCredentialWithTheId() {
+        KsmVaultIndex index = new KsmVaultIndex();
+        KsmVaultIndex.Snapshot folder = snapshot();
+        KsmVaultIndex.Snapshot global = snapshot();
+        KsmVaultIndex.Snapshot other = snapshot();
+        index.put(credential("cred", "keepersecurity.com").getCacheKey(), folder);
+        index.put(credential("cred", "keepersecurity.eu").getCacheKey(), global);
+        index.put(credential("cred2", "keepersecurity.com").getCacheKey(), other);
+
+        index.invalidate("cred");
+        assertTrue(folder.isStale());
+        assertTrue(global.isStale());
+        assertFalse(other.isStale());
+    }
+
+    private static KsmCredential credential(String id, String hostname) {
+        return new KsmCredential(CredentialsScope.GLOBAL, id, id, "", null, null, null, hostname, false, false);
+    }
+}
@@ -1,14 +1,27 @@
 package io.jenkins.plugins.ksm.credemtial;
 
+import com.cloudbees.hudson.plugins.folder.Folder;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.CredentialsStore;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.domains.Domain;
+import com.keepersecurity.secretsManager.core.KeeperRecord;
+import com.keepersecurity.secretsManager.core.KeeperRecordData;
+import hudson.model.FreeStyleProject;
 import hudson.util.FormValidation;
 import hudson.util.Secret;
+import com.keepersecurity.secretsManager.core.SecretsManagerOptions;
+import io.jenkins.plugins.ksm.KsmQuery;
 import io.jenkins.plugins.ksm.MockConfig;
+import io.jenkins.plugins.ksm.cache.KsmRecordCache;
 import io.jenkins.plugins.ksm.credential.KsmCredential;
 import org.junit.ClassRule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
 
 import static org.junit.Assert.*;
@@ -95,4 +108,117 @@ public class KsmCredentialTest {
         result = descriptor.doCheckDescription("I HAVE TEXT");
         assertEquals("OK: <div/>", result.toString());
     }
+
+    @Test
+    public void testOptionsCache() throws Exception {
+
+        HashMap<String, String> mockConfig = new MockConfig().makeConfig();
+
+        KsmCredential credential = new KsmCredential(
+                CredentialsScope.GLOBAL,
+                "CACHEID",
+                "MYCRED",
+                "",
+                Secret.fromString(mockConfig.get("clientId")),
+                Secret.fromString(mockConfig.get("privateKey")),
+                Secret.fromString(mockConfig.get("appKey")),
+                mockConfig.get("hostname"),
+                false,
+                true);
+
+        // The same credential gets the same options.
+        SecretsManagerOptions options = KsmQuery.getOptions(credential);
+        assertSame(options, KsmQuery.getOptions(credential));
+
+        // Updating the credential builds new options.
+        KsmCredential updated = new KsmCredential(
+                CredentialsScope.GLOBAL,
+                "CACHEID",
+                "MYCRED",
+                "",
+                Secret.fromString(mockConfig.get("clientId")),
+                Secret.fromString(mockConfig.get("privateKey")),
+                Secret.fromString(mockConfig.get("appKey")),
+                "keepersecurity.eu",
+                false,
+                true);
+        assertNotSame(options, KsmQuery.getOptions(updated));
+        assertEquals("keepersecurity.eu", KsmQuery.getOptions(updated).getStorage().getString("hostname"));
+    }
+
+    @Test
+    public void testTokenRedemptionRunsInBackground() throws Exception {
+
+        // Nothing is listening on this port, so the token cannot be redeemed.
+        KsmCredential credential = new KsmCredential(
+                CredentialsScope.GLOBAL,
+                "TOKENID",
+                "MYCRED",
+                "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA",
+                Secret.fromString(""),
+                Secret.fromString(""),
+                Secret.fromString(""),
+                "127.0.0.1:1",
+                false,
+                true);
+
+        assertNotEquals(KsmCredential.State.READY, credential.getState());
+        // The token is not kept in plain text while it's being redeemed.
+        assertEquals("", credential.getToken());
+
+        credential.awaitRedemption();
+        assertEquals(KsmCredential.State.ERROR, credential.getState());
+        assertTrue(credential.getCredentialError().startsWith(KsmCredential.tokenErrorPrefix));
+    }
+
+    private static KsmCredential credential(String id, HashMap<String, String> mockConfig) {
+        return new KsmCredential(
+                CredentialsScope.GLOBAL,
+                id,
+                "MYCRED",
+                "",
+                Secret.fromString(mockConfig.get("clientId")),
+                Secret.fromString(mockConfig.get("privateKey")),
+                Secret.fromString(mockConfig.get("appKey")),
+                mockConfig.get("hostname"),
+                false,
+                true);
+    }
+
+    @Test
+    public void testSameIdInTwoStoresDoesNotShareCache() throws Exception {
+
+        // A folder credential with the same id as a global one, for a different application.
+        KsmCredential global = credential("SHAREDID", new MockConfig().makeConfig());
+        SystemCredentialsProvider.getInstance().getCredentials().add(global);
+        SystemCredentialsProvider.getInstance().save();
+
+        Folder folder = j.jenkins.createProject(Folder.class, "ksm-folder");
+        FreeStyleProject job = folder.createProject(FreeStyleProject.class, "job");
+        KsmCredential local = credential("SHAREDID", new MockConfig().makeConfig());
+        for (CredentialsStore store : CredentialsProvider.lookupStores(folder)) {
+            if (store.getContext() == folder) {
+                store.addCredentials(Domain.global(), local);
+            }
+        }
+
+        assertSame(local, KsmCredential.getCredentialFromId("SHAREDID", job));
+        assertSame(global, KsmCredential.getCredentialFromId("SHAREDID", null));
+        assertNotEquals(global.getCacheKey(), local.getCacheKey());
+        assertEquals("SHAREDID", KsmCredential.idOfCacheKey(local.getCacheKey()));
+
+        // A record fetched with the folder credential is not served to the global one.
+        KeeperRecordData data = new KeeperRecordData("Title", "login", new ArrayList<>(), null, null);
+        KeeperRecord record = new KeeperRecord("KEY".getBytes(StandardCharsets.UTF_8), "A_7YpGBUgRTeDEQLhVRo0Q",
+                null, null, null, data, 1L, new ArrayList<>(), null);
+        KsmRecordCache.get().putRecord(local.getCacheKey(), record);
+        assertNotNull(KsmRecordCache.get().getRecord(local.getCacheKey(), record.getRecordUid()));
+        assertNull(KsmRecordCache.get().getRecord(global.getCacheKey(), record.getRecordUid()));
+        assertNotSame(KsmQuery.getOptions(local), KsmQuery.getOptions(global));
+        assertNotSame(local.getBulkhead(), global.getBulkhead());
+
+        // Flushing the id flushes it in every store.
+        KsmRecordCache.get().invalidate("SHAREDID");
+        assertNull(KsmRecordCache.get().getRecord(local.getCacheKey(), record.getRecordUid()));
+    }
 }
@@ -0,0 +1,151 @@
+package io.jenkins.plugins.ksm.credential;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import io.jenkins.plugins.ksm.http.KsmHttpStatusException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class KsmCredentialHealthTest {
+
+    private static KsmCredential credential(String id) {
+        return credential(id, "keepersecurity.com");
+    }
+
+    private static KsmCredential credential(String id, String hostname) {
+        return new KsmCredential(CredentialsScope.GLOBAL, id, id, "", null, null, null, hostname, false, false);
+    }
+
+    private static KsmCredentialHealth.Result result(KsmCredentialHealth health, String id) {
+        return health.getResult(credential(id).getCacheKey());
+    }
+
+    @Test
+    public void credentialsAreCheckedInParallel() throws Exception {
+        Map<String, Thread> threads = new ConcurrentHashMap<>();
+        KsmCredentialHealth health = new KsmCredentialHealth(credential -> {
+            threads.put(credential.getId(), Thread.currentThread());
+            switch (credential.getId()) {
+                case "down":
+                    throw new IOException("Connection refused");
+                case "revoked":
+                    throw new KsmHttpStatusException(403, "Access denied");
+                default:
+                    Thread.sleep(50);
+            }
+        }, true);
+
+        assertEquals(3, health.checkAll(Arrays.asList(credential("ok"), credential("down"), credential("revoked"))));
+        assertEquals(3, threads.size());
+        assertTrue(!threads.containsValue(Thread.currentThread()));
+
+        assertEquals(KsmCredentialHealth.Status.HEALTHY, result(health, "ok").getStatus());
+        assertTrue(result(health, "ok").getLatencyMillis() >= 50);
+        assertNull(result(health, "ok").getError());
+        assertEquals(KsmCredentialHealth.Status.UNREACHABLE, result(health, "down").getStatus());
+        assertEquals(KsmCredentialHealth.Status.REJECTED, result(health, "revoked").getStatus());
+
+        // Sorted by id.
+        assertEquals(2, health.getProblems().size());
+        assertEquals("down", health.getProblems().get(0).getCredentialId());
+    }
+
+    @Test
+    public void onlyRejectedCredentialsFailFast() throws Exception {
+        KsmCredentialHealth health = new KsmCredentialHealth(credential -> {
+            if (credential.getId().equals("down")) {
+                throw new IOException("Connection refused");
+            }
+            throw new KsmHttpStatusException(403, "Access denied");
+        }, true);
+        KsmCredential down = credential("down");
+        KsmCredential revoked = credential("revoked");
+
+        // Nothing is known before the first check.
+        health.checkUsable(revoked);
+
+        health.checkAll(Arrays.asList(down, revoked));
+        health.checkUsable(down);
+        try {
+            health.checkUsable(revoked);
+            fail("A rejected credential should fail fast");
+        } catch (Exception e) {
+            assertTrue(e.getMessage().contains("Access denied"));
+        }
+
+        // Changing the credential forgets the result.
+        health.invalidate("revoked");
+        assertNull(result(health, "revoked"));
+        health.checkUsable(revoked);
+    }
+
+    @Test
+    public void failFastCanBeTurnedOff() throws Exception {
+        KsmCredentialHealth health = new KsmCredentialHealth(credential -> {
+            throw new KsmHttpStatusException(401, "Unauthorized");
+        }, false);
+        KsmCredential revoked = credential("revoked");
+        health.checkAll(Arrays.asList(revoked));
+        assertEquals(KsmCredentialHealth.Status.REJECTED, result(health, "revoked").getStatus());
+        health.checkUsable(revoked);
+    }
+
+    @Test
+    public void credentialsWithTheSameIdAreCheckedSeparately() throws Exception {
+        KsmCredentialHealth health = new KsmCredentialHealth(credential -> {
+            if (credential.getHostname().equals("keepersecurity.eu")) {
+                throw new KsmHttpStatusException(403, "Access denied");
+            }
+        }, true);
+        KsmCredential folder = credential("cred", "keepersecurity.com");
+        KsmCredential global = credential("cred", "keepersecurity.eu");
+
+        assertEquals(2, health.checkAll(Arrays.asList(folder, global)));
+        assertEquals(KsmCredentialHealth.Status.HEALTHY, health.getResult(folder.getCacheKey()).getStatus());
+        assertEquals(KsmCredentialHealth.Status.REJECTED, health.getResult(global.getCacheKey()).getStatus());
+        health.checkUsable(folder);
+        try {
+            health.checkUsable(global);
+            fail("A rejected credential should fail fast");
+        } catch (Exception e) {
+            assertTrue(e.getMessage().contains("Access denied"));
+        }
+
+        health.invalidate("cred");
+        assertNull(health.getResult(folder.getCacheKey()));
+        assertNull(health.getResult(global.getCacheKey()));
+    }
+
+    @Test
+    public void onlyRefusedKeysAreRejected() throws Exception {
+        assertEquals(KsmCredentialHealth.Status.REJECTED,
+                KsmCredentialHealth.classify(new KsmHttpStatusException(401, "Unauthorized")));
+        assertEquals(KsmCredentialHealth.Status.REJECTED, KsmCredentialHealth.classify(
+                new Exception("{\"error\":\"access_denied\",\"message\":\"Signature is invalid\"}")));
+        assertEquals(KsmCredentialHealth.Status.REJECTED, KsmCredentialHealth.classify(
+                new Exception("{\"result_code\":\"invalid_client\",\"message\":\"Client not found\"}")));
+        assertEquals(KsmCredentialHealth.Status.FAILED, KsmCredentialHealth.classify(
+                new KsmHttpStatusException(400, "Bad request")));
+        assertEquals(KsmCredentialHealth.Status.FAILED, KsmCredentialHealth.classify(
+                new Exception("Unexpected character (<) at position 0")));
+        assertEquals(KsmCredentialHealth.Status.FAILED, KsmCredentialHealth.classify(
+                new Exception("Record 'AAAAAAAAAAAAAAAAAAAAAA' not found")));
+
+        // A failure that isn't a rejection doesn't stop builds.
+        KsmCredentialHealth health = new KsmCredentialHealth(credential -> {
+            throw new Exception("Unexpected character (<) at position 0");
+        }, true);
+        KsmCredential broken = credential("broken");
+        health.checkAll(Arrays.asList(broken));
+        assertEquals(KsmCredentialHealth.Status.FAILED, health.getResult(broken.getCacheKey()).getStatus());
+        health.checkUsable(broken);
+    }
+}
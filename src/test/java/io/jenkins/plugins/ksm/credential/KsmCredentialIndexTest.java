@@ -0,0 +1,157 @@
+package io.jenkins.plugins.ksm.credential;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import hudson.model.Item;
+import hudson.util.ListBoxModel;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class KsmCredentialIndexTest {
+
+    private static KsmCredential credential(String id) {
+        return new KsmCredential(CredentialsScope.GLOBAL, id, id, "", null, null, null, "keepersecurity.com",
+                false, false);
+    }
+
+    private static Item item(String fullName) {
+        return (Item) Proxy.newProxyInstance(Item.class.getClassLoader(), new Class<?>[]{Item.class},
+                (proxy, method, args) -> method.getName().equals("getFullName") ? fullName : null);
+    }
+
+    // Counts the lookups, which are what the index is avoiding.
+    private static class Lookup {
+        final Map<String, List<KsmCredential>> credentials = new HashMap<>();
+        final List<String> calls = new ArrayList<>();
+
+        List<KsmCredential> apply(Item item) {
+            String name = item == null ? "" : item.getFullName();
+            calls.add(name);
+            return credentials.getOrDefault(name, new ArrayList<>());
+        }
+    }
+
+    @Test
+    public void credentialsAreLookedUpOncePerItem() {
+        Lookup lookup = new Lookup();
+        KsmCredential first = credential("ksm");
+        lookup.credentials.put("folder/job", Arrays.asList(first, credential("ksm"), credential("other")));
+        KsmCredentialIndex index = new KsmCredentialIndex(lookup::apply, 300, 100);
+
+        Item job = item("folder/job");
+        for (int i = 0; i < 5; i++) {
+            // When two stores have the same id, the first one is used, the same as the lookup.
+            assertSame(first, index.getCredential("ksm", job));
+        }
+        assertEquals(3, index.getCredentials(job).size());
+        assertEquals(1, lookup.calls.size());
+
+        // An id that isn't there is looked up once more, in case it was just added.
+        assertNull(index.getCredential("missing", job));
+        assertEquals(2, lookup.calls.size());
+    }
+
+    @Test
+    public void invalidatingAFolderLooksUpTheItemsInIt() {
+        Lookup lookup = new Lookup();
+        KsmCredentialIndex index = new KsmCredentialIndex(lookup::apply, 300, 100);
+        index.getCredentials(item("folder/job"));
+        index.getCredentials(item("folder2/job"));
+        index.getCredentials(null);
+        assertEquals(3, index.size());
+
+        index.invalidate("folder");
+        assertEquals(2, index.size());
+        index.getCredentials(item("folder/job"));
+        assertEquals(4, lookup.calls.size());
+
+        index.invalidateAll();
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void savingAFolderOnlyInvalidatesWhenItsCredentialsChange() {
+        Lookup lookup = new Lookup();
+        KsmCredentialIndex index = new KsmCredentialIndex(lookup::apply, 300, 100);
+        KsmCredential ksm = credential("ksm");
+        index.getCredentials(item("folder/job"));
+        index.getCredentials(item("other/job"));
+
+        // What the folder had before its first save isn't known.
+        index.invalidateIfChanged("folder", Arrays.asList(ksm));
+        assertEquals(1, index.size());
+        index.getCredentials(item("folder/job"));
+
+        // Saved again, like a multibranch project after a scan, with the same credentials.
+        index.invalidateIfChanged("folder", Arrays.asList(ksm));
+        assertEquals(2, index.size());
+
+        // A credential was updated, which replaces it.
+        index.invalidateIfChanged("folder", Arrays.asList(credential("ksm")));
+        assertEquals(1, index.size());
+        index.getCredentials(item("folder/job"));
+
+        // A credential was removed.
+        index.invalidateIfChanged("folder", new ArrayList<>());
+        assertEquals(1, index.size());
+        assertEquals(Arrays.asList("folder/job", "other/job", "folder/job", "folder/job"), lookup.calls);
+    }
+
+    @Test
+    public void theLeastRecentlyUsedItemIsDropped() {
+        Lookup lookup = new Lookup();
+        KsmCredentialIndex index = new KsmCredentialIndex(lookup::apply, 300, 2);
+        index.getCredentials(item("a"));
+        index.getCredentials(item("b"));
+        index.getCredentials(item("a"));
+        index.getCredentials(item("c"));
+        assertEquals(2, index.size());
+
+        // b was dropped, a was not.
+        index.getCredentials(item("a"));
+        index.getCredentials(item("b"));
+        assertEquals(Arrays.asList("a", "b", "c", "b"), lookup.calls);
+    }
+
+    @Test
+    public void aTtlOfZeroAlwaysLooksUp() {
+        Lookup lookup = new Lookup();
+        lookup.credentials.put("", Arrays.asList(credential("ksm")));
+        KsmCredentialIndex index = new KsmCredentialIndex(lookup::apply, 0, 100);
+        index.getCredential("ksm", null);
+        index.getCredential("ksm", null);
+        assertEquals(2, lookup.calls.size());
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void optionsAreBuiltOncePerItem() {
+        Lookup lookup = new Lookup();
+        lookup.credentials.put("job", Arrays.asList(credential("b"), credential("a"), credential("b")));
+        KsmCredentialIndex index = new KsmCredentialIndex(lookup::apply, 300, 100);
+
+        // One option for each id, sorted by name.
+        List<ListBoxModel.Option> options = index.getOptions(item("job"));
+        assertEquals(2, options.size());
+        assertEquals("a", options.get(0).value);
+        assertEquals("b", options.get(1).value);
+
+        // Each call gets its own copy, from the same lookup.
+        options.get(0).selected = true;
+        options.clear();
+        List<ListBoxModel.Option> again = index.getOptions(item("job"));
+        assertEquals(2, again.size());
+        assertFalse(again.get(0).selected);
+        assertEquals(1, lookup.calls.size());
+    }
+}
@@ -0,0 +1,64 @@
+package io.jenkins.plugins.ksm.http;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class KsmBulkheadTest {
+
+    @Test
+    public void saturatedBulkheadRejects() throws Exception {
+        KsmBulkhead bulkhead = new KsmBulkhead("MYID", 1, 0);
+        bulkhead.acquire();
+        assertEquals(1, bulkhead.getInFlight());
+
+        Exception e = assertThrows(Exception.class, bulkhead::acquire);
+        assertTrue(e.getMessage().contains("'MYID'"));
+        assertEquals(1, bulkhead.getRejected());
+
+        bulkhead.release();
+        bulkhead.acquire();
+        bulkhead.release();
+        assertEquals(0, bulkhead.getInFlight());
+    }
+
+    @Test
+    public void bulkheadIsUnlimitedByDefault() throws Exception {
+        KsmBulkhead bulkhead = new KsmBulkhead("MYID", KsmBulkhead.UNLIMITED, 0);
+        for (int i = 0; i < 100; i++) {
+            bulkhead.acquire();
+        }
+        assertEquals(100, bulkhead.getInFlight());
+        assertEquals(0, bulkhead.getRejected());
+        for (int i = 0; i < 100; i++) {
+            bulkhead.release();
+        }
+        assertEquals(0, bulkhead.getInFlight());
+    }
+
+    @Test
+    public void bulkheadsAreIsolatedByCredential() throws Exception {
+        KsmBulkhead slow = KsmBulkhead.forCredential("SLOW", "SLOW", 1, 0);
+        KsmBulkhead other = KsmBulkhead.forCredential("OTHER", "OTHER", 1, 0);
+        // The same id in another store.
+        KsmBulkhead sameId = KsmBulkhead.forCredential("SLOW/folder", "SLOW", 1, 0);
+        slow.acquire();
+
+        // The other credentials are not affected.
+        other.acquire();
+        other.release();
+        sameId.acquire();
+        sameId.release();
+        slow.release();
+    }
+
+    @Test
+    public void changedSizeReplacesBulkhead() {
+        KsmBulkhead first = KsmBulkhead.forCredential("RESIZE", "RESIZE", 2, 5);
+        assertSame(first, KsmBulkhead.forCredential("RESIZE", "RESIZE", 2, 5));
+
+        KsmBulkhead second = KsmBulkhead.forCredential("RESIZE", "RESIZE", 4, 5);
+        assertNotSame(first, second);
+        assertEquals(4, second.getMaxConcurrent());
+    }
+}
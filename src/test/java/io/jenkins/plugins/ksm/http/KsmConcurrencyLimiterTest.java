@@ -0,0 +1,103 @@
+package io.jenkins.plugins.ksm.http;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class KsmConcurrencyLimiterTest {
+
+    @Test
+    public void failuresShrinkTheLimit() throws Exception {
+        KsmConcurrencyLimiter limiter = new KsmConcurrencyLimiter("shrink.example.com", 8, 64, 1L);
+        limiter.acquire().release(true);
+        assertEquals(6, limiter.getLimit());
+        limiter.acquire().release(true);
+        assertEquals(4, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void onlyTimedRequestsAreComparedToTheBaseline() throws Exception {
+        KsmConcurrencyLimiter limiter = new KsmConcurrencyLimiter("untimed.example.com", 8, 64, 1L);
+        limiter.acquire().release(false);
+
+        // Fetching a big vault is slow, but isn't a sign of overload.
+        KsmConcurrencyLimiter.Permit vault = limiter.acquire();
+        Thread.sleep(300);
+        vault.releaseUntimed(false);
+        assertEquals(8, limiter.getLimit());
+
+        // A request for a few UIDs that slow is.
+        KsmConcurrencyLimiter.Permit uids = limiter.acquire();
+        Thread.sleep(300);
+        uids.release(false);
+        assertEquals(6, limiter.getLimit());
+
+        // A whole vault fetch that failed still counts.
+        limiter.acquire().releaseUntimed(true);
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void limitGrowsWhenUsed() throws Exception {
+        KsmConcurrencyLimiter limiter = new KsmConcurrencyLimiter("grow.example.com", 2, 64, 1L);
+        for (int i = 0; i < 20; i++) {
+            KsmConcurrencyLimiter.Permit first = limiter.acquire();
+            KsmConcurrencyLimiter.Permit second = limiter.acquire();
+            second.release(false);
+            first.release(false);
+        }
+        assertTrue(limiter.getLimit() > 2);
+        assertTrue(limiter.getLimit() <= 64);
+    }
+
+    @Test
+    public void waitersAreServedInOrder() throws Exception {
+        KsmConcurrencyLimiter limiter = new KsmConcurrencyLimiter("order.example.com", 1, 1, 10L);
+        KsmConcurrencyLimiter.Permit held = limiter.acquire();
+
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final int index = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    KsmConcurrencyLimiter.Permit permit = limiter.acquire();
+                    order.add(index);
+                    permit.release(false);
+                } catch (Exception e) {
+                    order.add(-1);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+            // Make sure each thread is queued before starting the next.
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (limiter.getQueueDepth() < i + 1 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+        }
+        assertEquals(3, limiter.getQueueDepth());
+
+        held.release(false);
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+        assertEquals(List.of(0, 1, 2), order);
+        assertEquals(0, limiter.getQueueDepth());
+    }
+
+    @Test
+    public void waitingTooLongIsRejected() throws Exception {
+        KsmConcurrencyLimiter limiter = new KsmConcurrencyLimiter("full.example.com", 1, 1, 0L);
+        KsmConcurrencyLimiter.Permit held = limiter.acquire();
+        Exception e = assertThrows(Exception.class, limiter::acquire);
+        assertTrue(e.getMessage().contains("full.example.com"));
+        assertEquals(1, limiter.getRejected());
+        held.release(false);
+    }
+}
@@ -0,0 +1,192 @@
+package io.jenkins.plugins.ksm.http;
+
+import static org.junit.Assert.*;
+
+import com.keepersecurity.secretsManager.core.EncryptedPayload;
+import com.keepersecurity.secretsManager.core.KeeperHttpResponse;
+import com.keepersecurity.secretsManager.core.TransmissionKey;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Test;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class KsmEndpointRouterTest {
+
+    private final List<HttpServer> servers = new ArrayList<>();
+    private final TransmissionKey key = new TransmissionKey(7, new byte[]{1}, new byte[]{2});
+    private final EncryptedPayload payload = new EncryptedPayload(new byte[]{1}, new byte[]{2});
+
+    // A stand-in server that answers with its name after a delay.
+    private String startServer(String name, long[] delayMillis) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/api/rest/sm/v1/", exchange -> {
+            try {
+                Thread.sleep(delayMillis[0]);
+            } catch (InterruptedException ignore) {
+                // Stopping
+            }
+            byte[] response = name.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+        servers.add(server);
+        return "127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        for (HttpServer server : servers) {
+            server.stop(0);
+        }
+    }
+
+    private String call(KsmEndpointRouter router, String primary, String path) {
+        KeeperHttpResponse response = router.invoke("http://" + primary + "/api/rest/sm/v1/" + path, key, payload);
+        return new String(response.getData(), StandardCharsets.UTF_8);
+    }
+
+    private static int inFlight(String host) {
+        int inFlight = 0;
+        for (KsmHttpTransport.HostMetrics metrics : KsmHttpTransport.getMetrics()) {
+            if (metrics.getHost().equals(host)) {
+                inFlight += metrics.getInFlight();
+            }
+        }
+        return inFlight;
+    }
+
+    @Test
+    public void parseEndpoints() {
+        assertEquals(List.of("a.example.com", "b.example.com:8443"),
+                KsmEndpointRouter.parseEndpoints(" a.example.com\n\nb.example.com:8443, a.example.com "));
+        assertTrue(KsmEndpointRouter.parseEndpoints(null).isEmpty());
+    }
+
+    @Test
+    public void failsOverToNextEndpoint() throws Exception {
+        String mirror = startServer("mirror", new long[]{0});
+        // Nothing listens on the primary.
+        String primary;
+        try (ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            primary = "127.0.0.1:" + closed.getLocalPort();
+        }
+
+        KsmEndpointRouter router = new KsmEndpointRouter(Collections.singletonList(mirror), false, false);
+        assertEquals("mirror", call(router, primary, "get_secret"));
+        assertTrue(KsmEndpointRouter.getStats(primary).isDown(System.currentTimeMillis()));
+
+        // The primary is skipped while it's down.
+        assertEquals(mirror, router.rank(primary).get(0));
+    }
+
+    @Test
+    public void routesToFastestEndpoint() throws Exception {
+        String slow = startServer("slow", new long[]{150});
+        String fast = startServer("fast", new long[]{0});
+        KsmEndpointRouter router = new KsmEndpointRouter(Collections.singletonList(fast), false, false);
+
+        // The first request goes to the configured primary. Once both have latency, the fast one is used.
+        assertEquals("slow", call(router, slow, "get_secret"));
+        KsmEndpointRouter.getStats(fast).recordSuccess(1_000_000L);
+        assertEquals("fast", call(router, slow, "get_secret"));
+    }
+
+    @Test
+    public void unmeasuredEndpointIsTriedSoAFasterOneIsFound() throws Exception {
+        String slow = startServer("slow", new long[]{150});
+        String fast = startServer("fast", new long[]{0});
+        KsmEndpointRouter router = new KsmEndpointRouter(Collections.singletonList(fast), false, false);
+
+        // The primary is measured first, then the endpoint that has no latency yet.
+        assertEquals("slow", call(router, slow, "get_secret"));
+        assertEquals("fast", call(router, slow, "get_secret"));
+        assertEquals(1, KsmEndpointRouter.getStats(slow).getSampleCount());
+        assertEquals(1, KsmEndpointRouter.getStats(fast).getSampleCount());
+
+        // From then on the faster one is used.
+        for (int i = 0; i < 3; i++) {
+            assertEquals("fast", call(router, slow, "get_secret"));
+        }
+        assertEquals(1, KsmEndpointRouter.getStats(slow).getSampleCount());
+    }
+
+    @Test
+    public void interruptedHedgeDoesNotWaitForTheResponse() throws Exception {
+        long[] primaryDelay = {0};
+        String primary = startServer("primary", primaryDelay);
+        String secondary = startServer("secondary", new long[]{0});
+        KsmEndpointRouter router = new KsmEndpointRouter(Collections.singletonList(secondary), false, true);
+        for (int i = 0; i < 25; i++) {
+            KsmEndpointRouter.getStats(primary).recordSuccess(1_000_000_000L);
+        }
+        for (int i = 0; i < 5; i++) {
+            KsmEndpointRouter.getStats(secondary).recordSuccess(2_000_000_000L);
+        }
+        primaryDelay[0] = 5000;
+
+        Thread caller = Thread.currentThread();
+        Executors.newSingleThreadScheduledExecutor().schedule(caller::interrupt, 200,
+                TimeUnit.MILLISECONDS);
+        long start = System.currentTimeMillis();
+        try {
+            call(router, primary, "get_secret");
+            fail("The request should be interrupted");
+        } catch (UncheckedIOException e) {
+            assertTrue(e.getCause() instanceof InterruptedIOException);
+        }
+        assertTrue(Thread.interrupted());
+        assertTrue(System.currentTimeMillis() - start < 900);
+    }
+
+    @Test
+    public void slowRequestIsHedged() throws Exception {
+        long[] primaryDelay = {0};
+        String primary = startServer("primary", primaryDelay);
+        String secondary = startServer("secondary", new long[]{0});
+        KsmEndpointRouter router = new KsmEndpointRouter(Collections.singletonList(secondary), false, true);
+
+        // Build up the primary's latency history so it has a p95.
+        for (int i = 0; i < 25; i++) {
+            KsmEndpointRouter.getStats(primary).recordSuccess(5_000_000L);
+        }
+        // Make the secondary rank after the primary.
+        for (int i = 0; i < 5; i++) {
+            KsmEndpointRouter.getStats(secondary).recordSuccess(50_000_000L);
+        }
+        primaryDelay[0] = 2000;
+
+        long start = System.currentTimeMillis();
+        assertEquals("secondary", call(router, primary, "get_secret"));
+        assertTrue(System.currentTimeMillis() - start < 1500);
+        assertEquals(1, KsmEndpointRouter.getStats(primary).getHedges());
+
+        // The primary's request was cancelled, not left waiting for its response, and the time it took is not
+        // counted as a success.
+        assertEquals(25, KsmEndpointRouter.getStats(primary).getSampleCount());
+        long deadline = System.currentTimeMillis() + 500;
+        while (inFlight("127.0.0.1") > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, inFlight("127.0.0.1"));
+
+        // Only get_secret is hedged.
+        primaryDelay[0] = 200;
+        assertEquals("primary", call(router, primary, "update_secret"));
+        assertEquals(1, KsmEndpointRouter.getStats(primary).getHedges());
+    }
+}
@@ -0,0 +1,95 @@
+package io.jenkins.plugins.ksm.http;
+
+import static org.junit.Assert.*;
+
+import com.keepersecurity.secretsManager.core.CryptoUtils;
+import com.keepersecurity.secretsManager.core.EncryptedPayload;
+import com.keepersecurity.secretsManager.core.KeeperHttpResponse;
+import com.keepersecurity.secretsManager.core.TransmissionKey;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+public class KsmHttpTransportTest {
+
+    private HttpServer server;
+    private final Map<String, String> headers = new HashMap<>();
+    private byte[] body;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/rest/sm/v1/get_secret", exchange -> {
+            for (String name : new String[]{"PublicKeyId", "TransmissionKey", "Authorization"}) {
+                headers.put(name, exchange.getRequestHeaders().getFirst(name));
+            }
+            body = exchange.getRequestBody().readAllBytes();
+            byte[] response = "OK".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.createContext("/api/rest/sm/v1/error", exchange -> {
+            byte[] response = "{\"message\":\"bad\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(403, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/api/rest/sm/v1/" + path;
+    }
+
+    @Test
+    public void sendsSameRequestAsSdk() {
+        TransmissionKey key = new TransmissionKey(7, new byte[]{1}, new byte[]{2, 3});
+        EncryptedPayload payload = new EncryptedPayload("PAYLOAD".getBytes(StandardCharsets.UTF_8), new byte[]{4, 5});
+
+        KeeperHttpResponse response = KsmHttpTransport.get(false).invoke(url("get_secret"), key, payload);
+
+        assertEquals(200, response.getStatusCode());
+        assertEquals("OK", new String(response.getData(), StandardCharsets.UTF_8));
+        assertEquals("7", headers.get("PublicKeyId"));
+        assertEquals(CryptoUtils.bytesToBase64(new byte[]{2, 3}), headers.get("TransmissionKey"));
+        assertEquals("Signature" + CryptoUtils.bytesToBase64(new byte[]{4, 5}), headers.get("Authorization"));
+        assertEquals("PAYLOAD", new String(body, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void returnsErrorBody() {
+        TransmissionKey key = new TransmissionKey(7, new byte[]{1}, new byte[]{2});
+        EncryptedPayload payload = new EncryptedPayload(new byte[]{1}, new byte[]{2});
+
+        KeeperHttpResponse response = KsmHttpTransport.get(true).invoke(url("error"), key, payload);
+
+        assertEquals(403, response.getStatusCode());
+        assertEquals("{\"message\":\"bad\"}", new String(response.getData(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void connectionFailureIsUnchecked() {
+        int port = server.getAddress().getPort();
+        server.stop(0);
+        TransmissionKey key = new TransmissionKey(7, new byte[]{1}, new byte[]{2});
+        EncryptedPayload payload = new EncryptedPayload(new byte[]{1}, new byte[]{2});
+
+        assertThrows(UncheckedIOException.class, () -> KsmHttpTransport.get(false).invoke(
+                "http://127.0.0.1:" + port + "/api/rest/sm/v1/get_secret", key, payload));
+    }
+}
@@ -0,0 +1,99 @@
+package io.jenkins.plugins.ksm.http;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class KsmRetryPolicyTest {
+
+    @Test
+    public void transientFailureIsRetried() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        String result = KsmRetryPolicy.call("retry.example.com", () -> {
+            if (calls.incrementAndGet() < 2) {
+                throw new KsmHttpStatusException(503, "Service Unavailable");
+            }
+            return "OK";
+        });
+        assertEquals("OK", result);
+        assertEquals(2, calls.get());
+        assertFalse(KsmCircuitBreaker.forHost("retry.example.com").isOpen());
+    }
+
+    @Test
+    public void permanentFailureIsNotRetried() {
+        AtomicInteger calls = new AtomicInteger();
+        Exception e = assertThrows(Exception.class, () -> KsmRetryPolicy.call("permanent.example.com", () -> {
+            calls.incrementAndGet();
+            throw new Exception("{\"message\":\"Signature is invalid\"}");
+        }));
+        assertTrue(e.getMessage().contains("Signature"));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void callOnceIsNotRetried() {
+        AtomicInteger calls = new AtomicInteger();
+        assertThrows(KsmHttpStatusException.class, () -> KsmRetryPolicy.callOnce("once.example.com", () -> {
+            calls.incrementAndGet();
+            throw new KsmHttpStatusException(503, "Service Unavailable");
+        }));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void isTransient() {
+        assertTrue(KsmRetryPolicy.isTransient(new UncheckedIOException(new IOException("Connection reset"))));
+        assertTrue(KsmRetryPolicy.isTransient(new KsmHttpStatusException(429, "")));
+        assertTrue(KsmRetryPolicy.isTransient(new KsmHttpStatusException(502, "")));
+        assertFalse(KsmRetryPolicy.isTransient(new KsmHttpStatusException(403, "")));
+        assertFalse(KsmRetryPolicy.isTransient(new Exception("Record not found")));
+    }
+
+    @Test
+    public void breakerOpensAndRecovers() throws Exception {
+        KsmCircuitBreaker breaker = new KsmCircuitBreaker("breaker.example.com", 2, 50L);
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure("down");
+        assertEquals(KsmCircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.recordFailure("down");
+        assertEquals(KsmCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+
+        Thread.sleep(60L);
+
+        // Only one trial request is allowed.
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertEquals(KsmCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void openBreakerFailsFast() throws Exception {
+        String host = "open.example.com";
+        AtomicInteger calls = new AtomicInteger();
+        // Two calls of three attempts each is enough to open the breaker.
+        for (int i = 0; i < 2; i++) {
+            try {
+                KsmRetryPolicy.call(host, () -> {
+                    calls.incrementAndGet();
+                    throw new UncheckedIOException(new IOException("Connection refused"));
+                });
+            } catch (Exception ignore) {
+                // Expected
+            }
+        }
+        int made = calls.get();
+        assertThrows(KsmCircuitOpenException.class, () -> KsmRetryPolicy.call(host, () -> {
+            calls.incrementAndGet();
+            return "OK";
+        }));
+        assertEquals(made, calls.get());
+        KsmCircuitBreaker.forHost(host).reset();
+    }
+}
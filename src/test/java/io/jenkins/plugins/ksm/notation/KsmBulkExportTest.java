@@ -0,0 +1,57 @@
+package io.jenkins.plugins.ksm.notation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class KsmBulkExportTest {
+
+    @Test
+    public void envVarName() {
+        assertEquals("DB_LOGIN", KsmBulkExport.envVarName("DB_", "login"));
+        assertEquals("DB_LOCK_BOX_LOCATION", KsmBulkExport.envVarName("DB_", "Lock Box Location"));
+        assertEquals("ONETIME_CODE", KsmBulkExport.envVarName(null, "oneTime-code"));
+    }
+
+    @Test
+    public void checkEnvVarNamesRejectsCollisions() throws Exception {
+        KsmBulkExport.checkEnvVarNames("DB_", Arrays.asList("login", "password"));
+        Exception e = assertThrows(Exception.class,
+                () -> KsmBulkExport.checkEnvVarNames("DB_", Arrays.asList("Host Name", "host-name")));
+        assertEquals("The fields 'Host Name' and 'host-name' would both be stored in the environmental variable "
+                + "DB_HOST_NAME. List the fields to use instead of using *.", e.getMessage());
+    }
+
+    @Test
+    public void renderJson() throws Exception {
+        Map<String, String> fields = new LinkedHashMap<>();
+        fields.put("login", "admin");
+        fields.put("Note \"1\"", "line1\nline2");
+        String json = KsmBulkExport.render("secrets/db.JSON", fields);
+
+        JSONObject parsed = new JSONObject(json);
+        assertEquals("admin", parsed.getString("login"));
+        assertEquals("line1\nline2", parsed.getString("Note \"1\""));
+        assertEquals("{}\n", KsmBulkExport.render("db.json", new LinkedHashMap<>()));
+    }
+
+    @Test
+    public void renderDotenv() throws Exception {
+        Map<String, String> fields = new LinkedHashMap<>();
+        fields.put("login", "admin@example.com");
+        fields.put("password", "p a$s");
+        fields.put("Other Note", "it's\n\"two\" $lines\\");
+        fields.put("empty", "");
+        assertEquals("LOGIN=admin@example.com\n"
+                        + "PASSWORD='p a$s'\n"
+                        + "OTHER_NOTE=\"it's\\n\\\"two\\\" \\$lines\\\\\"\n"
+                        + "EMPTY=\n",
+                KsmBulkExport.render("db.env", fields));
+    }
+}
@@ -0,0 +1,88 @@
+package io.jenkins.plugins.ksm.notation;
+
+import static org.junit.Assert.*;
+
+import com.keepersecurity.secretsManager.core.*;
+import io.jenkins.plugins.ksm.cache.KsmRecordCache;
+import org.junit.Test;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class KsmNotationShardTest {
+
+    // Returns a record for every requested UID, except the ones listed as missing.
+    static class ShardNotation extends KsmNotation {
+
+        private final KsmRecordCache cache = new KsmRecordCache(KsmRecordCache.DEFAULT_TTL_SECONDS);
+        final List<Integer> requestSizes = Collections.synchronizedList(new ArrayList<>());
+        final Set<String> missing = new HashSet<>();
+
+        @Override
+        protected KsmRecordCache getRecordCache() {
+            return cache;
+        }
+
+        @Override
+        protected int getShardSize() {
+            return 10;
+        }
+
+        @Override
+        public KeeperSecrets getNotationSecrets(SecretsManagerOptions options, List<String> uids) {
+            requestSizes.add(uids.size());
+            List<KeeperRecord> records = new ArrayList<>();
+            for (String uid : uids) {
+                if (missing.contains(uid)) {
+                    continue;
+                }
+                KeeperRecordData data = new KeeperRecordData("Title", "login", new ArrayList<>(), null, null);
+                records.add(new KeeperRecord("KEY".getBytes(StandardCharsets.UTF_8), uid, null, null, null, data,
+                        1L, new ArrayList<>(), null));
+            }
+            return new KeeperSecrets(new AppData("", ""), records, null, null);
+        }
+    }
+
+    private static Set<String> makeUids(int count) {
+        Set<String> uids = new LinkedHashSet<>();
+        for (int index = 0; index < count; index++) {
+            uids.add(String.format("UID%019d", index));
+        }
+        return uids;
+    }
+
+    @Test
+    public void largeUidSetIsSharded() throws Exception {
+        ShardNotation notation = new ShardNotation();
+        Set<String> uids = makeUids(35);
+
+        KeeperSecrets secrets = notation.getSecretsByUid("CRED", "shard.example.com", null, uids);
+
+        assertEquals(35, secrets.getRecords().size());
+        assertEquals(4, notation.requestSizes.size());
+        assertEquals(35, notation.requestSizes.stream().mapToInt(Integer::intValue).sum());
+        Set<String> received = new HashSet<>();
+        for (KeeperRecord record : secrets.getRecords()) {
+            received.add(record.getRecordUid());
+        }
+        assertEquals(uids, received);
+    }
+
+    @Test
+    public void smallUidSetIsNotSharded() throws Exception {
+        ShardNotation notation = new ShardNotation();
+        notation.getSecretsByUid("CRED", "shard.example.com", null, makeUids(10));
+        assertEquals(Collections.singletonList(10), notation.requestSizes);
+    }
+
+    @Test
+    public void countIsVerifiedAcrossShards() {
+        ShardNotation notation = new ShardNotation();
+        Set<String> uids = makeUids(25);
+        notation.missing.add(uids.iterator().next());
+
+        Exception e = assertThrows(Exception.class,
+                () -> notation.getSecretsByUid("CRED", "shard.example.com", null, uids));
+        assertTrue(e.getMessage().startsWith("Requested 25 record(s), received 24 records(s)."));
+    }
+}
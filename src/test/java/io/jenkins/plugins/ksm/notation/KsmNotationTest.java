@@ -8,6 +8,8 @@ import static org.junit.Assert.assertTrue;
 
 import org.junit.*;
 
+import java.util.Arrays;
+
 public class KsmNotationTest {
 
     private static final String GOOD_UID = "A_7YpGBUgRTeDEQLhVRo0Q";
@@ -241,6 +243,28 @@ public class KsmNotationTest {
         assertFalse(KsmNotation.looksLikeUid(r.getUid()));
     }
 
+    @Test
+    public void parseAcceptsRevisionPinnedUid() throws Exception {
+        KsmNotationItem r = KsmNotation.parse("X",
+                "keeper://" + GOOD_UID + "@42/field/password", false);
+        assertEquals(GOOD_UID, r.getUid());
+        assertEquals(Long.valueOf(42L), r.getRevision());
+        assertTrue(r.isPinned());
+        // The SDK doesn't know about revisions; it gets the notation without one.
+        assertEquals(GOOD_UID + "/field/password", r.getNotation());
+
+        KsmNotationItem unpinned = KsmNotation.parse("X", "keeper://" + GOOD_UID + "/field/password", false);
+        assertNull(unpinned.getRevision());
+        assertFalse(unpinned.isPinned());
+    }
+
+    @Test
+    public void parseLeavesTitleWithAtSignAlone() throws Exception {
+        KsmNotationItem r = KsmNotation.parse("X", "keeper://admin@42/field/password", false);
+        assertEquals("admin@42", r.getUid());
+        assertNull(r.getRevision());
+    }
+
     @Test
     public void parseHonoursAllowFailureFlag() throws Exception {
         KsmNotationItem r = KsmNotation.parse("X",
@@ -289,6 +313,15 @@ public class KsmNotationTest {
         assertTrue(e.getMessage().toLowerCase().contains("index"));
     }
 
+    @Test
+    public void parseRejectsPredicateWithoutFieldKey() {
+        for (String key : new String[]{"[", "[["}) {
+            Exception e = assertThrows(Exception.class,
+                    () -> KsmNotation.parse("ABC", "keeper://" + GOOD_UID + "/field/" + key, false));
+            assertEquals("The notation field key is missing before the '['.", e.getMessage());
+        }
+    }
+
     @Test
     public void parseTreatsUnparseableFirstPredicateAsNoKey() throws Exception {
         // A predicate like [a-b] does not match the int parser nor the
@@ -298,4 +331,80 @@ public class KsmNotationTest {
         assertEquals(Integer.valueOf(0), result.getArrayIndex());
         assertNull(result.getDictKey());
     }
+
+    @Test
+    public void compileReturnsTheSameInstanceForTheSameNotation() throws Exception {
+        KsmCompiledNotation first = KsmCompiledNotation.compile("keeper://" + GOOD_UID + "/field/login");
+        KsmCompiledNotation second = KsmCompiledNotation.compile("keeper://" + GOOD_UID + "/field/login");
+        assertTrue(first == second);
+
+        KsmCompiledNotation.clearCache();
+        KsmCompiledNotation third = KsmCompiledNotation.compile("keeper://" + GOOD_UID + "/field/login");
+        assertFalse(first == third);
+        assertEquals(first.getNotation(), third.getNotation());
+    }
+
+    @Test
+    public void compileDoesNotCacheInvalidNotations() {
+        // Each attempt fails the same way; nothing was remembered from the first one.
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Exception e = assertThrows(Exception.class,
+                    () -> KsmCompiledNotation.compile("keeper://" + GOOD_UID + "/bogus/login"));
+            assertTrue(e.getMessage().contains("bogus"));
+        }
+    }
+
+    @Test
+    public void parseIgnoresTrailingSlashes() throws Exception {
+        KsmNotationItem r = KsmNotation.parse("X", GOOD_UID + "/field/login//", false);
+        assertEquals("login", r.getFieldKey());
+    }
+
+    @Test
+    public void parseIntegerMatchesIntegerParseInt() {
+        assertEquals(Integer.valueOf(12), KsmCompiledNotation.parseInteger("12"));
+        assertEquals(Integer.valueOf(-1), KsmCompiledNotation.parseInteger("-1"));
+        assertEquals(Integer.valueOf(3), KsmCompiledNotation.parseInteger("+3"));
+        assertEquals(Integer.valueOf(Integer.MIN_VALUE), KsmCompiledNotation.parseInteger("-2147483648"));
+        assertNull(KsmCompiledNotation.parseInteger("2147483648"));
+        assertNull(KsmCompiledNotation.parseInteger(""));
+        assertNull(KsmCompiledNotation.parseInteger("-"));
+        assertNull(KsmCompiledNotation.parseInteger("1a"));
+    }
+
+    @Test
+    public void isDictKeyMatchesTheKeyPattern() {
+        assertTrue(KsmCompiledNotation.isDictKey("first_name"));
+        assertTrue(KsmCompiledNotation.isDictKey("key1\n"));
+        assertFalse(KsmCompiledNotation.isDictKey("a-b"));
+        assertFalse(KsmCompiledNotation.isDictKey(""));
+        assertFalse(KsmCompiledNotation.isDictKey("\n"));
+    }
+
+    @Test
+    public void parseBulkNotations() throws Exception {
+        KsmNotationItem all = KsmNotation.parse("DB_", "keeper://" + GOOD_UID + "/field/*", false);
+        assertTrue(all.isBulk());
+        assertNull(all.getFieldKeys());
+
+        KsmNotationItem list = KsmNotation.parse("DB_", GOOD_UID + "/custom_field/{login, Lock Box,password}", false);
+        assertTrue(list.isBulk());
+        assertEquals(KsmFieldDataEnumType.CUSTOM, list.getFieldDataType());
+        assertEquals(Arrays.asList("login", "Lock Box", "password"), list.getFieldKeys());
+
+        assertFalse(KsmNotation.parse("X", GOOD_UID + "/field/login", false).isBulk());
+    }
+
+    @Test
+    public void parseRejectsInvalidBulkNotations() {
+        String[] notations = {
+                GOOD_UID + "/field/*[0]",
+                GOOD_UID + "/file/*",
+                GOOD_UID + "/field/{login,,password}",
+                GOOD_UID + "/field/{ }",
+        };
+        for (String notation : notations) {
+            assertThrows(notation, Exception.class, () -> KsmCompiledNotation.compile(notation));
+        }
+    }
 }
@@ -0,0 +1,200 @@
+package io.jenkins.plugins.ksm.notation;
+
+import static io.jenkins.plugins.ksm.MockRecords.record;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.keepersecurity.secretsManager.core.*;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class KsmRecordIndexTest {
+
+    private static final String UID_A = "A_7YpGBUgRTeDEQLhVRo0Q";
+    private static final String UID_B = "Ipk9NR1rCBZXyflWbPwTGA";
+
+    private static KeeperFile file(String fileUid, String name, String title) {
+        return new KeeperFile("KEY".getBytes(StandardCharsets.UTF_8), fileUid,
+                new KeeperFileData(title, name, "", 1L, 1L), "http://localhost", null);
+    }
+
+    private static KeeperSecrets secrets() {
+        KeeperRecord first = record(UID_A, "Shared Title",
+                Arrays.asList(
+                        new Login("Account", Collections.singletonList("first-login")),
+                        new Password(null, true, false, false, null, Arrays.asList("pw-0", "pw-1")),
+                        new Login(null, Collections.singletonList("second-login"))),
+                Collections.singletonList(new Text("Account", Collections.singletonList("custom-text"))),
+                Arrays.asList(file("FILE_A_0", "cat.png", "Cat"), file("FILE_A_1", "Cat", "Other")));
+        KeeperRecord second = record(UID_B, "Shared Title",
+                Collections.singletonList(new Login(null, Collections.singletonList("other-login"))),
+                null, new ArrayList<>());
+        return new KeeperSecrets(new AppData("", ""), Arrays.asList(first, second), null, null);
+    }
+
+    // The index and the SDK must return the same value, or fail with the same message.
+    private static void assertSameAsSdk(KeeperSecrets secrets, String notation) throws Exception {
+        KsmNotationItem item = KsmNotation.parse("X", notation, false);
+        KsmRecordIndex index = new KsmRecordIndex(secrets);
+        String expected;
+        try {
+            expected = Notation.getValue(secrets, item.getNotation());
+        } catch (Exception e) {
+            Exception actual = assertThrows(Exception.class, () -> index.getValue(item));
+            assertEquals(e.getMessage(), actual.getMessage());
+            return;
+        }
+        assertEquals(expected, index.getValue(item));
+    }
+
+    @Test
+    public void getValueMatchesTheSdk() throws Exception {
+        KeeperSecrets secrets = secrets();
+        String[] notations = {
+                UID_A + "/field/login",
+                UID_A + "/field/Account",
+                UID_A + "/field/password",
+                UID_A + "/field/password[1]",
+                UID_A + "/field/password[2]",
+                UID_A + "/field/password[]",
+                UID_A + "/field/password[-1]",
+                UID_A + "/custom_field/Account",
+                UID_A + "/custom_field/login",
+                UID_A + "/field/missing",
+                UID_B + "/custom_field/login",
+                "Shared Title/field/login",
+                "Missing Title/field/login",
+        };
+        for (String notation : notations) {
+            assertSameAsSdk(secrets, notation);
+        }
+    }
+
+    @Test
+    public void getValueUsesTheFirstMatchingRecordAndField() throws Exception {
+        KsmRecordIndex index = new KsmRecordIndex(secrets());
+
+        // Two records have the same title, and two fields the same type. The first one wins, like the SDK.
+        assertEquals("first-login", index.getValue(KsmNotation.parse("X", "Shared Title/field/login", false)));
+        assertEquals("pw-1", index.getValue(KsmNotation.parse("X", UID_A + "/field/password[1]", false)));
+        assertEquals("other-login", index.getValue(KsmNotation.parse("X", UID_B + "/field/login", false)));
+    }
+
+    @Test
+    public void getFileMatchesTheSdk() throws Exception {
+        KeeperSecrets secrets = secrets();
+        KsmRecordIndex index = new KsmRecordIndex(secrets);
+        for (String name : new String[]{"cat.png", "Cat", "Other", "FILE_A_1"}) {
+            KsmNotationItem item = KsmNotation.parse("X", UID_A + "/file/" + name, false);
+            assertSame(Notation.getFile(secrets, item.getNotation()), index.getFile(item));
+        }
+
+        KsmNotationItem missing = KsmNotation.parse("X", UID_A + "/file/dog.png", false);
+        Exception expected = assertThrows(Exception.class, () -> Notation.getFile(secrets, missing.getNotation()));
+        Exception actual = assertThrows(Exception.class, () -> index.getFile(missing));
+        assertEquals(expected.getMessage(), actual.getMessage());
+    }
+
+    @Test
+    public void projectKeepsOnlyWhatTheItemsUse() throws Exception {
+        KeeperSecrets secrets = secrets();
+        List<KsmNotationItem> items = Arrays.asList(
+                KsmNotation.parse("A", "Shared Title/field/password[1]", false),
+                KsmNotation.parse("B", UID_A + "/custom_field/Account", false),
+                KsmNotation.parse("C", UID_A + "/file/Cat", false),
+                KsmNotation.parse("D", UID_A + "/field/missing", false));
+        KsmRecordIndex projected = new KsmRecordIndex(secrets).project(items);
+
+        // Only the first record is used, with one standard field, one custom field and one file.
+        List<KeeperRecord> records = projected.getSecrets().getRecords();
+        assertEquals(1, records.size());
+        assertEquals(UID_A, records.get(0).getRecordUid());
+        assertEquals(1, records.get(0).getData().getFields().size());
+        assertEquals(1, records.get(0).getData().getCustom().size());
+        assertEquals(1, records.get(0).getFiles().size());
+        assertNull(records.get(0).getData().getNotes());
+
+        assertEquals("pw-1", projected.getValue(items.get(0)));
+        assertEquals("custom-text", projected.getValue(items.get(1)));
+        assertEquals("FILE_A_0", projected.getFile(items.get(2)).getFileUid());
+        Exception expected = assertThrows(Exception.class,
+                () -> Notation.getValue(secrets, items.get(3).getNotation()));
+        Exception actual = assertThrows(Exception.class, () -> projected.getValue(items.get(3)));
+        assertEquals(expected.getMessage(), actual.getMessage());
+    }
+
+    @Test
+    public void projectKeepsEverythingForNotationsLeftToTheSdk() throws Exception {
+        KeeperSecrets secrets = secrets();
+        KsmRecordIndex index = new KsmRecordIndex(secrets);
+        List<KsmNotationItem> items = Collections.singletonList(
+                KsmNotation.parse("A", UID_A + "/field/login/", false));
+        assertSame(index, index.project(items));
+    }
+
+    @Test
+    public void getBulkValuesTakesEveryField() throws Exception {
+        KsmRecordIndex index = new KsmRecordIndex(secrets());
+
+        // The first login has the label Account, the second one only has the type. Each value is the first one.
+        Map<String, String> values = index.getBulkValues(KsmNotation.parse("DB_", UID_A + "/field/*", false));
+        assertEquals(Arrays.asList("Account", "password", "login"), new ArrayList<>(values.keySet()));
+        assertEquals("first-login", values.get("Account"));
+        assertEquals("pw-0", values.get("password"));
+        assertEquals("second-login", values.get("login"));
+
+        // A record without custom fields has nothing to export.
+        assertTrue(index.getBulkValues(KsmNotation.parse("DB_", UID_B + "/custom_field/*", false)).isEmpty());
+    }
+
+    @Test
+    public void getBulkValuesMatchesTheSdkForEachListedField() throws Exception {
+        KeeperSecrets secrets = secrets();
+        KsmRecordIndex index = new KsmRecordIndex(secrets);
+        Map<String, String> values = index.getBulkValues(
+                KsmNotation.parse("DB_", "Shared Title/field/{password, Account, login}", false));
+        assertEquals(Arrays.asList("password", "Account", "login"), new ArrayList<>(values.keySet()));
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            assertEquals(Notation.getValue(secrets, UID_A + "/field/" + value.getKey()), value.getValue());
+        }
+
+        Exception missingField = assertThrows(Exception.class,
+                () -> index.getBulkValues(KsmNotation.parse("DB_", UID_A + "/field/{login,missing}", false)));
+        assertEquals(assertThrows(Exception.class, () -> Notation.getValue(secrets, UID_A + "/field/missing"))
+                .getMessage(), missingField.getMessage());
+
+        Exception missingCustom = assertThrows(Exception.class,
+                () -> index.getBulkValues(KsmNotation.parse("DB_", "Shared Title/custom_field/{missing}", false)));
+        assertEquals(assertThrows(Exception.class,
+                () -> Notation.getValue(secrets, "Shared Title/custom_field/missing")).getMessage(),
+                missingCustom.getMessage());
+
+        Exception missingRecord = assertThrows(Exception.class,
+                () -> index.getBulkValues(KsmNotation.parse("DB_", "Missing Title/field/*", false)));
+        assertEquals(assertThrows(Exception.class, () -> Notation.getValue(secrets, "Missing Title/field/login"))
+                .getMessage(), missingRecord.getMessage());
+    }
+
+    @Test
+    public void projectKeepsTheFieldsOfBulkNotations() throws Exception {
+        List<KsmNotationItem> items = Arrays.asList(
+                KsmNotation.parse("A_", UID_A + "/field/{password}", false),
+                KsmNotation.parse("B_", UID_B + "/field/*", false));
+        KsmRecordIndex projected = new KsmRecordIndex(secrets()).project(items);
+
+        List<KeeperRecord> records = projected.getSecrets().getRecords();
+        assertEquals(2, records.size());
+        assertEquals(1, records.get(0).getData().getFields().size());
+        assertEquals(Collections.singletonMap("password", "pw-0"), projected.getBulkValues(items.get(0)));
+        assertEquals(Collections.singletonMap("login", "other-login"), projected.getBulkValues(items.get(1)));
+    }
+}
@@ -0,0 +1,101 @@
+package io.jenkins.plugins.ksm.notation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class KsmTemplateTest {
+
+    private static final String UID = "A_7YpGBUgRTeDEQLhVRo0Q";
+
+    private static String render(KsmTemplate template) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        template.render(out, StandardCharsets.UTF_8);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void renderPutsTheValuesInTheTemplate() throws Exception {
+        KsmTemplate template = KsmTemplate.parse("settings.xml",
+                "<server>\n"
+                + "  <username>{{keeper://" + UID + "/field/login}}</username>\n"
+                + "  <password>{{ keeper://" + UID + "/field/password }}</password>\n"
+                + "  <again>{{keeper://" + UID + "/field/login}}</again>\n"
+                + "</server>\n");
+
+        // The login is used twice, but only resolved once.
+        List<KsmNotationItem> items = new ArrayList<>(template.getItems());
+        assertEquals(2, items.size());
+        assertEquals(2, template.getNotationItems().size());
+        items.get(0).setValue("admin");
+        items.get(1).setValue("pa$$word");
+
+        assertEquals("<server>\n"
+                + "  <username>admin</username>\n"
+                + "  <password>pa$$word</password>\n"
+                + "  <again>admin</again>\n"
+                + "</server>\n", render(template));
+        assertEquals(2, template.getSecretValues().size());
+    }
+
+    @Test
+    public void renderLeavesOtherPlaceholdersAlone() throws Exception {
+        String text = "name: {{ .Values.name }}\n{{{keeper://" + UID + "/field/login}}}\nno notations {{";
+        KsmTemplate template = KsmTemplate.parse("values.yaml", text);
+        assertEquals(1, template.getItems().size());
+        template.getItems().iterator().next().setValue("admin");
+        assertEquals("name: {{ .Values.name }}\n{admin}\nno notations {{", render(template));
+
+        assertEquals("plain", render(KsmTemplate.parse("plain.txt", "plain")));
+    }
+
+    @Test
+    public void renderWritesFilesAsIs() throws Exception {
+        KsmTemplate template = KsmTemplate.parse("cert.pem", "{{keeper://" + UID + "/file/cert.pem}}");
+        template.getItems().iterator().next().setValue("-----BEGIN-----".getBytes(StandardCharsets.UTF_8));
+        assertEquals("-----BEGIN-----", render(template));
+        assertTrue(template.getSecretValues().isEmpty());
+    }
+
+    @Test
+    public void renderFailsWhenANotationHasNoValue() throws Exception {
+        KsmTemplate template = KsmTemplate.parse("settings.xml", "{{keeper://" + UID + "/field/login}}");
+        template.getItems().iterator().next().setError("Record not found");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Exception e = assertThrows(Exception.class, () -> template.render(out, StandardCharsets.UTF_8));
+        assertTrue(e.getMessage().contains("Record not found"));
+        assertEquals(0, out.size());
+    }
+
+    @Test
+    public void parseRejectsBadNotations() {
+        Exception e = assertThrows(Exception.class,
+                () -> KsmTemplate.parse("a", "line 1\nline 2 {{keeper://" + UID + "/field/login\n"));
+        assertEquals("The notation at line 2 of the template is missing the closing }}.", e.getMessage());
+
+        e = assertThrows(Exception.class,
+                () -> KsmTemplate.parse("a", "\n\n{{keeper://" + UID + "/fields/login}}"));
+        assertTrue(e.getMessage(), e.getMessage().contains("at line 3 of the template is not valid"));
+
+        e = assertThrows(Exception.class, () -> KsmTemplate.parse("a", "{{keeper://" + UID + "/field/*}}"));
+        assertTrue(e.getMessage(), e.getMessage().contains("Only a single value"));
+    }
+
+    @Test
+    public void parseRejectsAListOfFields() {
+        // The '}' closing the list is not mistaken for the start of the closing }}.
+        for (String text : new String[]{"{{keeper://" + UID + "/field/{login,password}}}",
+                "{{ keeper://" + UID + "/field/{login,password} }}"}) {
+            Exception e = assertThrows(Exception.class, () -> KsmTemplate.parse("a", text));
+            assertEquals("The notation keeper://" + UID + "/field/{login,password} at line 1 of the template gets "
+                    + "more than one field. Only a single value can be put in a template.", e.getMessage());
+        }
+    }
+}
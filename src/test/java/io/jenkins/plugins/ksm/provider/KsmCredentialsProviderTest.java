@@ -0,0 +1,105 @@
+package io.jenkins.plugins.ksm.provider;
+
+import static io.jenkins.plugins.ksm.MockRecords.record;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.common.StandardCredentials;
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import com.keepersecurity.secretsManager.core.*;
+import io.jenkins.plugins.ksm.cache.KsmVaultIndex;
+import io.jenkins.plugins.ksm.credential.KsmCredential;
+import org.jenkinsci.plugins.plaincredentials.FileCredentials;
+import org.jenkinsci.plugins.plaincredentials.StringCredentials;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class KsmCredentialsProviderTest {
+
+    private static KsmVaultIndex.Snapshot snapshot() {
+        KeeperFile file = new KeeperFile("KEY".getBytes(StandardCharsets.UTF_8), "FILE_UID_0000000000000",
+                new KeeperFileData("Deploy key", "id_rsa", "", 1L, 1L), "http://localhost", null);
+        return KsmVaultIndex.Snapshot.of(new KeeperSecrets(new AppData("", ""), Arrays.asList(
+                record("A_7YpGBUgRTeDEQLhVRo0Q", "Database", Arrays.asList(
+                        new Login(null, Collections.singletonList("admin")),
+                        new Password(null, true, false, false, null, Collections.singletonList("secret"))),
+                        null, null),
+                record("Ipk9NR1rCBZXyflWbPwTGA", "API key", Collections.singletonList(
+                        new Password(null, true, false, false, null, Collections.singletonList("key"))), null, null),
+                record("6vV5bvyu5eLygHa3kMEWug", "Deploy", Collections.emptyList(), null,
+                        Collections.singletonList(file)),
+                // Nothing a credential can be made from.
+                record("1adh_WZxtbbHWqf6IALMVg", "Notes", Collections.singletonList(
+                        new Text(null, Collections.singletonList("text"))), null, null),
+                // A shortcut to the first record.
+                record("A_7YpGBUgRTeDEQLhVRo0Q", "Database", Collections.emptyList(), null, null)
+        ), null, null));
+    }
+
+    private static KsmCredential ksmCredential(String hostname) {
+        return new KsmCredential(CredentialsScope.GLOBAL, "ksm", "ksm", "", null, null, null, hostname, false, false);
+    }
+
+    @Test
+    public void recordsAreOfferedByWhatTheyHave() {
+        KsmCredential ksm = ksmCredential("keepersecurity.com");
+        List<KsmProvidedCredential> credentials = new KsmCredentialsProvider.Listing(ksm, snapshot())
+                .getCredentials();
+        assertEquals(3, credentials.size());
+
+        assertTrue(credentials.get(0) instanceof StandardUsernamePasswordCredentials);
+        assertEquals("A_7YpGBUgRTeDEQLhVRo0Q", credentials.get(0).getId());
+        assertEquals("ksm", credentials.get(0).getKsmCredentialId());
+        assertEquals(ksm.getCacheKey(), credentials.get(0).getKsmCacheKey());
+        assertEquals(Arrays.asList("keeper://A_7YpGBUgRTeDEQLhVRo0Q/field/login",
+                "keeper://A_7YpGBUgRTeDEQLhVRo0Q/field/password"), credentials.get(0).getNotations());
+
+        assertTrue(credentials.get(1) instanceof StringCredentials);
+        assertEquals(Collections.singletonList("keeper://Ipk9NR1rCBZXyflWbPwTGA/field/password"),
+                credentials.get(1).getNotations());
+
+        assertTrue(credentials.get(2) instanceof FileCredentials);
+        assertEquals("id_rsa", ((FileCredentials) credentials.get(2)).getFileName());
+        assertEquals(Collections.singletonList("keeper://6vV5bvyu5eLygHa3kMEWug/file/FILE_UID_0000000000000"),
+                credentials.get(2).getNotations());
+    }
+
+    @Test
+    public void valuesAreKeptByTheKsmCredential() {
+        KsmCredential ksm = ksmCredential("keepersecurity.com");
+        KsmCredential replaced = ksmCredential("keepersecurity.eu");
+        KsmProvidedCredential before = new KsmCredentialsProvider.Listing(ksm, snapshot()).getCredentials().get(0);
+        KsmProvidedCredential after = new KsmCredentialsProvider.Listing(replaced, snapshot()).getCredentials()
+                .get(0);
+        assertEquals(before.getId(), after.getId());
+        assertNotEquals(before.getKsmCacheKey(), after.getKsmCacheKey());
+    }
+
+    @Test
+    public void usernamePasswordIsNamedWithoutItsValues() {
+        KsmProvidedUsernamePassword credential = (KsmProvidedUsernamePassword) new KsmCredentialsProvider.Listing(
+                ksmCredential("keepersecurity.com"), snapshot()).getCredentials().get(0);
+        KsmProvidedUsernamePassword.NameProvider names = new KsmProvidedUsernamePassword.NameProvider();
+        // Getting the username would retrieve the record, which can't be done here.
+        assertEquals("Database (A_7YpGBUgRTeDEQLhVRo0Q)", names.getName(credential));
+        assertEquals("A_7YpGBUgRTeDEQLhVRo0Q", names.getName(new KsmProvidedUsernamePassword("ksm", "ksm",
+                "A_7YpGBUgRTeDEQLhVRo0Q", "")));
+    }
+
+    @Test
+    public void onlyOfferedTypesAreLookedUp() {
+        assertTrue(KsmCredentialsProvider.isOffered(StandardCredentials.class));
+        assertTrue(KsmCredentialsProvider.isOffered(StringCredentials.class));
+        assertTrue(KsmCredentialsProvider.isOffered(FileCredentials.class));
+        assertTrue(KsmCredentialsProvider.isOffered(StandardUsernamePasswordCredentials.class));
+        // Looking up the KSM credentials must not list the records.
+        assertFalse(KsmCredentialsProvider.isOffered(KsmCredential.class));
+    }
+}
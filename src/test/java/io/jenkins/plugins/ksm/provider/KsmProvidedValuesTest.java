@@ -0,0 +1,107 @@
+package io.jenkins.plugins.ksm.provider;
+
+import static org.junit.Assert.assertEquals;
+
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import io.jenkins.plugins.ksm.credential.KsmCredential;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class KsmProvidedValuesTest {
+
+    private static final String LOGIN = "keeper://Ipk9NR1rCBZXyflWbPwTGA/field/login";
+    private static final String PASSWORD = "keeper://Ipk9NR1rCBZXyflWbPwTGA/field/password";
+
+    // Counts the requests, which are what the cache is avoiding.
+    private static class Resolver {
+        final List<List<String>> calls = new ArrayList<>();
+
+        Map<String, Object> resolve(String credentialId, List<String> notations) {
+            calls.add(notations);
+            Map<String, Object> values = new LinkedHashMap<>();
+            for (String notation : notations) {
+                values.put(notation, credentialId + ":" + notation.substring(notation.lastIndexOf('/') + 1)
+                        + ":" + calls.size());
+            }
+            return values;
+        }
+    }
+
+    @Test
+    public void valuesAreRetrievedTogetherOnFirstUse() throws Exception {
+        Resolver resolver = new Resolver();
+        KsmProvidedValues values = new KsmProvidedValues(resolver::resolve, 300);
+        List<String> notations = Arrays.asList(LOGIN, PASSWORD);
+
+        assertEquals("ksm:login:1", values.getValue("ksm", notations, LOGIN));
+        assertEquals("ksm:password:1", values.getValue("ksm", notations, PASSWORD));
+        assertEquals("ksm:login:1", values.getValue("ksm", notations, LOGIN));
+        assertEquals(1, resolver.calls.size());
+        assertEquals(notations, resolver.calls.get(0));
+
+        // Each KSM credential has its own values.
+        assertEquals("other:login:2", values.getValue("other", notations, LOGIN));
+    }
+
+    @Test
+    public void invalidatedValuesAreRetrievedAgain() throws Exception {
+        Resolver resolver = new Resolver();
+        KsmProvidedValues values = new KsmProvidedValues(resolver::resolve, 300);
+        List<String> notations = Arrays.asList(LOGIN, PASSWORD);
+
+        values.getValue("ksm", notations, PASSWORD);
+        values.getValue("other", notations, PASSWORD);
+        values.invalidate("ksm", "Ipk9NR1rCBZXyflWbPwTGA");
+        assertEquals("ksm:password:3", values.getValue("ksm", notations, PASSWORD));
+        assertEquals("other:password:2", values.getValue("other", notations, PASSWORD));
+
+        values.invalidate("other");
+        assertEquals("other:password:4", values.getValue("other", notations, PASSWORD));
+
+        values.invalidateAll();
+        values.getValue("ksm", notations, LOGIN);
+        assertEquals(5, resolver.calls.size());
+    }
+
+    @Test
+    public void credentialsWithTheSameIdHaveTheirOwnValues() throws Exception {
+        Resolver resolver = new Resolver();
+        KsmProvidedValues values = new KsmProvidedValues(resolver::resolve, 300);
+        List<String> notations = Arrays.asList(LOGIN, PASSWORD);
+        String before = credential("keepersecurity.com").getCacheKey();
+        String after = credential("keepersecurity.eu").getCacheKey();
+
+        assertEquals(before + ":login:1", values.getValue(before, notations, LOGIN));
+        assertEquals(after + ":login:2", values.getValue(after, notations, LOGIN));
+        assertEquals(before + ":login:1", values.getValue(before, notations, LOGIN));
+
+        // Changing the credential forgets the values of each one with its id.
+        values.invalidate("ksm");
+        values.getValue(before, notations, LOGIN);
+        values.getValue(after, notations, LOGIN);
+        assertEquals(4, resolver.calls.size());
+
+        values.invalidate("ksm", "Ipk9NR1rCBZXyflWbPwTGA");
+        values.getValue(after, notations, PASSWORD);
+        assertEquals(5, resolver.calls.size());
+    }
+
+    private static KsmCredential credential(String hostname) {
+        return new KsmCredential(CredentialsScope.GLOBAL, "ksm", "ksm", "", null, null, null, hostname, false, false);
+    }
+
+    @Test
+    public void zeroTtlRetrievesEveryTime() throws Exception {
+        Resolver resolver = new Resolver();
+        KsmProvidedValues values = new KsmProvidedValues(resolver::resolve, 0);
+        List<String> notations = Arrays.asList(LOGIN, PASSWORD);
+        values.getValue("ksm", notations, LOGIN);
+        values.getValue("ksm", notations, LOGIN);
+        assertEquals(2, resolver.calls.size());
+    }
+}